@@ -0,0 +1,123 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the page archive: compressing and queueing crawled pages, reading
+ * pages by URL, and scanning the whole archive. The pages are those of the
+ * corpus, stored under as many URLs as the archive is to hold, and the
+ * archive is reopened before it is read, so that reads go through the
+ * loaded indexes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArchiveBenchmark {
+	// Number of URLs read, a power of two so that indices can wrap with a mask
+	private static final int QUERIES = 1 << 16;
+
+	// Directory of stored *.html pages, see BenchmarkCorpus
+	@Param({ "bench/corpus" })
+	public String corpus;
+
+	// Number of pages in the archive that is read
+	@Param({ "10000" })
+	public int size;
+
+	private BenchmarkCorpus pages;
+	private Path directory;
+	private PageArchive archive;
+	// Archive that the add benchmark appends to
+	private PageArchive appended;
+	private String[] sites;
+	private int next;
+
+	@Setup
+	public void fill() throws IOException, InterruptedException {
+		pages = BenchmarkCorpus.load(corpus);
+		directory = Files.createTempDirectory("archive-benchmark");
+		CrawlerConfig config = new CrawlerConfig(new Properties());
+		try (PageArchive filled = new PageArchive(directory.resolve("read"), config)) {
+			for (int i = 0; i < size; i++) {
+				filled.add(site(i), page(i));
+			}
+		}
+		archive = new PageArchive(directory.resolve("read"), config);
+		appended = new PageArchive(directory.resolve("add"), config);
+		Random random = new Random(42);
+		sites = new String[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			sites[i] = site(random.nextInt(size));
+		}
+	}
+
+	@TearDown
+	public void delete() throws IOException {
+		archive.close();
+		appended.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	/**
+	 * Compressing a crawled page and queueing it to be written, as a crawl
+	 * worker does, which waits for the writer once the queue is full.
+	 */
+	@Benchmark
+	public int add() throws InterruptedException {
+		int i = next++;
+		return appended.add(site(i), page(i));
+	}
+
+	/**
+	 * Reading and decompressing a page by its URL.
+	 */
+	@Benchmark
+	public int read() throws IOException {
+		return archive.read(sites[next++ & (QUERIES - 1)]).getBody().length;
+	}
+
+	/**
+	 * Reading and decompressing every page of the archive in order.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public long scan() throws IOException {
+		long[] bytes = new long[1];
+		archive.scan(record -> bytes[0] += record.getBody().length);
+		return bytes[0];
+	}
+
+	private Page page(int i) {
+		return new Page(site(i), 200, "text/html; charset=utf-8", pages.page(i % pages.size()), false, null, null);
+	}
+
+	private static String site(int i) {
+		return "http://host" + (i % 100) + ".example/page/" + i;
+	}
+}
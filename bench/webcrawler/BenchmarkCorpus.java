@@ -0,0 +1,135 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A BenchmarkCorpus is a set of stored HTML pages for benchmarks. Pages are
+ * read from the *.html files of a directory, where the first line of each
+ * file may be an HTML comment holding the page's URL. If the directory has
+ * no pages, a deterministic synthetic corpus is generated instead, so that
+ * the benchmarks also run on a machine without a saved corpus.
+ */
+final class BenchmarkCorpus {
+	private static final int SYNTHETIC_PAGES = 64;
+	private final List<String> urls;
+	private final List<byte[]> pages;
+
+	private BenchmarkCorpus(List<String> urls, List<byte[]> pages) {
+		this.urls = urls;
+		this.pages = pages;
+	}
+
+	/**
+	 * Loads the corpus.
+	 *
+	 * @param directory the directory holding the stored pages
+	 * @return the stored pages, or a synthetic corpus if there are none
+	 * @throws IOException unable to read a stored page
+	 */
+	public static BenchmarkCorpus load(String directory) throws IOException {
+		List<String> urls = new ArrayList<String>();
+		List<byte[]> pages = new ArrayList<byte[]>();
+		Path dir = Paths.get(directory);
+		if (Files.isDirectory(dir)) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.html")) {
+				for (Path file : files) {
+					byte[] page = Files.readAllBytes(file);
+					urls.add(urlOf(page, file));
+					pages.add(page);
+				}
+			}
+		}
+		if (pages.isEmpty()) {
+			Random random = new Random(42);
+			for (int i = 0; i < SYNTHETIC_PAGES; i++) {
+				urls.add("http://host" + (i % 8) + ".example/page/" + i);
+				pages.add(syntheticPage(random, i).getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return new BenchmarkCorpus(urls, pages);
+	}
+
+	/**
+	 * @return the number of pages in the corpus
+	 */
+	public int size() {
+		return pages.size();
+	}
+
+	/**
+	 * @param i index of a page
+	 * @return the URL of the page
+	 */
+	public String url(int i) {
+		return urls.get(i);
+	}
+
+	/**
+	 * @param i index of a page
+	 * @return the bytes of the page
+	 */
+	public byte[] page(int i) {
+		return pages.get(i);
+	}
+
+	/**
+	 * @return the URL in a leading "&lt;!-- url --&gt;" comment, or a file URL
+	 */
+	private static String urlOf(byte[] page, Path file) {
+		String start = new String(page, 0, Math.min(page.length, 2048), StandardCharsets.ISO_8859_1);
+		if (start.startsWith("<!--")) {
+			int end = start.indexOf("-->");
+			if (end > 0) return start.substring(4, end).trim();
+		}
+		return file.toUri().toString();
+	}
+
+	/**
+	 * Generates a page that resembles a real one: a head with scripts and
+	 * styles, nested markup, paragraphs of text, and a few hundred links.
+	 */
+	private static String syntheticPage(Random random, int index) {
+		StringBuilder html = new StringBuilder(64 * 1024);
+		html.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Page ").append(index).append("</title>\n");
+		html.append("<link rel=\"stylesheet\" href=\"/static/site.css\">\n");
+		html.append("<style>body { font-family: sans-serif; } .nav a { color: #333; }</style>\n");
+		html.append("<script>var links = '<a href=\"/not-a-link\">'; function f(a, b) { return a < b; }</script>\n");
+		html.append("</head><body><div class=\"nav\"><ul>\n");
+		for (int i = 0; i < 40; i++) {
+			html.append("<li><a class=\"nav-item\" href=\"/section/").append(i).append("\">Section ").append(i)
+			        .append("</a></li>\n");
+		}
+		html.append("</ul></div>\n<div id=\"content\">\n");
+		for (int i = 0; i < 120; i++) {
+			html.append("<div class=\"item\"><h2>Item ").append(i).append("</h2><p>");
+			for (int w = 0; w < 40; w++) {
+				html.append("lorem ipsum dolor ").append(random.nextInt(1000)).append(' ');
+			}
+			html.append("<a href=\"");
+			switch (random.nextInt(4)) {
+			case 0:
+				html.append("http://host").append(random.nextInt(8)).append(".example/page/").append(random.nextInt(10000));
+				break;
+			case 1:
+				html.append("../page/").append(random.nextInt(10000)).append("?ref=").append(index).append("&amp;x=1");
+				break;
+			case 2:
+				html.append("page/").append(random.nextInt(10000)).append("#top");
+				break;
+			default:
+				html.append("/page/").append(random.nextInt(10000));
+			}
+			html.append("\">read more</a></p><!-- item ").append(i).append(" --></div>\n");
+		}
+		html.append("</div>\n<footer><a href=\"mailto:info@example.com\">contact</a></footer></body></html>\n");
+		return html.toString();
+	}
+}
@@ -0,0 +1,77 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * A BenchmarkDatabase is an empty crawl database for benchmarks. The
+ * mariadb store runs against an embedded H2 database in MariaDB mode
+ * instead of the MariaDB app, and the embedded store keeps its files in
+ * a temporary directory, so that the benchmarks measure the crawler's
+ * persistence code without a database server or the network.
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+	// Name of the crawl database in the store
+	public static final String NAME = "bench";
+	private static final AtomicInteger count = new AtomicInteger();
+	private final CrawlStore store;
+	// Directory of the embedded store, or null
+	private final Path directory;
+
+	/**
+	 * Creates a store with an initialized, empty database called NAME.
+	 *
+	 * @param type the type of the store, see CrawlStore
+	 * @throws IOException unable to create the store
+	 */
+	public BenchmarkDatabase(String type) throws IOException {
+		if (type.equals("embedded")) {
+			directory = Files.createTempDirectory("store");
+			store = new EmbeddedStore(directory);
+		} else {
+			directory = null;
+			store = new MariaDbStore(new ConnectionPool(new CrawlerConfig(withEmbeddedDatabase(new Properties()))));
+		}
+		store.init(NAME, Collections.<String>emptyList());
+	}
+
+	/**
+	 * Adds a new in-memory H2 database to a configuration.
+	 *
+	 * @param properties the other settings of the configuration
+	 * @return the configuration
+	 */
+	public static Properties withEmbeddedDatabase(Properties properties) {
+		Properties settings = new Properties();
+		settings.putAll(properties);
+		// The database lives as long as the connection pool keeps a connection open
+		settings.setProperty("db.url", "jdbc:h2:mem:" + NAME + count.incrementAndGet() + ";MODE=MariaDB");
+		return settings;
+	}
+
+	/**
+	 * @return the store
+	 */
+	public CrawlStore store() {
+		return store;
+	}
+
+	/**
+	 * Closes the store and deletes its files.
+	 */
+	public void close() {
+		store.close();
+		if (directory == null) return;
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures putting the links of the corpus into canonical form, and
+ * filtering them the way a crawl session does before checking whether
+ * they have been seen.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CanonicalizationBenchmark {
+	// Directory of stored *.html pages, see BenchmarkCorpus
+	@Param({ "bench/corpus" })
+	public String corpus;
+
+	private String[] links;
+	private UrlCanonicalizer canonicalizer;
+	private UrlFilter filter;
+
+	@Setup
+	public void load() throws IOException {
+		BenchmarkCorpus pages = BenchmarkCorpus.load(corpus);
+		List<String> found = new ArrayList<String>();
+		for (int i = 0; i < pages.size(); i++) {
+			LinkExtractor.extract(pages.page(i), null, pages.url(i), found::add);
+		}
+		links = found.toArray(new String[0]);
+		CrawlerConfig config = new CrawlerConfig();
+		canonicalizer = new UrlCanonicalizer(config);
+		filter = new UrlFilter(config);
+	}
+
+	/**
+	 * Every link of the corpus in canonical form.
+	 */
+	@Benchmark
+	public void canonicalize(Blackhole blackhole) {
+		for (String link : links) {
+			blackhole.consume(canonicalizer.canonicalize(link));
+		}
+	}
+
+	/**
+	 * Every link of the corpus in canonical form, then filtered.
+	 */
+	@Benchmark
+	public void canonicalizeAndFilter(Blackhole blackhole) {
+		for (String link : links) {
+			String site = canonicalizer.canonicalize(link);
+			blackhole.consume(site != null && filter.accepts(site));
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a whole crawl of a synthetic web served on the loopback
+ * interface, from a single seed until the frontier is exhausted: fetching,
+ * robots.txt, parsing, deduplication, the frontier log and writing to
+ * each store. Divide the number of pages by the time of a crawl to
+ * get the throughput in pages per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CrawlBenchmark {
+	@Param({ "2000" })
+	public int pages;
+
+	@Param({ "10" })
+	public int fanOut;
+
+	// Maximum number of sites being crawled at once
+	@Param({ "16", "64" })
+	public int maxInFlight;
+
+	@Param({ "stream", "dom" })
+	public String parseMode;
+
+	@Param({ "mariadb", "embedded" })
+	public String store;
+
+	private SyntheticWeb web;
+	private Path directory;
+	private CrawlerConfig config;
+	private Fetcher fetcher;
+	private BenchmarkDatabase database;
+
+	@Setup
+	public void start() throws IOException {
+		web = new SyntheticWeb(pages, fanOut);
+		directory = Files.createTempDirectory("crawl-benchmark");
+		Properties properties = new Properties();
+		properties.setProperty("parse.mode", parseMode);
+		// Every page is on the same host, which must not hold up the crawl
+		properties.setProperty("host.maxInFlight", Integer.toString(maxInFlight));
+		properties.setProperty("host.crawlDelay", "0");
+		properties.setProperty("frontier.spillDir", directory.resolve("spill").toString());
+		config = new CrawlerConfig(properties);
+		fetcher = new Fetcher(config);
+	}
+
+	@Setup(Level.Invocation)
+	public void open() throws IOException {
+		database = new BenchmarkDatabase(store);
+	}
+
+	@TearDown(Level.Invocation)
+	public void close() {
+		database.close();
+	}
+
+	@TearDown
+	public void stop() throws IOException {
+		fetcher.close();
+		web.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	/**
+	 * Crawls the synthetic web from its first page.
+	 *
+	 * @return the number of sites that were discovered
+	 */
+	@Benchmark
+	public long crawl() throws IOException, InterruptedException {
+		String seed = web.url(0);
+		Frontier frontier = new Frontier(config);
+		SeenUrls seen = new SeenUrls(pages);
+		seen.add(seed);
+		frontier.offer(seed, 0, Frontier.INITIAL_SCORE);
+		try (FrontierLog log = new FrontierLog(directory.resolve("crawl.log"), config)) {
+			log.clear();
+			log.attach(false);
+			log.enqueue(seed, 0);
+			CrawlMetrics metrics = new CrawlMetrics();
+			SiteWriter writer = new SiteWriter(database.store(), BenchmarkDatabase.NAME, metrics, config);
+			NearDuplicateIndex nearDuplicates = config.duplicatesEnabled()
+			        ? new NearDuplicateIndex(config.duplicatesMaxDistance(), config.duplicatesCapacity())
+			        : null;
+			CrawlSession session = new CrawlSession(frontier, log, seen, nearDuplicates,
+			        new ConcurrentHashMap<String, PageVersion>(), writer, null,
+			        ProcessorPipeline.create(database.store(), BenchmarkDatabase.NAME, metrics, config), fetcher,
+			        new RobotsCache(fetcher, config), metrics, config, null, BenchmarkDatabase.NAME, maxInFlight,
+			        config.crawlMaxDepth());
+			session.start(Collections.singletonList(seed));
+			while (session.isRunning()) {
+				Thread.sleep(1);
+			}
+		}
+		return seen.size();
+	}
+}
@@ -0,0 +1,284 @@
+package webcrawler;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * The CrawlHarness crawls a SyntheticWeb with the start command of a
+ * WebCrawler, as a client of the server would, and reports the throughput
+ * of the crawl, the peak number of threads, the heap usage and the rate of
+ * database writes while it runs and once it has finished.
+ *
+ * Settings are read from the properties file given as the first argument,
+ * if any, and then from system properties, so they can be given as -D
+ * options. The web.* settings configure the web (see SyntheticWeb), every
+ * other setting configures the crawler (see crawler.properties), and the
+ * harness itself is configured with:
+ *   harness.threads - number of sites crawled at once (default 64)
+ *   harness.depth - maximum number of links from the seed (default unlimited)
+ *   harness.duration - seconds after which the crawl is stopped (default 600)
+ *   harness.interval - milliseconds between progress reports (default 1000)
+ *   harness.nodes - number of servers that crawl as a cluster (default 1)
+ *   harness.recrawl - true to recrawl the web once the crawl has finished,
+ *                     with every page due right away (default false)
+ *
+ * The mariadb store writes to an embedded H2 database unless db.url is set,
+ * and the embedded store keeps its files in a temporary directory.
+ *
+ * With several nodes, every node is a server of its own in this JVM, with
+ * its own store, and the nodes forward sites to each other over the
+ * loopback interface. A crawl of a cluster never ends by itself, so the
+ * harness stops the nodes once none of them has crawled a page for two
+ * progress reports. Use web.hosts to give the nodes hosts to share.
+ */
+public class CrawlHarness {
+	private static final long MB = 1024 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		Properties settings = new Properties();
+		if (args.length > 0) {
+			try (InputStream in = new FileInputStream(args[0])) {
+				settings.load(in);
+			}
+		}
+		settings.putAll(System.getProperties());
+		int threads = Integer.parseInt(settings.getProperty("harness.threads", "64"));
+		String depth = settings.getProperty("harness.depth", "");
+		long duration = Long.parseLong(settings.getProperty("harness.duration", "600")) * 1000;
+		long interval = Long.parseLong(settings.getProperty("harness.interval", "1000"));
+		int nodes = Integer.parseInt(settings.getProperty("harness.nodes", "1"));
+		boolean recrawl = settings.getProperty("harness.recrawl", "false").trim().equalsIgnoreCase("true");
+
+		SyntheticWeb web = new SyntheticWeb(settings);
+		Path directory = Files.createTempDirectory("crawl-harness");
+		Path seeds = directory.resolve("seeds.txt");
+		Files.write(seeds, Collections.singletonList(web.url(0)));
+
+		// The web is on the loopback interface, so politeness delays only slow the crawl down
+		Properties properties = new Properties();
+		properties.setProperty("host.crawlDelay", "0");
+		if (recrawl) {
+			properties.setProperty("recrawl.interval", "0");
+			properties.setProperty("recrawl.minInterval", "0");
+		}
+		properties.putAll(settings);
+		properties.setProperty("server.port", "0");
+		properties.setProperty("seeds.file", seeds.toString());
+		List<String> addresses = freeAddresses(nodes);
+		if (nodes > 1) properties.setProperty("cluster.nodes", String.join(",", addresses));
+
+		List<WebCrawler> clients = new ArrayList<WebCrawler>();
+		List<CrawlMetrics> metrics = new ArrayList<CrawlMetrics>();
+		for (int node = 0; node < nodes; node++) {
+			Properties nodeProperties = new Properties();
+			nodeProperties.putAll(properties);
+			Path nodeDirectory = directory.resolve("node" + node);
+			nodeProperties.setProperty("cluster.node", Integer.toString(node));
+			nodeProperties.setProperty("frontier.logDir", nodeDirectory.resolve("frontier").toString());
+			nodeProperties.setProperty("frontier.spillDir", nodeDirectory.resolve("spill").toString());
+			nodeProperties.setProperty("store.dir", nodeDirectory.resolve("store").toString());
+			nodeProperties.setProperty("archive.dir", nodeDirectory.resolve("archive").toString());
+			CrawlerConfig config = new CrawlerConfig(settings.containsKey("db.url") ? nodeProperties
+			        : BenchmarkDatabase.withEmbeddedDatabase(nodeProperties));
+			WebCrawlerServer server = new WebCrawlerServer(config);
+			clients.add(server.connect());
+			metrics.add(server.getMetrics());
+		}
+		System.out.println(web.size() + " pages, " + threads + " threads" + (nodes > 1 ? " on each of " + nodes + " nodes" : ""));
+		for (WebCrawler client : clients) {
+			System.out.println(client.execute("init"));
+		}
+
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		threadBean.resetPeakThreadCount();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			pool.resetPeakUsage();
+		}
+		// Sites forwarded to a node that is not crawling yet would wait for a resume,
+		// so the node of the seed starts last
+		int seedNode = new HashRing(addresses).owner(Frontier.hostOf(web.url(0)));
+		long start = System.nanoTime();
+		for (int node = 0; node < nodes; node++) {
+			if (node != seedNode) System.out.println(clients.get(node).execute(("start " + threads + " " + depth).trim()));
+		}
+		System.out.println(clients.get(seedNode).execute(("start " + threads + " " + depth).trim()));
+		long peakHeap = awaitCrawl(clients, metrics, start, duration, interval, threadBean);
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long pages = pageCount(metrics);
+		long rows = rowsWritten(metrics);
+		System.out.println();
+		System.out.println(String.format(Locale.ROOT, "crawled %d pages (%d errors) in %.1f s", pages,
+		        errorCount(metrics), seconds));
+		System.out.println(String.format(Locale.ROOT, "pages/s %.1f", pages / seconds));
+		System.out.println(String.format(Locale.ROOT, "db rows written %d (%.1f/s)", rows, rows / seconds));
+		System.out.println("peak threads " + threadBean.getPeakThreadCount() + " (" + web.threadCount()
+		        + " of them serve the synthetic web)");
+		System.out.println("peak heap " + peakHeap / MB + " MB sampled, at most " + Math.max(peakHeap, heapPeak()) / MB + " MB");
+
+		if (recrawl) {
+			System.out.println();
+			long recrawlStart = System.nanoTime();
+			for (WebCrawler client : clients) {
+				System.out.println(client.execute(("recrawl " + threads + " " + depth).trim()));
+			}
+			awaitCrawl(clients, metrics, recrawlStart, duration, interval, threadBean);
+			seconds = (System.nanoTime() - recrawlStart) / 1e9;
+			System.out.println();
+			System.out.println(String.format(Locale.ROOT, "recrawled %d pages (%d unchanged) in %.1f s",
+			        pageCount(metrics) - pages, unchangedCount(metrics), seconds));
+			System.out.println(String.format(Locale.ROOT, "pages/s %.1f", (pageCount(metrics) - pages) / seconds));
+			System.out.println(String.format(Locale.ROOT, "db rows written %d", rowsWritten(metrics) - rows));
+		}
+
+		for (int node = 0; node < nodes; node++) {
+			System.out.println();
+			if (nodes > 1) System.out.println("node " + node);
+			System.out.println(clients.get(node).execute("stats"));
+		}
+
+		web.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Reports the progress of the crawl of every client until all of them
+	 * have finished, stopping them once the duration has passed or, in a
+	 * cluster, once none of them has crawled a page for two reports.
+	 *
+	 * @return the peak heap usage that was sampled
+	 */
+	private static long awaitCrawl(List<WebCrawler> clients, List<CrawlMetrics> metrics, long start, long duration,
+	        long interval, ThreadMXBean threadBean) throws InterruptedException {
+		int nodes = clients.size();
+		long lastTime = start;
+		long lastPages = pageCount(metrics);
+		long lastRows = rowsWritten(metrics);
+		long peakHeap = 0;
+		long lastCrawled = lastPages + errorCount(metrics);
+		long startCrawled = lastCrawled;
+		int idleReports = 0;
+		while (isRunning(clients)) {
+			Thread.sleep(interval);
+			long now = System.nanoTime();
+			long pages = pageCount(metrics);
+			long rows = rowsWritten(metrics);
+			long crawled = pages + errorCount(metrics);
+			idleReports = crawled == lastCrawled && crawled > startCrawled ? idleReports + 1 : 0;
+			lastCrawled = crawled;
+			if (now - start > duration * 1000000 || (nodes > 1 && idleReports >= 2)) {
+				for (WebCrawler client : clients) {
+					System.out.println(client.execute("stop"));
+				}
+			}
+
+			long heap = heapUsed();
+			peakHeap = Math.max(peakHeap, heap);
+			double seconds = (now - lastTime) / 1e9;
+			System.out.println(String.format(Locale.ROOT, "%6.1f s  %8d pages  %8.1f pages/s  %8.1f rows/s  %4d threads  %5d MB heap",
+			        (now - start) / 1e9, pages, (pages - lastPages) / seconds, (rows - lastRows) / seconds,
+			        threadBean.getThreadCount(), heap / MB));
+			lastTime = now;
+			lastPages = pages;
+			lastRows = rows;
+		}
+		return peakHeap;
+	}
+
+	private static boolean isRunning(List<WebCrawler> clients) {
+		for (WebCrawler client : clients) {
+			if (client.isRunning()) return true;
+		}
+		return false;
+	}
+
+	private static long pageCount(List<CrawlMetrics> metrics) {
+		long count = 0;
+		for (CrawlMetrics nodeMetrics : metrics) {
+			count += nodeMetrics.pageCount();
+		}
+		return count;
+	}
+
+	private static long errorCount(List<CrawlMetrics> metrics) {
+		long count = 0;
+		for (CrawlMetrics nodeMetrics : metrics) {
+			count += nodeMetrics.errorCount();
+		}
+		return count;
+	}
+
+	private static long unchangedCount(List<CrawlMetrics> metrics) {
+		long count = 0;
+		for (CrawlMetrics nodeMetrics : metrics) {
+			count += nodeMetrics.unchangedCount();
+		}
+		return count;
+	}
+
+	private static long rowsWritten(List<CrawlMetrics> metrics) {
+		long count = 0;
+		for (CrawlMetrics nodeMetrics : metrics) {
+			count += nodeMetrics.rowsWritten();
+		}
+		return count;
+	}
+
+	/**
+	 * @return loopback addresses with ports that are free right now, for
+	 * the nodes of a cluster
+	 */
+	private static List<String> freeAddresses(int count) throws IOException {
+		List<String> addresses = new ArrayList<String>();
+		List<ServerSocket> sockets = new ArrayList<ServerSocket>();
+		try {
+			for (int i = 0; i < count; i++) {
+				ServerSocket socket = new ServerSocket(0);
+				sockets.add(socket);
+				addresses.add("127.0.0.1:" + socket.getLocalPort());
+			}
+		} finally {
+			for (ServerSocket socket : sockets) {
+				socket.close();
+			}
+		}
+		return addresses;
+	}
+
+	/**
+	 * @return the number of bytes in use in the heap
+	 */
+	private static long heapUsed() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * @return the sum of the peak usages of the heap's memory pools, which
+	 * is at least the peak usage of the heap
+	 */
+	private static long heapPeak() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+}
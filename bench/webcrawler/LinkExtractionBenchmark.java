@@ -0,0 +1,64 @@
+package webcrawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares finding the links of a page by building a Jsoup document and
+ * by scanning the page with the streaming link extractor. Run with
+ * -prof gc to compare the allocation rates as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LinkExtractionBenchmark {
+	// Directory of stored *.html pages, see BenchmarkCorpus
+	@Param({ "bench/corpus" })
+	public String corpus;
+
+	private BenchmarkCorpus pages;
+
+	@Setup
+	public void load() throws IOException {
+		pages = BenchmarkCorpus.load(corpus);
+	}
+
+	/**
+	 * Links of every page of the corpus, found without a document tree.
+	 */
+	@Benchmark
+	public void streaming(Blackhole blackhole) {
+		for (int i = 0; i < pages.size(); i++) {
+			LinkExtractor.extract(pages.page(i), null, pages.url(i), blackhole::consume);
+		}
+	}
+
+	/**
+	 * Links of every page of the corpus, found through a Jsoup document.
+	 */
+	@Benchmark
+	public void dom(Blackhole blackhole) throws IOException {
+		for (int i = 0; i < pages.size(); i++) {
+			LinkExtractor.extract(Jsoup.parse(new ByteArrayInputStream(pages.page(i)), null, pages.url(i)),
+			        blackhole::consume);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the SiteWriter recording newly discovered sites and the outcome
+ * of fetching them, in each store and for several batch sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+	// Sites written by each invocation
+	private static final int SITES = 10000;
+	private static final int HOSTS = 100;
+
+	@Param({ "mariadb", "embedded" })
+	public String store;
+
+	@Param({ "100", "500", "2000" })
+	public int batchSize;
+
+	private CrawlerConfig config;
+	private CrawlMetrics metrics;
+	private BenchmarkDatabase database;
+	// Number of sites written so far, so that every invocation writes new sites
+	private int written;
+
+	@Setup
+	public void configure() {
+		Properties properties = new Properties();
+		properties.setProperty("writer.batchSize", Integer.toString(batchSize));
+		config = new CrawlerConfig(properties);
+		metrics = new CrawlMetrics();
+	}
+
+	@Setup(Level.Iteration)
+	public void open() throws IOException {
+		database = new BenchmarkDatabase(store);
+	}
+
+	@TearDown(Level.Iteration)
+	public void close() {
+		database.close();
+	}
+
+	/**
+	 * Discovers and then fetches SITES new sites, and waits until the
+	 * writer has written all of them.
+	 */
+	@Benchmark
+	public void discoverAndFetch() throws InterruptedException {
+		SiteWriter writer = new SiteWriter(database.store(), BenchmarkDatabase.NAME, metrics, config);
+		writer.start();
+		int first = written;
+		for (int i = first; i < first + SITES; i++) {
+			writer.write(site(i));
+		}
+		for (int i = first; i < first + SITES; i++) {
+			writer.fetched(site(i), true, null);
+		}
+		writer.close();
+		written += SITES;
+	}
+
+	private static String site(int i) {
+		return "http://host" + (i % HOSTS) + ".example/page/" + i;
+	}
+}
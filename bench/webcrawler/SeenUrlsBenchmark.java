@@ -0,0 +1,96 @@
+package webcrawler;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures checking discovered URLs against the set of seen URLs once it
+ * holds millions of them. Most links on a page have been seen before, so
+ * both lookups that hit and lookups that miss are measured, from one
+ * thread and from several threads sharing the set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SeenUrlsBenchmark {
+	// Number of URLs looked up, a power of two so that indices can wrap with a mask
+	private static final int QUERIES = 1 << 16;
+
+	// Number of URLs in the set
+	@Param({ "1000000", "10000000" })
+	public int size;
+
+	private SeenUrls seen;
+	private String[] seenSites;
+	private String[] newSites;
+
+	@Setup
+	public void fill() {
+		seen = new SeenUrls(size);
+		for (int i = 0; i < size; i++) {
+			seen.add(site(i));
+		}
+		Random random = new Random(42);
+		seenSites = new String[QUERIES];
+		newSites = new String[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			seenSites[i] = site(random.nextInt(size));
+			newSites[i] = site(size + i);
+		}
+	}
+
+	/**
+	 * Each thread walks through the queries from its own position.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next = new Random().nextInt(QUERIES);
+
+		private int next() {
+			return next++ & (QUERIES - 1);
+		}
+	}
+
+	/**
+	 * Adding a URL that is already in the set, as for most links.
+	 */
+	@Benchmark
+	public boolean addSeen(Cursor cursor) {
+		return seen.add(seenSites[cursor.next()]);
+	}
+
+	/**
+	 * Looking up a URL that is not in the set, which the Bloom filter
+	 * usually answers on its own.
+	 */
+	@Benchmark
+	public boolean containsNew(Cursor cursor) {
+		return seen.contains(newSites[cursor.next()]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public boolean addSeenContended(Cursor cursor) {
+		return seen.add(seenSites[cursor.next()]);
+	}
+
+	private static String site(int i) {
+		return "http://host" + (i % 50000) + ".example/page/" + i;
+	}
+}
@@ -0,0 +1,308 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A SyntheticWeb is a deterministic web of generated pages that an
+ * in-process HTTP server serves on the loopback interface, so that whole
+ * crawls can be measured without touching real sites.
+ *
+ * The pages form a tree: page i links to its fanOut children fanOut * i + 1
+ * to fanOut * i + fanOut, so every page can be reached from page 0, and
+ * the tree is cut off after the given depth or number of pages. Every page
+ * also links to crossLinks pages chosen at random, which the crawler has
+ * mostly seen before. Page i is served by host i % hosts at /page/i, where
+ * host h is the loopback address 127.0.h / 254.h % 254 + 1, so that many
+ * hosts can be crawled without DNS. There is no robots.txt.
+ *
+ * Pages are padded to the given size with text made of random words, so
+ * that no two pages have the same text. Responses can be delayed
+ * by a random latency, and a fraction of the pages can fail with a server
+ * error. Both are derived from the index of the page, so every crawl of a
+ * web sees the same pages, latencies and errors. Pages never change, and
+ * carry an ETag unless validators are turned off, so that recrawls can be
+ * answered with 304 Not Modified.
+ *
+ * The web can also be mirrored: then page i is served a second time at
+ * /mirror/i, with the same text but links to the mirrored pages, and page
+ * 0 links to /mirror/0. A crawler that does not detect near-duplicate
+ * pages crawls the whole web twice.
+ *
+ * A fraction of the pages can be job postings, which describe a job with
+ * the JSON-LD of schema.org, for the page processors to extract. Which
+ * pages they are is derived from the index of the page as well.
+ *
+ * The web is configured with these settings:
+ *   web.pages - maximum number of pages (default 10000)
+ *   web.depth - maximum number of links from page 0 to a page (default unlimited)
+ *   web.fanOut - number of children of every page (default 10)
+ *   web.crossLinks - number of links to random pages on every page (default 5)
+ *   web.hosts - number of hosts (default 1)
+ *   web.pageSize - approximate size of a page in bytes (default 8192)
+ *   web.latency - mean delay of a response in milliseconds (default 0)
+ *   web.errorRate - fraction of the pages that fail with status 500 (default 0)
+ *   web.validators - false to send pages without an ETag (default true)
+ *   web.mirror - true to serve every page at a second URL (default false)
+ *   web.jobRate - fraction of the pages that are job postings (default 0)
+ */
+final class SyntheticWeb implements AutoCloseable {
+	static {
+		// Otherwise small responses wait for delayed acknowledgements
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private static final int SERVER_THREADS = 16;
+	private static final int SCHEDULER_THREADS = 2;
+	private static final String[] WORDS = ("lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod"
+	        + " tempor incididunt ut labore et dolore magna aliqua enim ad minim veniam quis nostrud exercitation"
+	        + " ullamco laboris nisi aliquip ex ea commodo consequat duis aute irure in reprehenderit voluptate velit"
+	        + " esse cillum fugiat nulla pariatur excepteur sint occaecat cupidatat non proident sunt culpa qui officia"
+	        + " deserunt mollit anim id est laborum").split(" ");
+	private static final int WORDS_PER_PARAGRAPH = 16;
+	// Mixed into the index of a page to choose the job postings, so that
+	// they do not depend on the other random choices of the page
+	private static final long JOB_SEED = 0x6a6f6273L;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	// Sends the responses that are delayed
+	private final ScheduledExecutorService scheduler;
+	private final int pages;
+	private final int fanOut;
+	private final int crossLinks;
+	private final int hosts;
+	private final int pageSize;
+	private final long latency;
+	private final double errorRate;
+	private final boolean validators;
+	private final boolean mirror;
+	private final double jobRate;
+
+	/**
+	 * Starts serving a web that consists of a single host.
+	 *
+	 * @param pages the number of pages
+	 * @param fanOut the number of links on every page
+	 * @throws IOException unable to start the server
+	 */
+	public SyntheticWeb(int pages, int fanOut) throws IOException {
+		this(settings(pages, fanOut));
+	}
+
+	/**
+	 * Starts serving a web.
+	 *
+	 * @param settings the web.* settings described above
+	 * @throws IOException unable to start the server
+	 */
+	public SyntheticWeb(Properties settings) throws IOException {
+		this.fanOut = Math.max(1, getInt(settings, "web.fanOut", 10));
+		this.pages = (int) Math.min(getInt(settings, "web.pages", 10000),
+		        treeSize(fanOut, getInt(settings, "web.depth", Integer.MAX_VALUE)));
+		this.crossLinks = getInt(settings, "web.crossLinks", 5);
+		this.hosts = Math.max(1, Math.min(getInt(settings, "web.hosts", 1), 254 * 256));
+		this.pageSize = getInt(settings, "web.pageSize", 8192);
+		this.latency = getInt(settings, "web.latency", 0);
+		this.errorRate = Double.parseDouble(settings.getProperty("web.errorRate", "0"));
+		this.validators = !settings.getProperty("web.validators", "true").trim().equalsIgnoreCase("false");
+		this.mirror = settings.getProperty("web.mirror", "false").trim().equalsIgnoreCase("true");
+		this.jobRate = Double.parseDouble(settings.getProperty("web.jobRate", "0"));
+		this.executor = Executors.newFixedThreadPool(SERVER_THREADS, daemon("synthetic-web"));
+		this.scheduler = Executors.newScheduledThreadPool(SCHEDULER_THREADS, daemon("synthetic-web-latency"));
+
+		// A single host only needs 127.0.0.1, other hosts are reached through the wildcard address
+		InetSocketAddress address = hosts == 1 ? new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)
+		        : new InetSocketAddress(0);
+		this.server = HttpServer.create(address, 1024);
+		server.createContext("/", this::handle);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @param page the index of a page
+	 * @return the URL of the page
+	 */
+	public String url(int page) {
+		return url(page, false);
+	}
+
+	/**
+	 * @param page the index of a page
+	 * @param mirrored true for the URL of the mirrored page
+	 * @return the URL of the page
+	 */
+	private String url(int page, boolean mirrored) {
+		return "http://" + host(page % hosts) + ":" + server.getAddress().getPort() + (mirrored ? "/mirror/" : "/page/")
+		        + page;
+	}
+
+	/**
+	 * @return the number of pages
+	 */
+	public int size() {
+		return pages;
+	}
+
+	/**
+	 * @return the number of threads that serve the web
+	 */
+	public int threadCount() {
+		// The server has a thread of its own that accepts connections
+		return SERVER_THREADS + SCHEDULER_THREADS + 1;
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	public void close() {
+		server.stop(0);
+		scheduler.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		boolean mirrored = mirror && path.startsWith("/mirror/");
+		int page = -1;
+		if (path.startsWith("/page/") || mirrored) {
+			try {
+				page = Integer.parseInt(path.substring(path.indexOf('/', 1) + 1));
+			} catch (NumberFormatException e) {
+				// Not a page of this web
+			}
+		}
+
+		// Only serve pages through their own host, and never to other machines
+		InetAddress local = exchange.getLocalAddress().getAddress();
+		if (page < 0 || page >= pages || !local.isLoopbackAddress()
+		        || !local.getHostAddress().equals(host(page % hosts))) {
+			respond(exchange, 404, page, false);
+			return;
+		}
+
+		SplittableRandom random = new SplittableRandom(page);
+		boolean notModified = validators && etag(page, mirrored).equals(exchange.getRequestHeaders().getFirst("If-None-Match"));
+		int status = random.nextDouble() < errorRate ? 500 : notModified ? 304 : 200;
+		long delay = latency > 0 ? random.nextLong(2 * latency + 1) : 0;
+		int served = page;
+		if (delay == 0) respond(exchange, status, served, mirrored);
+		else scheduler.schedule(() -> respond(exchange, status, served, mirrored), delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void respond(HttpExchange exchange, int status, int page, boolean mirrored) {
+		try (OutputStream out = exchange.getResponseBody()) {
+			if (validators && (status == 200 || status == 304)) {
+				exchange.getResponseHeaders().set("ETag", etag(page, mirrored));
+			}
+			if (status != 200) {
+				exchange.sendResponseHeaders(status, -1);
+				return;
+			}
+			byte[] body = page(page, mirrored).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+			exchange.sendResponseHeaders(status, body.length);
+			out.write(body);
+		} catch (IOException e) {
+			// The crawler has given up on the page
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private String page(int page, boolean mirrored) {
+		StringBuilder html = new StringBuilder(pageSize + 256);
+		html.append("<!DOCTYPE html>\n<html><head><title>Page ").append(page).append("</title>\n");
+		if (jobRate > 0 && new SplittableRandom(page ^ JOB_SEED).nextDouble() < jobRate) jobPosting(html, page);
+		html.append("</head><body>\n");
+		html.append("<ul>\n");
+		for (long child = (long) fanOut * page + 1; child <= (long) fanOut * page + fanOut && child < pages; child++) {
+			link(html, (int) child, mirrored);
+		}
+		SplittableRandom random = new SplittableRandom(~page);
+		for (int i = 0; i < crossLinks; i++) {
+			link(html, random.nextInt(pages), mirrored);
+		}
+		if (mirror && page == 0 && !mirrored) link(html, 0, true);
+		html.append("</ul>\n");
+		while (html.length() < pageSize) {
+			html.append("<p>");
+			for (int i = 0; i < WORDS_PER_PARAGRAPH; i++) {
+				html.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			html.append(".</p>\n");
+		}
+		html.append("</body></html>\n");
+		return html.toString();
+	}
+
+	private void jobPosting(StringBuilder html, int page) {
+		html.append("<script type=\"application/ld+json\">{\"@context\": \"https://schema.org\", \"@type\": \"JobPosting\",");
+		html.append(" \"title\": \"Job ").append(page).append("\", \"datePosted\": \"2024-01-01\",");
+		html.append(" \"employmentType\": \"FULL_TIME\", \"description\": \"<p>Job ").append(page).append(" at host ");
+		html.append(page % hosts).append("</p>\", \"hiringOrganization\": {\"@type\": \"Organization\", \"name\": \"Host ");
+		html.append(page % hosts).append("\"}, \"jobLocation\": {\"@type\": \"Place\", \"address\": {\"@type\":");
+		html.append(" \"PostalAddress\", \"addressLocality\": \"Loopback\", \"addressCountry\": \"ZZ\"}}}</script>\n");
+	}
+
+	private static String etag(int page, boolean mirrored) {
+		return (mirrored ? "\"mirror-" : "\"page-") + page + "\"";
+	}
+
+	private void link(StringBuilder html, int page, boolean mirrored) {
+		html.append("<li><a href=\"").append(url(page, mirrored)).append("\">Page ").append(page).append("</a></li>\n");
+	}
+
+	/**
+	 * @return the address of a host
+	 */
+	private static String host(int host) {
+		return "127.0." + (host / 254) + "." + (host % 254 + 1);
+	}
+
+	/**
+	 * @return the number of pages of a tree with the given fan-out, cut off after depth
+	 */
+	private static long treeSize(int fanOut, int depth) {
+		long size = 0;
+		long level = 1;
+		for (int d = 0; d <= depth && size < Integer.MAX_VALUE; d++) {
+			size += level;
+			level = Math.min(level * fanOut, Integer.MAX_VALUE);
+		}
+		return size;
+	}
+
+	private static Properties settings(int pages, int fanOut) {
+		Properties settings = new Properties();
+		settings.setProperty("web.pages", Integer.toString(pages));
+		settings.setProperty("web.fanOut", Integer.toString(fanOut));
+		return settings;
+	}
+
+	private static int getInt(Properties settings, String key, int defaultValue) {
+		String value = settings.getProperty(key);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	private static ThreadFactory daemon(String name) {
+		return runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
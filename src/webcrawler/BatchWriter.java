@@ -0,0 +1,152 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A BatchWriter hands items from the crawl to a dedicated thread through
+ * a bounded queue, and the thread passes them on to a sink in batches. A
+ * batch is written once it is full or once the flush interval has passed,
+ * whichever comes first. When the queue is full, the threads that add
+ * items wait for the writer to catch up. It is the loop behind the
+ * SiteWriter and the ExtractWriter.
+ *
+ * @param <T> the type of the items
+ */
+class BatchWriter<T> {
+	/**
+	 * Receives the batches of a BatchWriter, on its thread.
+	 *
+	 * @param <T> the type of the items
+	 */
+	interface Sink<T> {
+		/**
+		 * Writes a batch of items.
+		 *
+		 * @param batch the items, which must not be kept
+		 * @throws IOException unable to write the batch, which is then dropped
+		 */
+		void write(List<T> batch) throws IOException;
+	}
+
+	// Marks the end of the queue, so the writer thread knows to stop
+	private static final Object END = new Object();
+	private final Sink<T> sink;
+	private final int batchSize;
+	private final long flushInterval;
+	// Holds items of type T and finally END
+	private final BlockingQueue<Object> queue;
+	private final Thread thread;
+
+	// Rep invariant:
+	//		sink != null, batchSize > 0, flushInterval > 0
+	//		queue != null, thread != null
+	//		every element of queue is a T or END, and END is last
+	// Abstraction function:
+	//		Represents the items in queue, which have not been written yet.
+	// Thread safety argument:
+	//		The threads that add items and the writer thread only share
+	//		queue, which is a threadsafe BlockingQueue.
+
+	/**
+	 * Creates a writer. The writer thread does not run until start() is called.
+	 *
+	 * @param name the name of the writer thread
+	 * @param sink receives the batches
+	 * @param config the crawler configuration, whose writer settings are used
+	 */
+	public BatchWriter(String name, Sink<T> sink, CrawlerConfig config) {
+		this.sink = sink;
+		this.batchSize = config.writerBatchSize();
+		this.flushInterval = config.writerFlushInterval();
+		this.queue = new ArrayBlockingQueue<Object>(config.writerQueueCapacity());
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				writeBatches();
+			}
+		}, name);
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Queues an item to be written. Blocks while the queue is full.
+	 *
+	 * @param item the item
+	 * @throws InterruptedException the calling thread was interrupted
+	 */
+	public void put(T item) throws InterruptedException {
+		queue.put(item);
+	}
+
+	/**
+	 * Writes every queued item, then stops the writer thread. Must not be
+	 * called while items are still being added.
+	 */
+	public void close() {
+		try {
+			queue.put(END);
+			thread.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * The body of the writer thread.
+	 */
+	private void writeBatches() {
+		List<Object> batch = new ArrayList<Object>(batchSize);
+		boolean closed = false;
+		while (!closed) {
+			// Collect items until the batch is full or the flush interval has passed
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+			try {
+				while (batch.size() < batchSize) {
+					Object item = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (item == null) break;
+					if (item == END) {
+						closed = true;
+						break;
+					}
+					batch.add(item);
+					queue.drainTo(batch, batchSize - batch.size());
+				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				closed = true;
+			}
+
+			// The END marker may have been drained with the rest of the batch
+			if (batch.remove(END)) closed = true;
+
+			if (batch.size() > 0) {
+				flush(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Passes a batch of items to the sink.
+	 *
+	 * @param batch the items to write, all of type T
+	 */
+	@SuppressWarnings("unchecked")
+	private void flush(List<Object> batch) {
+		try {
+			sink.write((List<T>) (List<?>) batch);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
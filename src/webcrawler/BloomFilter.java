@@ -0,0 +1,67 @@
+package webcrawler;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A BloomFilter is a compact set of 64-bit fingerprints that may report
+ * false positives but never false negatives. The bits are stored off-heap
+ * so that a large filter does not add to garbage collection work.
+ * This class is not threadsafe.
+ */
+class BloomFilter {
+	private static final int BITS_PER_ENTRY = 10;
+	private static final int HASH_COUNT = 7;
+	private final ByteBuffer bits;
+	private final long bitMask;
+
+	// Rep invariant:
+	//		bits.capacity() is a power of two and at least 8
+	//		bitMask == bits.capacity() * 8 - 1
+	// Abstraction function:
+	//		Represents the set of fingerprints f that have been added, where
+	//		bit (h1(f) + i * h2(f)) & bitMask is set for all i < HASH_COUNT.
+
+	/**
+	 * Creates an empty filter sized for about a 1% false positive rate.
+	 *
+	 * @param expectedEntries the number of fingerprints expected to be added
+	 */
+	public BloomFilter(long expectedEntries) {
+		long bitCount = Long.highestOneBit(Math.max(64, expectedEntries * BITS_PER_ENTRY - 1)) << 1;
+		// A direct buffer is limited to Integer.MAX_VALUE bytes
+		bitCount = Math.min(bitCount, 1L << 33);
+		this.bits = ByteBuffer.allocateDirect((int) Math.min(bitCount / 8, 1 << 30));
+		this.bitMask = bits.capacity() * 8L - 1;
+	}
+
+	/**
+	 * @param fingerprint a fingerprint
+	 * @return false if the fingerprint has definitely not been added
+	 */
+	public boolean mightContain(long fingerprint) {
+		long hash = Fingerprint.mix(fingerprint);
+		long h1 = hash >>> 32;
+		long h2 = (hash & 0xffffffffL) | 1;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			long bit = (h1 + i * h2) & bitMask;
+			if ((bits.get((int) (bit >>> 3)) & (1 << (bit & 7))) == 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a fingerprint to the filter.
+	 *
+	 * @param fingerprint the fingerprint to add
+	 */
+	public void add(long fingerprint) {
+		long hash = Fingerprint.mix(fingerprint);
+		long h1 = hash >>> 32;
+		long h2 = (hash & 0xffffffffL) | 1;
+		for (int i = 0; i < HASH_COUNT; i++) {
+			long bit = (h1 + i * h2) & bitMask;
+			int index = (int) (bit >>> 3);
+			bits.put(index, (byte) (bits.get(index) | (1 << (bit & 7))));
+		}
+	}
+}
@@ -0,0 +1,414 @@
+package webcrawler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Cluster is the set of servers that crawl the same databases together,
+ * each in a store of its own. Every host belongs to exactly one node of
+ * the cluster, chosen by a HashRing, and only that node crawls and stores
+ * the sites of the host. When a node finds a link to a host of another
+ * node, it forwards the site to that node instead of crawling it.
+ *
+ * Sites are forwarded in batches over a single connection to each other
+ * node. A batch is sent once it is full or once the flush interval has
+ * passed, whichever comes first. A node that cannot be reached is retried
+ * with a growing delay until it comes back, keeping at most a fixed
+ * number of sites waiting for it; sites beyond that are dropped.
+ *
+ * A connection starts with MAGIC, followed by any number of batches of
+ * the form [database][count]{[site][depth][score]}, where the strings are
+ * modified UTF-8 as written by DataOutputStream, count and depth are
+ * 4-byte integers, and score is a 4-byte float.
+ */
+class Cluster implements AutoCloseable {
+	/**
+	 * Receives the sites that other nodes forward to this node.
+	 */
+	interface Receiver {
+		/**
+		 * Adds forwarded sites to the crawl of a database. May block
+		 * until the crawl has room for them, which holds up the node
+		 * that forwarded them.
+		 *
+		 * @param database the name of the database
+		 * @param links the forwarded sites
+		 */
+		void receive(String database, List<Link> links);
+	}
+
+	// "WCL1", so that clients of the command port are turned away
+	private static final int MAGIC = 0x57434c31;
+	private static final int MAX_BATCH_SIZE = 1 << 20;
+	private static final int CONNECT_TIMEOUT = 5000;
+	private static final long RETRY_DELAY = 1000;
+	// The delay doubles with every failed retry, up to this many milliseconds
+	private static final long MAX_RETRY_DELAY = 30000;
+	private final HashRing ring;
+	// Index of this node in the ring
+	private final int self;
+	// Outgoing batches by node, or null for this node
+	private final Peer[] peers;
+	private final Receiver receiver;
+	private final CrawlMetrics metrics;
+	private final ServerSocket serverSocket;
+	private volatile boolean closed;
+
+	// Rep invariant:
+	//		ring != null, 0 <= self < ring.size()
+	//		peers.length == ring.size(), peers[i] == null iff i == self
+	//		receiver != null, metrics != null, serverSocket != null
+	// Abstraction function:
+	//		Represents node self of the cluster of nodes in ring, where
+	//		peers[i] holds the sites waiting to be forwarded to node i.
+	// Thread safety argument:
+	//		ring is immutable, peers are threadsafe, and closed is volatile.
+	//		Every incoming connection is read by a thread of its own.
+
+	/**
+	 * Joins the configured cluster, listening for sites forwarded by the
+	 * other nodes on the port of this node's address.
+	 *
+	 * @param config the crawler configuration
+	 * @param receiver receives the forwarded sites
+	 * @param metrics the metrics to record the forwarded sites in
+	 * @throws IOException unable to listen on the port of this node
+	 */
+	public Cluster(CrawlerConfig config, Receiver receiver, CrawlMetrics metrics) throws IOException {
+		List<String> addresses = config.clusterNodes();
+		this.ring = new HashRing(addresses);
+		this.self = config.clusterNode();
+		if (self < 0 || self >= addresses.size()) {
+			throw new IOException("cluster.node must be the index of this node in cluster.nodes");
+		}
+		this.receiver = receiver;
+		this.metrics = metrics;
+		this.peers = new Peer[addresses.size()];
+		for (int node = 0; node < peers.length; node++) {
+			if (node != self) peers[node] = new Peer(address(addresses.get(node)), config);
+		}
+		this.serverSocket = new ServerSocket(address(addresses.get(self)).getPort());
+		this.closed = false;
+
+		daemon(this::accept, "cluster-acceptor").start();
+		for (Peer peer : peers) {
+			if (peer != null) daemon(peer::send, "cluster-sender").start();
+		}
+	}
+
+	/**
+	 * @param site a URL
+	 * @return the index of the node that crawls the URL
+	 */
+	public int owner(String site) {
+		return ring.owner(Frontier.hostOf(site));
+	}
+
+	/**
+	 * @return the index of this node
+	 */
+	public int self() {
+		return self;
+	}
+
+	/**
+	 * Queues a site to be forwarded to the node that crawls it. Never
+	 * blocks, and drops the site if too many sites are waiting for the node.
+	 *
+	 * @param node the index of the node, which must not be this node
+	 * @param database the name of the database that the site belongs to
+	 * @param site the URL
+	 * @param depth the number of links between a seed and the URL
+	 * @param score the score of the URL
+	 */
+	public void forward(int node, String database, String site, int depth, double score) {
+		if (!peers[node].add(database, new Link(site, depth, score))) metrics.dropped(1);
+	}
+
+	/**
+	 * Stops listening for forwarded sites, and sends the sites that are
+	 * still waiting to the nodes that can be reached.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		for (Peer peer : peers) {
+			if (peer != null) peer.close();
+		}
+	}
+
+	/**
+	 * The body of the acceptor thread.
+	 */
+	private void accept() {
+		while (!closed) {
+			try {
+				Socket socket = serverSocket.accept();
+				daemon(() -> read(socket), "cluster-receiver").start();
+			} catch (IOException e) {
+				if (!closed) e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Reads the batches of an incoming connection until it is closed.
+	 */
+	private void read(Socket socket) {
+		try (Socket connection = socket;
+		        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 64 * 1024))) {
+			if (in.readInt() != MAGIC) return;
+			while (!closed) {
+				String database = in.readUTF();
+				int count = in.readInt();
+				if (count < 0 || count > MAX_BATCH_SIZE) throw new IOException("invalid batch size " + count);
+				List<Link> links = new ArrayList<Link>(count);
+				for (int i = 0; i < count; i++) {
+					links.add(new Link(in.readUTF(), in.readInt(), in.readFloat()));
+				}
+				metrics.received(count);
+				receiver.receive(database, links);
+			}
+		} catch (EOFException e) {
+			// The other node closed the connection
+		} catch (IOException e) {
+			if (!closed) e.printStackTrace();
+		}
+	}
+
+	private static InetSocketAddress address(String address) throws IOException {
+		int colon = address.lastIndexOf(':');
+		try {
+			return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+		} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new IOException("invalid cluster node address: " + address);
+		}
+	}
+
+	private static Thread daemon(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * A site forwarded between nodes, with the depth and score it was
+	 * found with.
+	 */
+	static class Link {
+		private final String site;
+		private final int depth;
+		private final double score;
+
+		private Link(String site, int depth, double score) {
+			this.site = site;
+			this.depth = depth;
+			this.score = score;
+		}
+
+		/**
+		 * @return the URL
+		 */
+		public String getSite() {
+			return site;
+		}
+
+		/**
+		 * @return the number of links between a seed and the URL
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		/**
+		 * @return the score of the URL
+		 */
+		public double getScore() {
+			return score;
+		}
+	}
+
+	/**
+	 * The sites waiting to be forwarded to another node, and the
+	 * connection they are sent over, which a sender thread opens when it
+	 * is first needed and again whenever it breaks.
+	 */
+	private class Peer {
+		private final InetSocketAddress address;
+		private final int batchSize;
+		private final long flushInterval;
+		private final int maxPending;
+		// Waiting sites by database, in the order in which they were added
+		private Map<String, List<Link>> pending;
+		private int pendingCount;
+		// Time at which the oldest waiting site was added
+		private long pendingSince;
+		private boolean stopped;
+
+		// Rep invariant:
+		//		pendingCount == total number of sites in pending <= maxPending
+		// Thread safety argument:
+		//		pending, pendingCount, pendingSince and stopped are only
+		//		accessed while holding this object's lock. The connection is
+		//		only used by the sender thread.
+
+		private Peer(InetSocketAddress address, CrawlerConfig config) {
+			this.address = address;
+			this.batchSize = config.clusterBatchSize();
+			this.flushInterval = config.clusterFlushInterval();
+			this.maxPending = config.clusterMaxPending();
+			this.pending = new LinkedHashMap<String, List<Link>>();
+			this.pendingCount = 0;
+			this.stopped = false;
+		}
+
+		/**
+		 * @return false if the site was dropped because too many sites are waiting
+		 */
+		private synchronized boolean add(String database, Link link) {
+			if (pendingCount >= maxPending) return false;
+			pending.computeIfAbsent(database, name -> new ArrayList<Link>()).add(link);
+			// The sender waits for the first site to start the flush interval, and then for a full batch
+			if (++pendingCount == 1) {
+				pendingSince = System.currentTimeMillis();
+				notify();
+			} else if (pendingCount == batchSize) {
+				notify();
+			}
+			return true;
+		}
+
+		private synchronized void close() {
+			stopped = true;
+			notify();
+		}
+
+		/**
+		 * Waits until a batch is full, the oldest waiting site has waited
+		 * for the flush interval, or the peer is closed.
+		 *
+		 * @return the waiting sites, or null if the peer is closed and no
+		 * sites are waiting
+		 */
+		private synchronized Map<String, List<Link>> take() throws InterruptedException {
+			while (!stopped && pendingCount < batchSize) {
+				if (pendingCount == 0) {
+					wait();
+					continue;
+				}
+				long remaining = pendingSince + flushInterval - System.currentTimeMillis();
+				if (remaining <= 0) break;
+				wait(remaining);
+			}
+			if (pendingCount == 0) return null;
+			Map<String, List<Link>> batches = pending;
+			pending = new LinkedHashMap<String, List<Link>>();
+			pendingCount = 0;
+			return batches;
+		}
+
+		/**
+		 * Puts back sites that could not be sent, ahead of the sites
+		 * added since, dropping those that no longer fit.
+		 */
+		private synchronized void requeue(Map<String, List<Link>> batches) {
+			Map<String, List<Link>> newer = pending;
+			pending = new LinkedHashMap<String, List<Link>>();
+			pendingCount = 0;
+			pendingSince = System.currentTimeMillis();
+			int dropped = 0;
+			for (Map<String, List<Link>> sites : List.of(batches, newer)) {
+				for (Map.Entry<String, List<Link>> batch : sites.entrySet()) {
+					for (Link link : batch.getValue()) {
+						if (pendingCount >= maxPending) {
+							dropped++;
+							continue;
+						}
+						pending.computeIfAbsent(batch.getKey(), name -> new ArrayList<Link>()).add(link);
+						pendingCount++;
+					}
+				}
+			}
+			if (dropped > 0) metrics.dropped(dropped);
+		}
+
+		/**
+		 * The body of the sender thread.
+		 */
+		private void send() {
+			Socket socket = null;
+			DataOutputStream out = null;
+			// Only the first failure and the recovery are logged while the peer is down
+			boolean failing = false;
+			long retryDelay = RETRY_DELAY;
+			try {
+				Map<String, List<Link>> batches;
+				while ((batches = take()) != null) {
+					try {
+						if (socket == null) {
+							socket = new Socket();
+							socket.connect(address, CONNECT_TIMEOUT);
+							socket.setTcpNoDelay(true);
+							out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+							out.writeInt(MAGIC);
+						}
+						int count = 0;
+						for (Map.Entry<String, List<Link>> batch : batches.entrySet()) {
+							out.writeUTF(batch.getKey());
+							out.writeInt(batch.getValue().size());
+							for (Link link : batch.getValue()) {
+								out.writeUTF(link.site);
+								out.writeInt(link.depth);
+								out.writeFloat((float) link.score);
+							}
+							count += batch.getValue().size();
+						}
+						out.flush();
+						metrics.forwarded(count);
+						if (failing) System.err.println("forwarding sites to " + address + " again");
+						failing = false;
+						retryDelay = RETRY_DELAY;
+					} catch (IOException e) {
+						if (!failing) System.err.println("unable to forward sites to " + address + ", retrying: " + e.getMessage());
+						failing = true;
+						closeQuietly(socket);
+						socket = null;
+						if (closed) break;
+						requeue(batches);
+						metrics.retried();
+						Thread.sleep(retryDelay);
+						retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+					}
+				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			} finally {
+				closeQuietly(socket);
+			}
+		}
+
+		private void closeQuietly(Socket socket) {
+			if (socket == null) return;
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package webcrawler;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ConnectionPool hands out connections to the MariaDB app, so that
+ * clients and crawl threads can use the database concurrently without
+ * opening a new connection for every operation. At most a fixed number
+ * of connections are open at once; callers wait when all are in use.
+ *
+ * Every connection keeps the statements that have been prepared on it, so
+ * that an operation that runs many times is only parsed once per connection.
+ */
+public class ConnectionPool implements AutoCloseable {
+	private final String url;
+	private final int maxSize;
+	private final long timeout;
+	// Connections that are open but not leased
+	private final Deque<PooledConnection> idle;
+	// Number of connections that are open, leased or idle
+	private int size;
+	private boolean closed;
+
+	// Rep invariant:
+	//		url != null, maxSize > 0, timeout > 0
+	//		0 <= idle.size() <= size <= maxSize
+	// Abstraction function:
+	//		Represents a set of size connections to url, where the
+	//		connections in idle are available to be leased.
+	// Thread safety argument:
+	//		All fields are only accessed while holding this object's lock.
+	//		A leased connection is only used by the thread that leased it.
+
+	/**
+	 * Creates an empty pool. Connections are opened when they are needed.
+	 *
+	 * @param config the crawler configuration
+	 */
+	public ConnectionPool(CrawlerConfig config) {
+		this.url = config.databaseUrl();
+		this.maxSize = config.databasePoolSize();
+		this.timeout = config.databasePoolTimeout();
+		this.idle = new ArrayDeque<PooledConnection>();
+		this.size = 0;
+		this.closed = false;
+	}
+
+	/**
+	 * Leases a connection, waiting for one to be released if all
+	 * connections are in use. The lease must be closed to give the
+	 * connection back to the pool.
+	 *
+	 * @param database the database that the connection should use,
+	 *            or null to not use any particular database
+	 * @return the lease
+	 * @throws SQLException unable to open a connection or to use the
+	 *             database, or no connection was released in time
+	 */
+	public Lease acquire(String database) throws SQLException {
+		PooledConnection pooled = null;
+		synchronized (this) {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+			while (idle.isEmpty() && size >= maxSize && !closed) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) throw new SQLException("timed out waiting for a database connection");
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("interrupted while waiting for a database connection", e);
+				}
+			}
+			if (closed) throw new SQLException("connection pool is closed");
+			if (!idle.isEmpty()) pooled = idle.pop();
+			else size++;
+		}
+
+		try {
+			if (pooled == null || pooled.connection.isClosed()) {
+				pooled = new PooledConnection(DriverManager.getConnection(url));
+			}
+			if (database != null && !database.equals(pooled.database)) {
+				// Prepared statements refer to the tables of the database they were prepared in
+				pooled.closeStatements();
+				pooled.connection.setCatalog(database);
+				pooled.database = database;
+			}
+			return new Lease(pooled);
+		} catch (SQLException e) {
+			discard(pooled);
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes every idle connection and stops handing out connections.
+	 * Leased connections are closed when they are released.
+	 */
+	public synchronized void close() {
+		closed = true;
+		for (PooledConnection pooled : idle) {
+			closeQuietly(pooled.connection);
+			size--;
+		}
+		idle.clear();
+		notifyAll();
+	}
+
+	/**
+	 * Gives a leased connection back to the pool.
+	 */
+	private synchronized void release(PooledConnection pooled) {
+		if (closed) {
+			closeQuietly(pooled.connection);
+			size--;
+		} else {
+			idle.push(pooled);
+		}
+		notify();
+	}
+
+	/**
+	 * Closes a leased connection that can no longer be used, and makes
+	 * room for a new one.
+	 */
+	private synchronized void discard(PooledConnection pooled) {
+		if (pooled != null) closeQuietly(pooled.connection);
+		size--;
+		notify();
+	}
+
+	private static void closeQuietly(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * An open connection together with the database it is using and the
+	 * statements prepared in that database, by SQL.
+	 */
+	private static class PooledConnection {
+		private final Connection connection;
+		private final Map<String, PreparedStatement> statements;
+		private String database;
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+			this.statements = new HashMap<String, PreparedStatement>();
+			this.database = null;
+		}
+
+		private void closeStatements() {
+			for (PreparedStatement statement : statements.values()) {
+				try {
+					statement.close();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+			statements.clear();
+		}
+	}
+
+	/**
+	 * The right to use one of the pool's connections until the lease is closed.
+	 */
+	public class Lease implements AutoCloseable {
+		private PooledConnection pooled;
+
+		private Lease(PooledConnection pooled) {
+			this.pooled = pooled;
+		}
+
+		/**
+		 * @return the leased connection
+		 */
+		public Connection connection() {
+			return pooled.connection;
+		}
+
+		/**
+		 * Prepares a statement on the leased connection, or reuses the one
+		 * prepared earlier with the same SQL. The statement belongs to the
+		 * connection: it must not be closed, and must not be used once the
+		 * lease is closed.
+		 *
+		 * @param sql the SQL of the statement, with ? for every parameter
+		 * @return the prepared statement, with its parameters and batch cleared
+		 * @throws SQLException unable to prepare the statement
+		 */
+		public PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement statement = pooled.statements.get(sql);
+			if (statement == null || statement.isClosed()) {
+				statement = pooled.connection.prepareStatement(sql);
+				pooled.statements.put(sql, statement);
+			} else {
+				statement.clearParameters();
+				statement.clearBatch();
+			}
+			return statement;
+		}
+
+		/**
+		 * Gives the connection back to the pool. A connection that was
+		 * left in a transaction or broken is closed instead.
+		 */
+		public void close() {
+			if (pooled == null) return;
+			PooledConnection released = pooled;
+			pooled = null;
+			try {
+				if (!released.connection.getAutoCommit()) {
+					released.connection.rollback();
+					released.connection.setAutoCommit(true);
+				}
+				release(released);
+			} catch (SQLException e) {
+				discard(released);
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A CrawlDatabase holds the state that is shared by every client of the
+ * server that crawls the same database, such as the set of sites that
+ * have already been discovered and the log of its frontier. Clients
+ * crawling different databases never share a CrawlDatabase, so they
+ * never wait for each other.
+ */
+class CrawlDatabase {
+	private final String name;
+	// URLs that are in the store, or null if not loaded yet
+	private SeenUrls seenSites;
+	// Sites waiting to be crawled by all clients, or null if not opened yet
+	private FrontierLog frontierLog;
+	// Fingerprints of recently crawled pages, or null if not created yet
+	private NearDuplicateIndex nearDuplicates;
+	// Bodies of the crawled pages, or null if not opened yet
+	private PageArchive pageArchive;
+
+	// Rep invariant:
+	//		name != null
+	// Abstraction function:
+	//		Represents the database called name, where seenSites contains
+	//		the sites in the store once it has been loaded, and
+	//		frontierLog the sites that are waiting to be crawled once it has
+	//		been opened, and nearDuplicates the fingerprints of the pages
+	//		crawled since the server started or the database was reset,
+	//		and pageArchive the crawled pages once it has been opened.
+	// Thread safety argument:
+	//		seenSites, frontierLog, nearDuplicates and pageArchive are only
+	//		accessed while holding this object's lock, and SeenUrls,
+	//		FrontierLog, NearDuplicateIndex and PageArchive are threadsafe.
+
+	/**
+	 * @param name the name of the database
+	 */
+	public CrawlDatabase(String name) {
+		this.name = name;
+		this.seenSites = null;
+		this.frontierLog = null;
+		this.nearDuplicates = null;
+		this.pageArchive = null;
+	}
+
+	/**
+	 * @return the name of the database
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the set of sites that have been discovered in this database,
+	 * loading it from the store the first time it is needed.
+	 *
+	 * @param store the store of the database
+	 * @param config the crawler configuration
+	 * @return the set of seen sites shared by all clients of this database
+	 * @throws IOException unable to read the sites
+	 */
+	public synchronized SeenUrls seenSites(CrawlStore store, CrawlerConfig config) throws IOException {
+		if (seenSites == null) {
+			SeenUrls seen = new SeenUrls(config.expectedSites());
+			store.readSites(name, seen::addFingerprint);
+			seenSites = seen;
+		}
+		return seenSites;
+	}
+
+	/**
+	 * Returns the log of the sites that are waiting to be crawled in this
+	 * database, opening it the first time it is needed.
+	 *
+	 * @param config the crawler configuration
+	 * @return the frontier log shared by all clients of this database
+	 * @throws IOException unable to open the log
+	 */
+	public synchronized FrontierLog frontierLog(CrawlerConfig config) throws IOException {
+		if (frontierLog == null) frontierLog = new FrontierLog(logPath(config), config);
+		return frontierLog;
+	}
+
+	/**
+	 * Returns the index of the fingerprints of the pages that have been
+	 * crawled in this database, creating it the first time it is needed.
+	 * The index is not stored, so it starts out empty after a restart.
+	 *
+	 * @param config the crawler configuration
+	 * @return the index shared by all clients of this database
+	 */
+	public synchronized NearDuplicateIndex nearDuplicates(CrawlerConfig config) {
+		if (nearDuplicates == null) {
+			nearDuplicates = new NearDuplicateIndex(config.duplicatesMaxDistance(), config.duplicatesCapacity());
+		}
+		return nearDuplicates;
+	}
+
+	/**
+	 * Removes all sites from the frontier log, for example because the
+	 * tables have been recreated or the database has been dropped.
+	 *
+	 * @param config the crawler configuration
+	 * @throws IOException unable to clear the log
+	 */
+	public synchronized void clearFrontierLog(CrawlerConfig config) throws IOException {
+		if (frontierLog != null) frontierLog.clear();
+		else Files.deleteIfExists(logPath(config));
+	}
+
+	/**
+	 * Returns the archive of the pages that have been crawled in this
+	 * database, opening it the first time it is needed.
+	 *
+	 * @param config the crawler configuration
+	 * @return the page archive shared by all clients of this database
+	 * @throws IOException unable to open the archive
+	 */
+	public synchronized PageArchive pageArchive(CrawlerConfig config) throws IOException {
+		if (pageArchive == null) pageArchive = new PageArchive(archivePath(config), config);
+		return pageArchive;
+	}
+
+	/**
+	 * Deletes every page from the page archive, for example because the
+	 * tables have been recreated or the database has been dropped. Must
+	 * not be called while clients are crawling the database.
+	 *
+	 * @param config the crawler configuration
+	 * @throws IOException unable to delete the archive
+	 */
+	public synchronized void clearPageArchive(CrawlerConfig config) throws IOException {
+		if (pageArchive != null) {
+			pageArchive.close();
+			pageArchive = null;
+		}
+		Path path = archivePath(config);
+		if (!Files.exists(path)) return;
+		try (Stream<Path> files = Files.walk(path)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private Path archivePath(CrawlerConfig config) {
+		return Paths.get(config.archiveDirectory(), name);
+	}
+
+	private Path logPath(CrawlerConfig config) {
+		return Paths.get(config.frontierLogDirectory(), name + ".log");
+	}
+
+	/**
+	 * Forgets the set of seen sites and the fingerprints of crawled pages,
+	 * for example because the tables have been recreated or the database
+	 * has been dropped.
+	 *
+	 * @param empty true if the database is known to have no sites
+	 * @param config the crawler configuration
+	 */
+	public synchronized void reset(boolean empty, CrawlerConfig config) {
+		seenSites = empty ? new SeenUrls(config.expectedSites()) : null;
+		nearDuplicates = null;
+	}
+}
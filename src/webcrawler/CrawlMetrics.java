@@ -0,0 +1,533 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.net.http.HttpTimeoutException;
+import java.util.Locale;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * CrawlMetrics are the counters and latency histograms of every crawl
+ * on the server. Recording a value never takes a lock: counters are
+ * striped LongAdders, and histograms count values in logarithmic
+ * buckets that are LongAdders as well. Only taking a snapshot for the
+ * stats command reads all stripes.
+ */
+class CrawlMetrics {
+	/**
+	 * The reasons that a site could not be crawled.
+	 */
+	enum Error {
+		TIMEOUT, CONNECT, DNS, TLS, IO, INVALID_URL, CLIENT_ERROR, SERVER_ERROR, DISALLOWED, OTHER
+	}
+
+	private final long startTime;
+	private final LongAdder pages;
+	private final LongAdder bytes;
+	private final LongAdder links;
+	private final LongAdder newSites;
+	private final LongAdder rowsWritten;
+	private final LongAdder forwarded;
+	private final LongAdder received;
+	private final LongAdder dropped;
+	private final LongAdder retries;
+	private final LongAdder unchanged;
+	private final LongAdder notModified;
+	private final LongAdder duplicates;
+	private final LongAdder archivedPages;
+	private final LongAdder archivedBytes;
+	private final LongAdder archivedStoredBytes;
+	private final LongAdder extractedPages;
+	private final LongAdder extractedRecords;
+	private final LongAdder extractFailures;
+	private final LongAdder extractSkipped;
+	private final LongAdder extractsWritten;
+	private final LongAdder[] errors;
+	private final Histogram fetchLatency;
+	private final Histogram parseLatency;
+	private final Histogram dedupLatency;
+	private final Histogram writeLatency;
+	private final Histogram extractLatency;
+	private final Histogram extractWriteLatency;
+	// Totals at the previous snapshot, to report recent rates
+	private long lastSnapshotTime;
+	private long lastPages;
+	private long lastBytes;
+
+	// Rep invariant:
+	//		all fields != null, errors.length == Error.values().length
+	// Abstraction function:
+	//		Represents the activity of all crawls since startTime, where
+	//		pages is the number of pages downloaded, and bytes their size
+	//		links is the number of links found on them
+	//		newSites is the number of links that led to new sites
+	//		rowsWritten is the number of entries written to the database
+	//		forwarded is the number of sites sent to other nodes of a cluster
+	//		received is the number of sites received from other nodes
+	//		dropped is the number of sites that were not sent to other nodes
+	//		retries is the number of times that sending to a node was retried
+	//		unchanged is the number of recrawled pages that had not changed
+	//		notModified is the number of those the server did not send again
+	//		duplicates is the number of near-duplicates of crawled pages
+	//		archivedPages is the number of pages kept in page archives,
+	//		archivedBytes their size, and archivedStoredBytes their
+	//		size once compressed
+	//		extractedPages is the number of pages page processors ran over
+	//		extractedRecords is the number of records they extracted
+	//		extractFailures is the number of times a processor failed
+	//		extractSkipped is the number of pages that were not processed
+	//		because the processors were behind or cancelled
+	//		extractsWritten is the number of records written to the database
+	//		errors[e] is the number of sites that failed because of e
+	//		the histograms hold the time taken by each stage in nanoseconds
+	// Thread safety argument:
+	//		LongAdder and Histogram are threadsafe. lastSnapshotTime,
+	//		lastPages and lastBytes are only accessed while holding this
+	//		object's lock.
+
+	/**
+	 * Creates metrics where every counter is zero.
+	 */
+	public CrawlMetrics() {
+		this.startTime = System.nanoTime();
+		this.pages = new LongAdder();
+		this.bytes = new LongAdder();
+		this.links = new LongAdder();
+		this.newSites = new LongAdder();
+		this.rowsWritten = new LongAdder();
+		this.forwarded = new LongAdder();
+		this.received = new LongAdder();
+		this.dropped = new LongAdder();
+		this.retries = new LongAdder();
+		this.unchanged = new LongAdder();
+		this.notModified = new LongAdder();
+		this.duplicates = new LongAdder();
+		this.archivedPages = new LongAdder();
+		this.archivedBytes = new LongAdder();
+		this.archivedStoredBytes = new LongAdder();
+		this.extractedPages = new LongAdder();
+		this.extractedRecords = new LongAdder();
+		this.extractFailures = new LongAdder();
+		this.extractSkipped = new LongAdder();
+		this.extractsWritten = new LongAdder();
+		this.errors = new LongAdder[Error.values().length];
+		for (int i = 0; i < errors.length; i++) {
+			errors[i] = new LongAdder();
+		}
+		this.fetchLatency = new Histogram();
+		this.parseLatency = new Histogram();
+		this.dedupLatency = new Histogram();
+		this.writeLatency = new Histogram();
+		this.extractLatency = new Histogram();
+		this.extractWriteLatency = new Histogram();
+		this.lastSnapshotTime = startTime;
+		this.lastPages = 0;
+		this.lastBytes = 0;
+	}
+
+	/**
+	 * Records a downloaded page.
+	 *
+	 * @param size the number of bytes of the page
+	 * @param nanos the time taken to download it
+	 */
+	public void fetched(long size, long nanos) {
+		pages.increment();
+		bytes.add(size);
+		fetchLatency.record(nanos);
+	}
+
+	/**
+	 * Records a site that could not be crawled.
+	 *
+	 * @param error the reason
+	 */
+	public void failed(Error error) {
+		errors[error.ordinal()].increment();
+	}
+
+	/**
+	 * Records a site that could not be downloaded.
+	 *
+	 * @param error the exception that the download failed with
+	 */
+	public void failed(Throwable error) {
+		failed(classify(error));
+	}
+
+	/**
+	 * Records the time taken to find the links on a page.
+	 *
+	 * @param nanos the time taken
+	 */
+	public void parsed(long nanos) {
+		parseLatency.record(nanos);
+	}
+
+	/**
+	 * Records the time taken to canonicalize, filter and deduplicate the
+	 * links of a page and to add the new ones to the frontier.
+	 *
+	 * @param linkCount the number of links on the page
+	 * @param newSiteCount the number of links that led to new sites
+	 * @param nanos the time taken
+	 */
+	public void deduplicated(int linkCount, int newSiteCount, long nanos) {
+		links.add(linkCount);
+		newSites.add(newSiteCount);
+		dedupLatency.record(nanos);
+	}
+
+	/**
+	 * Records a batch written to the database.
+	 *
+	 * @param rows the number of entries in the batch
+	 * @param nanos the time taken to write it
+	 */
+	public void written(int rows, long nanos) {
+		rowsWritten.add(rows);
+		writeLatency.record(nanos);
+	}
+
+	/**
+	 * Records sites sent to other nodes of the cluster.
+	 *
+	 * @param count the number of sites
+	 */
+	public void forwarded(int count) {
+		forwarded.add(count);
+	}
+
+	/**
+	 * Records sites received from other nodes of the cluster.
+	 *
+	 * @param count the number of sites
+	 */
+	public void received(int count) {
+		received.add(count);
+	}
+
+	/**
+	 * Records sites that could not be sent to another node of the cluster.
+	 *
+	 * @param count the number of sites
+	 */
+	public void dropped(int count) {
+		dropped.add(count);
+	}
+
+	/**
+	 * Records a failed attempt to send sites to another node of the
+	 * cluster, which is retried later.
+	 */
+	public void retried() {
+		retries.increment();
+	}
+
+	/**
+	 * Records a recrawled page that has not changed since it was last fetched.
+	 *
+	 * @param notModified true if the server answered that the page had
+	 *            not been modified, instead of sending it again
+	 */
+	public void unchanged(boolean notModified) {
+		unchanged.increment();
+		if (notModified) this.notModified.increment();
+	}
+
+	/**
+	 * @return the number of recrawled pages that had not changed
+	 */
+	public long unchangedCount() {
+		return unchanged.sum();
+	}
+
+	/**
+	 * Records a page that was skipped because it is a near-duplicate of
+	 * a page crawled before.
+	 */
+	public void duplicate() {
+		duplicates.increment();
+	}
+
+	/**
+	 * @return the number of pages that were near-duplicates of pages crawled before
+	 */
+	public long duplicateCount() {
+		return duplicates.sum();
+	}
+
+	/**
+	 * Records a page that was added to a page archive.
+	 *
+	 * @param bytes the size of the page
+	 * @param storedBytes the size of its record in the archive
+	 */
+	public void archived(int bytes, int storedBytes) {
+		archivedPages.increment();
+		archivedBytes.add(bytes);
+		archivedStoredBytes.add(storedBytes);
+	}
+
+	/**
+	 * @return the number of pages added to page archives
+	 */
+	public long archivedCount() {
+		return archivedPages.sum();
+	}
+
+	/**
+	 * Records a page that the page processors ran over.
+	 *
+	 * @param records the number of records extracted from the page
+	 * @param nanos the time taken by all processors together
+	 */
+	public void extracted(int records, long nanos) {
+		extractedPages.increment();
+		extractedRecords.add(records);
+		extractLatency.record(nanos);
+	}
+
+	/**
+	 * Records a page processor that failed on a page, or a record that
+	 * was too long to be stored.
+	 */
+	public void extractFailed() {
+		extractFailures.increment();
+	}
+
+	/**
+	 * Records pages that the page processors did not run over, because
+	 * too many pages were waiting for them or the crawl was cancelled.
+	 *
+	 * @param pages the number of pages
+	 */
+	public void extractSkipped(int pages) {
+		extractSkipped.add(pages);
+	}
+
+	/**
+	 * Records a batch of extracted records written to the database.
+	 *
+	 * @param rows the number of records in the batch
+	 * @param nanos the time taken to write it
+	 */
+	public void extractsWritten(int rows, long nanos) {
+		extractsWritten.add(rows);
+		extractWriteLatency.record(nanos);
+	}
+
+	/**
+	 * @return the number of records extracted by page processors
+	 */
+	public long extractedCount() {
+		return extractedRecords.sum();
+	}
+
+	/**
+	 * @return the number of pages downloaded
+	 */
+	public long pageCount() {
+		return pages.sum();
+	}
+
+	/**
+	 * @return the number of sites that could not be crawled
+	 */
+	public long errorCount() {
+		long count = 0;
+		for (LongAdder error : errors) {
+			count += error.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of entries written to the database
+	 */
+	public long rowsWritten() {
+		return rowsWritten.sum();
+	}
+
+	/**
+	 * Describes the metrics, including the rates since the previous call.
+	 *
+	 * @return a human readable report
+	 */
+	public synchronized String report() {
+		long now = System.nanoTime();
+		long totalPages = pages.sum();
+		long totalBytes = bytes.sum();
+		double uptime = (now - startTime) / 1e9;
+		double interval = Math.max(1e-9, (now - lastSnapshotTime) / 1e9);
+
+		StringBuilder report = new StringBuilder();
+		report.append(String.format(Locale.ROOT, "uptime %.0f s", uptime));
+		report.append(String.format(Locale.ROOT, "\npages %d (%.1f/s, %.1f/s recently)", totalPages,
+		        totalPages / Math.max(1e-9, uptime), (totalPages - lastPages) / interval));
+		report.append(String.format(Locale.ROOT, "\nbytes %d (%.0f/s, %.0f/s recently)", totalBytes,
+		        totalBytes / Math.max(1e-9, uptime), (totalBytes - lastBytes) / interval));
+		report.append("\nlinks " + links.sum() + ", new sites " + newSites.sum() + ", rows written " + rowsWritten.sum());
+		if (forwarded.sum() + received.sum() + dropped.sum() + retries.sum() > 0) {
+			report.append("\ncluster forwarded " + forwarded.sum() + ", received " + received.sum() + ", dropped "
+			        + dropped.sum() + ", retries " + retries.sum());
+		}
+		if (unchanged.sum() > 0) {
+			report.append("\nrecrawl unchanged " + unchanged.sum() + " (" + notModified.sum() + " not modified)");
+		}
+		if (duplicates.sum() > 0) report.append("\nnear-duplicates " + duplicates.sum());
+		if (archivedPages.sum() > 0) {
+			report.append("\narchived " + archivedPages.sum() + " pages, " + archivedBytes.sum() + " bytes ("
+			        + archivedStoredBytes.sum() + " stored)");
+		}
+		if (extractedPages.sum() + extractSkipped.sum() > 0) {
+			report.append("\nextracted " + extractedRecords.sum() + " records from " + extractedPages.sum() + " pages ("
+			        + extractFailures.sum() + " failures, " + extractSkipped.sum() + " pages skipped), "
+			        + extractsWritten.sum() + " written");
+		}
+
+		report.append("\nerrors");
+		long totalErrors = 0;
+		for (Error error : Error.values()) {
+			long count = errors[error.ordinal()].sum();
+			totalErrors += count;
+			if (count > 0) report.append(" " + error.name().toLowerCase(Locale.ROOT) + " " + count);
+		}
+		report.append(String.format(Locale.ROOT, " (%.1f%% of sites)",
+		        100.0 * totalErrors / Math.max(1, totalErrors + totalPages)));
+
+		report.append("\nfetch ms " + fetchLatency.summary());
+		report.append("\nparse ms " + parseLatency.summary());
+		report.append("\ndedup ms " + dedupLatency.summary());
+		report.append("\ndb write ms " + writeLatency.summary());
+		if (extractedPages.sum() > 0) {
+			report.append("\nextract ms " + extractLatency.summary());
+			report.append("\nextract db write ms " + extractWriteLatency.summary());
+		}
+
+		lastSnapshotTime = now;
+		lastPages = totalPages;
+		lastBytes = totalBytes;
+		return report.toString();
+	}
+
+	/**
+	 * @param error the exception that a download failed with
+	 * @return the reason that the download failed
+	 */
+	static Error classify(Throwable error) {
+		while (error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		if (error instanceof HttpTimeoutException || error instanceof TimeoutException) return Error.TIMEOUT;
+		if (error instanceof ConnectException) return Error.CONNECT;
+		if (error instanceof UnknownHostException) return Error.DNS;
+		if (error instanceof SSLException) return Error.TLS;
+		if (error instanceof IOException) return Error.IO;
+		if (error instanceof IllegalArgumentException) return Error.INVALID_URL;
+		return Error.OTHER;
+	}
+
+	/**
+	 * A Histogram counts values in buckets whose width grows with the
+	 * value, like an HDR histogram: every power of two is split into
+	 * SUB_BUCKETS buckets, so the relative error of a percentile is at
+	 * most 1 / SUB_BUCKETS.
+	 */
+	static class Histogram {
+		private static final int SUB_BUCKET_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private final LongAdder[] buckets;
+		private final LongAdder count;
+		private final LongAdder sum;
+		private final LongAccumulator max;
+
+		// Rep invariant:
+		//		buckets.length == 64 * SUB_BUCKETS, all fields != null
+		// Abstraction function:
+		//		Represents count values that add up to sum, of which
+		//		buckets[i] are in the range of bucket i and the largest is max.
+		// Thread safety argument:
+		//		All fields are final and threadsafe. A snapshot that is taken
+		//		while values are recorded may miss some of them.
+
+		Histogram() {
+			this.buckets = new LongAdder[64 * SUB_BUCKETS];
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+			this.count = new LongAdder();
+			this.sum = new LongAdder();
+			this.max = new LongAccumulator(Math::max, 0);
+		}
+
+		/**
+		 * @param value a value of at least 0
+		 */
+		void record(long value) {
+			if (value < 0) value = 0;
+			buckets[bucketOf(value)].increment();
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		/**
+		 * @param quantile a number between 0 and 1
+		 * @return the upper bound of the bucket that holds the value at
+		 * the quantile, or 0 if there are no values
+		 */
+		long percentile(double quantile) {
+			long[] counts = new long[buckets.length];
+			long total = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				counts[i] = buckets[i].sum();
+				total += counts[i];
+			}
+			long rank = (long) Math.ceil(quantile * total);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && seen > 0) return Math.min(upperBound(i), max.get());
+			}
+			return 0;
+		}
+
+		/**
+		 * @return the count, mean, 50th, 90th and 99th percentile and
+		 * maximum in milliseconds, for values in nanoseconds
+		 */
+		String summary() {
+			long n = count.sum();
+			double millis = TimeUnit.MILLISECONDS.toNanos(1);
+			return String.format(Locale.ROOT, "n %d mean %.2f p50 %.2f p90 %.2f p99 %.2f max %.2f", n,
+			        n == 0 ? 0 : sum.sum() / millis / n, percentile(0.5) / millis, percentile(0.9) / millis,
+			        percentile(0.99) / millis, max.get() / millis);
+		}
+
+		/**
+		 * Values below SUB_BUCKETS get a bucket each. Larger values are put
+		 * in the bucket of their highest SUB_BUCKET_BITS + 1 bits.
+		 */
+		private static int bucketOf(long value) {
+			if (value < SUB_BUCKETS) return (int) value;
+			int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+			int subBucket = (int) (value >>> exponent) - SUB_BUCKETS;
+			return (exponent + 1) * SUB_BUCKETS + subBucket;
+		}
+
+		private static long upperBound(int bucket) {
+			if (bucket < SUB_BUCKETS) return bucket;
+			int exponent = bucket / SUB_BUCKETS - 1;
+			long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+			return ((subBucket + 1) << exponent) - 1;
+		}
+	}
+}
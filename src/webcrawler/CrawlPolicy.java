@@ -0,0 +1,109 @@
+package webcrawler;
+
+/**
+ * A CrawlPolicy decides the order in which the frontier hands out the
+ * sites that are waiting to be crawled. Each site gets a priority, and
+ * sites with a lower priority are crawled first. The politeness rules
+ * of the frontier always apply on top of the policy.
+ *
+ * Three policies are available:
+ * <ul>
+ * <li>breadth-first: sites closer to a seed are crawled first</li>
+ * <li>host-round-robin: ready hosts take turns, and each host's sites are
+ * crawled in the order in which they were found</li>
+ * <li>link-score: sites are crawled in order of their OPIC score, which is
+ * the share of importance passed on by the pages that link to them</li>
+ * </ul>
+ */
+interface CrawlPolicy {
+	/**
+	 * @param entry a site waiting in the frontier
+	 * @return the priority of the site, where lower is crawled first
+	 */
+	double priority(Frontier.Entry entry);
+
+	/**
+	 * @return true if ready hosts take turns regardless of the priority of
+	 * their sites, or false if the host with the best site goes first
+	 */
+	boolean rotatesHosts();
+
+	/**
+	 * @return true if the priority depends on the score of a site, so new
+	 * links to a site that is already waiting must add to its score
+	 */
+	boolean usesScores();
+
+	/**
+	 * @param name the name of a policy
+	 * @return the policy with that name
+	 * @throws IllegalArgumentException there is no such policy
+	 */
+	static CrawlPolicy forName(String name) throws IllegalArgumentException {
+		switch (name.trim().toLowerCase()) {
+		case "breadth-first":
+			return new BreadthFirst();
+		case "host-round-robin":
+			return new HostRoundRobin();
+		case "link-score":
+			return new LinkScore();
+		default:
+			throw new IllegalArgumentException("unknown crawl policy: " + name);
+		}
+	}
+
+	/**
+	 * Crawls the sites with the smallest number of links from a seed first.
+	 */
+	static class BreadthFirst implements CrawlPolicy {
+		public double priority(Frontier.Entry entry) {
+			return entry.getDepth();
+		}
+
+		public boolean rotatesHosts() {
+			return false;
+		}
+
+		public boolean usesScores() {
+			return false;
+		}
+	}
+
+	/**
+	 * Hands out the sites of each host in the order in which they were
+	 * found, and lets the hosts take turns.
+	 */
+	static class HostRoundRobin implements CrawlPolicy {
+		public double priority(Frontier.Entry entry) {
+			return 0;
+		}
+
+		public boolean rotatesHosts() {
+			return true;
+		}
+
+		public boolean usesScores() {
+			return false;
+		}
+	}
+
+	/**
+	 * Crawls the sites with the highest OPIC score first. Every seed starts
+	 * with a score of 1, and a crawled page splits its score evenly among
+	 * the links it contains, so a site that many important pages link to
+	 * gathers a high score before it is crawled.
+	 */
+	static class LinkScore implements CrawlPolicy {
+		public double priority(Frontier.Entry entry) {
+			return -entry.getScore();
+		}
+
+		public boolean rotatesHosts() {
+			return false;
+		}
+
+		public boolean usesScores() {
+			return true;
+		}
+	}
+}
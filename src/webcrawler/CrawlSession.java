@@ -0,0 +1,470 @@
+package webcrawler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.jsoup.nodes.Document;
+
+/**
+ * A CrawlSession is one run of the crawler over a frontier, from start
+ * or resume until the frontier is exhausted or the session is stopped.
+ *
+ * A dispatcher thread takes sites from the frontier and starts fetching
+ * them asynchronously, keeping at most a fixed number of fetches in
+ * flight. Downloaded pages are parsed on a separate pool of CPU threads,
+ * so slow network round-trips never hold up parsing, and vice versa.
+ * Pages are scanned for links without building a document tree, unless
+ * the crawler is configured to parse every page into a Jsoup document.
+ * Sites that their host's robots.txt disallows are never fetched, and
+ * the crawl delay that a host asks for is applied to its later sites.
+ * Every site that enters or leaves the frontier is recorded in the
+ * frontier log, so the crawl can be resumed after a pause or a crash.
+ *
+ * Sites that are recrawled are fetched with conditional requests made
+ * from the version that they were last fetched in. A page that has not
+ * changed since is neither parsed nor searched for links, and only its
+ * revisit schedule is written. Pages that are not HTML are only recorded
+ * as fetched, without a version, since their bodies are not downloaded:
+ * they are neither archived nor recrawled. A page crawled for the first
+ * time is skipped like a disallowed site if its text is a near-duplicate
+ * of a page crawled before, so that mirrors and copies of a site behind
+ * different URLs are not followed.
+ *
+ * Pages that are new or have changed are kept in the page archive of the
+ * database, if it is enabled, and then searched for links. Once the links
+ * of a page have been found, the page is handed to the pipeline of page
+ * processors, if any are configured, which extract data from it on
+ * threads of their own. A page that was parsed into a document to find
+ * its links is handed over with its document, so that it is not parsed
+ * again. The hand-off never waits, so a page that arrives while the
+ * pipeline is full is not processed.
+ *
+ * A session is stopped by closing its frontier and giving the sites in
+ * flight until a deadline to finish. The downloads that are still in
+ * flight then are cancelled, and the pages that are still waiting to be
+ * parsed are skipped. Such sites stay pending in the frontier log, so a
+ * resumed crawl fetches them again. The pages that are still waiting for
+ * the page processors are skipped as well, but their sites are finished.
+ *
+ * When the server is part of a cluster, only the sites of this node's
+ * hosts are crawled, and new sites of other hosts are forwarded to their
+ * nodes. Other nodes can add sites at any time, so the session keeps
+ * running when its frontier is empty until it is stopped.
+ */
+class CrawlSession {
+	// Stands in for the page of a site that robots.txt disallows
+	private static final Page DISALLOWED = new Page("", 0, "", new byte[0], false, null, null);
+	private final Frontier frontier;
+	private final FrontierLog log;
+	private final SeenUrls seen;
+	// Fingerprints of the pages crawled in the database, or null to crawl near-duplicates too
+	private final NearDuplicateIndex nearDuplicates;
+	// Versions of the sites that are being recrawled, by URL
+	private final Map<String, PageVersion> revisits;
+	private final SiteWriter writer;
+	// Where the bodies of crawled pages are kept, or null
+	private final PageArchive archive;
+	// The page processors that run over crawled pages, or null
+	private final ProcessorPipeline pipeline;
+	private final Fetcher fetcher;
+	private final RobotsCache robots;
+	private final CrawlMetrics metrics;
+	// The cluster that sites of other hosts are forwarded to, or null
+	private final Cluster cluster;
+	private final String database;
+	private final UrlCanonicalizer canonicalizer;
+	private final UrlFilter filter;
+	private final ExecutorService parsePool;
+	private final int maxInFlight;
+	// Links are only followed from sites that are closer to a seed than this
+	private final int maxDepth;
+	private final boolean parseDocuments;
+	// Bounds of the revisit interval, and the interval of sites fetched for the first time
+	private final long minRevisitInterval;
+	private final long maxRevisitInterval;
+	private final long revisitInterval;
+	// One permit for every fetch that may be started
+	private final Semaphore permits;
+	// Downloads in flight, or the robots.txt lookups that precede them
+	private final Map<Frontier.Entry, CompletableFuture<Page>> fetches;
+	// Sites that were cancelled, and are still pending in the frontier log
+	private final Queue<String> cancelledSites;
+	private final Thread dispatcher;
+	// True once the sites in flight are being cancelled
+	private volatile boolean cancelled;
+
+	// Rep invariant:
+	//		all fields except nearDuplicates, archive, pipeline and cluster != null
+	//		maxInFlight > 0, maxDepth >= 0
+	//		0 <= minRevisitInterval <= revisitInterval <= maxRevisitInterval
+	//		0 <= permits.availablePermits() <= maxInFlight
+	//		fetches.size() <= maxInFlight - permits.availablePermits()
+	// Abstraction function:
+	//		Represents a crawl of the sites in frontier, where
+	//		maxInFlight - permits.availablePermits() sites are being
+	//		fetched or parsed, and fetches holds the ones being fetched.
+	// Thread safety argument:
+	//		Frontier, FrontierLog, SeenUrls, NearDuplicateIndex, SiteWriter,
+	//		PageArchive, ProcessorPipeline, Fetcher, RobotsCache,
+	//		CrawlMetrics, Cluster, ExecutorService and Semaphore are
+	//		threadsafe, UrlCanonicalizer and UrlFilter are immutable,
+	//		revisits, fetches and cancelledSites are concurrent
+	//		collections, and all fields are final except cancelled, which
+	//		is volatile.
+
+	/**
+	 * Creates a session. The session does not crawl until start() is called.
+	 *
+	 * @param frontier the sites to crawl
+	 * @param log the log of the frontier, which this session is attached to
+	 * @param seen the sites that have already been discovered
+	 * @param nearDuplicates the fingerprints of the pages crawled in the
+	 *            database, or null if near-duplicate pages are crawled too
+	 * @param revisits the versions of the sites in the frontier that are
+	 *            being recrawled, by URL, which must be threadsafe
+	 * @param writer the writer that persists the progress of the crawl
+	 * @param archive the archive that keeps the crawled pages, or null if
+	 *            their bodies are not kept
+	 * @param pipeline the page processors that run over the crawled
+	 *            pages, or null if none are configured
+	 * @param fetcher the fetcher that downloads sites
+	 * @param robots the robots.txt rules of the hosts to crawl
+	 * @param metrics the metrics to record the crawl in
+	 * @param config the crawler configuration
+	 * @param cluster the cluster that the server is part of, or null if it
+	 *            crawls on its own
+	 * @param database the name of the database being crawled
+	 * @param maxInFlight the maximum number of sites being crawled at once
+	 * @param maxDepth the maximum number of links between a seed and a
+	 *            site that is crawled
+	 */
+	public CrawlSession(Frontier frontier, FrontierLog log, SeenUrls seen, NearDuplicateIndex nearDuplicates,
+	        Map<String, PageVersion> revisits, SiteWriter writer, PageArchive archive, ProcessorPipeline pipeline,
+	        Fetcher fetcher, RobotsCache robots, CrawlMetrics metrics, CrawlerConfig config, Cluster cluster,
+	        String database, int maxInFlight, int maxDepth) {
+		this.frontier = frontier;
+		this.log = log;
+		this.seen = seen;
+		this.nearDuplicates = nearDuplicates;
+		this.revisits = revisits;
+		this.writer = writer;
+		this.archive = archive;
+		this.pipeline = pipeline;
+		this.fetcher = fetcher;
+		this.robots = robots;
+		this.metrics = metrics;
+		this.cluster = cluster;
+		this.database = database;
+		this.canonicalizer = new UrlCanonicalizer(config);
+		this.filter = new UrlFilter(config);
+		this.parsePool = Executors.newFixedThreadPool(config.parseThreads());
+		this.maxInFlight = maxInFlight;
+		this.maxDepth = maxDepth;
+		this.parseDocuments = config.parseDocuments();
+		this.minRevisitInterval = config.recrawlMinInterval();
+		this.maxRevisitInterval = Math.max(minRevisitInterval, config.recrawlMaxInterval());
+		this.revisitInterval = Math.min(maxRevisitInterval, Math.max(minRevisitInterval, config.recrawlInterval()));
+		this.permits = new Semaphore(maxInFlight);
+		this.fetches = new ConcurrentHashMap<Frontier.Entry, CompletableFuture<Page>>();
+		this.cancelledSites = new ConcurrentLinkedQueue<String>();
+		this.cancelled = false;
+		this.dispatcher = new Thread(new Runnable() {
+			public void run() {
+				dispatch();
+			}
+		}, "crawl-dispatcher");
+	}
+
+	/**
+	 * Starts crawling.
+	 *
+	 * @param newSites sites in the frontier that are not in the 'sites' table yet
+	 */
+	public void start(List<String> newSites) {
+		if (cluster != null) frontier.hold();
+		writer.start();
+		if (pipeline != null) pipeline.start();
+		try {
+			for (String site : newSites) {
+				writer.write(site);
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		dispatcher.start();
+	}
+
+	/**
+	 * Stops handing out sites, and waits until every site that is being
+	 * crawled has been finished or cancelled and the progress has been
+	 * written to the database. The sites found in the meantime are left
+	 * in the frontier.
+	 *
+	 * @param timeout the number of milliseconds that the sites in flight
+	 *            are given to finish before they are cancelled, or 0 to
+	 *            cancel them right away
+	 */
+	public void stop(long timeout) {
+		frontier.close();
+		try {
+			if (timeout > 0) dispatcher.join(timeout);
+			if (dispatcher.isAlive()) {
+				cancelled = true;
+				for (CompletableFuture<Page> fetch : fetches.values()) {
+					fetch.cancel(true);
+				}
+				if (pipeline != null) pipeline.cancel();
+				dispatcher.join();
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Removes the sites that are left in the frontier after the session
+	 * has stopped, and the sites that were cancelled, so that they are not
+	 * crawled when the crawl is resumed.
+	 */
+	public void discardPending() {
+		frontier.drain(log::complete);
+		String site;
+		while ((site = cancelledSites.poll()) != null) {
+			log.complete(site);
+		}
+		log.sync();
+	}
+
+	/**
+	 * Adds sites that another node of the cluster has forwarded to the
+	 * frontier and to the 'sites' table, unless they have been discovered
+	 * before. Must not be called once the session has stopped.
+	 *
+	 * @param links the forwarded sites
+	 * @throws InterruptedException the calling thread was interrupted
+	 */
+	public void admit(List<Cluster.Link> links) throws InterruptedException {
+		for (Cluster.Link link : links) {
+			add(link.getSite(), link.getDepth(), link.getScore());
+		}
+	}
+
+	/**
+	 * @return true if the session is still crawling
+	 */
+	public boolean isRunning() {
+		return dispatcher.isAlive();
+	}
+
+	/**
+	 * @return the number of sites that are being fetched or parsed
+	 */
+	public int inFlight() {
+		return maxInFlight - permits.availablePermits();
+	}
+
+	/**
+	 * The body of the dispatcher thread.
+	 */
+	private void dispatch() {
+		try {
+			while (true) {
+				permits.acquire();
+				Frontier.Entry entry = frontier.take();
+				if (entry == null) {
+					permits.release();
+					break;
+				}
+				String site = entry.getSite();
+				long fetchStart = System.nanoTime();
+				CompletableFuture<Page> fetch = robots.rules(site).thenCompose(rules -> {
+					if (!rules.isAllowed(RobotsCache.pathOf(site))) return CompletableFuture.completedFuture(DISALLOWED);
+					if (rules.getCrawlDelay() > 0) frontier.setCrawlDelay(Frontier.hostOf(site), rules.getCrawlDelay());
+					// Cancelling the download aborts the request
+					CompletableFuture<Page> download = fetcher.fetch(site, revisits.get(site));
+					fetches.put(entry, download);
+					if (cancelled) download.cancel(true);
+					return download;
+				});
+				fetches.putIfAbsent(entry, fetch);
+				if (cancelled) fetch.cancel(true);
+				fetch.whenComplete((page, error) -> {
+					if (!isCancellation(error)) record(page, error, System.nanoTime() - fetchStart);
+				}).handleAsync((page, error) -> {
+					// Pages that are still waiting to be parsed once the session is cancelled are skipped
+					if (cancelled || isCancellation(error)) return false;
+					process(entry, page, error);
+					return true;
+				}, parsePool).whenComplete((processed, error) -> {
+					if (error != null) error.printStackTrace();
+					fetches.remove(entry);
+					if (Boolean.FALSE.equals(processed)) cancelledSites.add(site);
+					else log.complete(site);
+					frontier.complete(entry);
+					permits.release();
+				});
+			}
+
+			// Wait for the sites that are still in flight
+			permits.acquire(maxInFlight);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} finally {
+			parsePool.shutdown();
+			if (pipeline != null) pipeline.close();
+			writer.close();
+			log.sync();
+			log.detach();
+		}
+	}
+
+	/**
+	 * @return true if a fetch failed because it was cancelled
+	 */
+	private static boolean isCancellation(Throwable error) {
+		if (error instanceof CompletionException) error = error.getCause();
+		return error instanceof CancellationException;
+	}
+
+	/**
+	 * Records the outcome of fetching a site in the metrics.
+	 */
+	private void record(Page page, Throwable error, long nanos) {
+		if (error != null) metrics.failed(error);
+		else if (page == DISALLOWED) metrics.failed(CrawlMetrics.Error.DISALLOWED);
+		else if (page.isSuccess() || page.isNotModified()) metrics.fetched(page.getBody().length, nanos);
+		else if (page.getStatus() >= 500) metrics.failed(CrawlMetrics.Error.SERVER_ERROR);
+		else if (page.getStatus() >= 400) metrics.failed(CrawlMetrics.Error.CLIENT_ERROR);
+		else metrics.failed(CrawlMetrics.Error.OTHER);
+	}
+
+	/**
+	 * Records the outcome of fetching a site, hands its page to the page
+	 * processors, and adds the new URLs that appear on it to the frontier
+	 * and to the 'sites' table. URLs are put in canonical form and filtered
+	 * before they are checked against the sites that have already been
+	 * discovered. Links are not followed beyond the maximum depth, and links
+	 * to sites that are already waiting add to their score instead. URLs
+	 * that do not fit in the frontier are not recorded, so that they can
+	 * still be found through other sites later on.
+	 *
+	 * @param entry the URL that was fetched
+	 * @param page the downloaded page, DISALLOWED if the site was not
+	 *            fetched because of robots.txt, or null if the fetch failed
+	 * @param error the reason the fetch failed, or null if it succeeded
+	 */
+	private void process(Frontier.Entry entry, Page page, Throwable error) {
+		String site = entry.getSite();
+		PageVersion previous = revisits.remove(site);
+		try {
+			if (page == DISALLOWED) {
+				writer.disallowed(site);
+				return;
+			}
+			if (error != null || !(page.isSuccess() || (previous != null && page.isNotModified()))) {
+				// A recrawled site keeps its version, and is tried again once it is due
+				writer.fetched(site, false, previous);
+				return;
+			}
+			if (page.isSuccess() && !page.isHtml()) {
+				// Only the bodies of HTML pages are downloaded, so there is no version to recrawl this one from
+				writer.fetched(site, true, null);
+				return;
+			}
+			if (previous != null && previous.isSameAs(page)) {
+				// The page has not changed, so neither have its links
+				writer.fetched(site, true, previous.unchanged(page, maxRevisitInterval));
+				metrics.unchanged(page.isNotModified());
+				return;
+			}
+			if (previous == null && nearDuplicates != null) {
+				// A copy of a page crawled before is neither stored nor followed
+				long fingerprint = SimHash.of(page.getBody());
+				if (fingerprint != 0 && !nearDuplicates.add(fingerprint)) {
+					writer.duplicate(site);
+					metrics.duplicate();
+					return;
+				}
+			}
+			writer.fetched(site, true,
+			        previous == null ? PageVersion.of(page, revisitInterval) : previous.changed(page, minRevisitInterval));
+			if (archive != null) metrics.archived(page.getBody().length, archive.add(site, page));
+			boolean followLinks = entry.getDepth() < maxDepth;
+			if (!followLinks && pipeline == null) return;
+
+			// Get all URLs that appear on the specified site
+			ParsedPage parsed = new ParsedPage(site, page);
+			List<String> links = new ArrayList<String>();
+			if (followLinks) {
+				long parseStart = System.nanoTime();
+				if (parseDocuments) {
+					Document doc = parsed.document();
+					if (doc != null) LinkExtractor.extract(doc, links::add);
+				} else {
+					LinkExtractor.extract(page.getBody(), page.getCharset(), page.getUrl(), links::add);
+				}
+				metrics.parsed(System.nanoTime() - parseStart);
+			}
+
+			// The processors take over the page, and may run after this site is finished,
+			// or skip it rather than hold up the crawl when they are behind
+			if (pipeline != null) pipeline.submit(parsed);
+			if (!followLinks || links.isEmpty()) return;
+
+			// Add all sites that have not been discovered before to the frontier,
+			// and queue them to be written to the 'sites' table in the database.
+			// The score of this site is split evenly among its links.
+			long dedupStart = System.nanoTime();
+			int newSiteCount = 0;
+			int depth = entry.getDepth() + 1;
+			double score = entry.getScore() / links.size();
+			for (String link : links) {
+				String newSite = canonicalizer.canonicalize(link);
+				if (newSite == null || !filter.accepts(newSite) || newSite.length() > Schema.MAX_SITE_LENGTH) continue;
+				if (cluster != null) {
+					// Sites of other nodes are only forwarded the first time they are seen here
+					int node = cluster.owner(newSite);
+					if (node != cluster.self()) {
+						if (seen.add(newSite)) cluster.forward(node, database, newSite, depth, score);
+						continue;
+					}
+				}
+				if (add(newSite, depth, score)) newSiteCount++;
+			}
+			metrics.deduplicated(links.size(), newSiteCount, System.nanoTime() - dedupStart);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Adds a site to the frontier and queues it to be written to the
+	 * 'sites' table if it has not been discovered before, and otherwise
+	 * adds to its score.
+	 *
+	 * @return true if the site is new and was added to the frontier
+	 */
+	private boolean add(String site, int depth, double score) throws InterruptedException {
+		if (!seen.add(site)) {
+			frontier.addScore(site, score);
+			return false;
+		}
+		if (!frontier.offer(site, depth, score)) {
+			seen.remove(site);
+			return false;
+		}
+		log.enqueue(site, depth);
+		writer.write(site);
+		return true;
+	}
+}
@@ -0,0 +1,186 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.BiPredicate;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * A CrawlStore keeps the crawl databases of the server: the seed sites of
+ * every database, whether they have been claimed by a crawl, and every
+ * site that has been discovered together with the outcome of fetching it.
+ * Fetched sites are stored with the version that they were fetched in,
+ * from which they are recrawled once their revisit interval has passed,
+ * and the records that page processors extract from them are kept too.
+ * The sites waiting to be crawled are kept in the frontier log next to the
+ * store, except for the frontier saved in a database by older versions of
+ * the crawler.
+ *
+ * Two stores are available:
+ * <ul>
+ * <li>mariadb: the tables of a MariaDB app, see Schema</li>
+ * <li>embedded: append-only files in a local directory, which avoids the
+ * network and JDBC when a single server crawls on its own</li>
+ * </ul>
+ *
+ * Implementations are threadsafe, and clients of the same database rely
+ * on the store to never hand the same seed to two of them. The names of
+ * databases are checked with checkName() before they are used in a
+ * statement or a path.
+ */
+interface CrawlStore extends AutoCloseable {
+	// Database names are plain identifiers, which need no quoting in SQL and stay within a directory
+	Pattern NAME = Pattern.compile("[A-Za-z0-9_]{1,64}");
+
+	/**
+	 * Creates a database if it does not exist yet.
+	 *
+	 * @param database the name of the database
+	 * @throws IOException unable to create the database
+	 */
+	void use(String database) throws IOException;
+
+	/**
+	 * Deletes a database and everything in it, if it exists.
+	 *
+	 * @param database the name of the database
+	 * @throws IOException unable to delete the database
+	 */
+	void drop(String database) throws IOException;
+
+	/**
+	 * Empties a database, and stores a new set of seed sites in it.
+	 *
+	 * @param database the name of the database
+	 * @param seeds the seed sites, in canonical form
+	 * @throws IOException unable to empty the database or store the seeds
+	 */
+	void init(String database, List<String> seeds) throws IOException;
+
+	/**
+	 * @param database the name of the database
+	 * @return the version of Schema that the database uses, or 0 if it has
+	 * not been initialized
+	 * @throws IOException unable to read the version
+	 */
+	int version(String database) throws IOException;
+
+	/**
+	 * Migrates a database to the newest version of Schema.
+	 *
+	 * @param database the name of the database
+	 * @return the number of sites that were migrated
+	 * @throws IOException unable to migrate the database
+	 */
+	long migrate(String database) throws IOException;
+
+	/**
+	 * Claims the seeds that no crawl has claimed yet, one at a time. A
+	 * seed that the consumer does not accept is given back and ends the
+	 * claiming, so it can be claimed again later.
+	 *
+	 * @param database the name of the database
+	 * @param consumer receives every claimed seed, and returns false if
+	 *            it does not accept it
+	 * @throws IOException unable to claim the seeds
+	 */
+	void claimSeeds(String database, Predicate<String> consumer) throws IOException;
+
+	/**
+	 * Claims the fetched sites that are due to be recrawled, one at a time,
+	 * and puts their next fetch off by their revisit interval, so that no
+	 * other crawl claims them again until then. A site that the consumer
+	 * does not accept is given back and ends the claiming.
+	 *
+	 * @param database the name of the database
+	 * @param now the current time in milliseconds since the epoch
+	 * @param consumer receives every claimed site with the version that it
+	 *            was last fetched in, and returns false if it does not
+	 *            accept it
+	 * @throws IOException unable to claim the sites
+	 */
+	void claimDueSites(String database, long now, BiPredicate<String, PageVersion> consumer) throws IOException;
+
+	/**
+	 * Removes the frontier that older versions of the crawler saved in the
+	 * database when they were paused.
+	 *
+	 * @param database the name of the database
+	 * @return the sites of the saved frontier
+	 * @throws IOException unable to read or remove the saved frontier
+	 */
+	List<String> removeSavedFrontier(String database) throws IOException;
+
+	/**
+	 * Reads the fingerprints of every site that has been discovered.
+	 *
+	 * @param database the name of the database
+	 * @param consumer receives the fingerprints
+	 * @throws IOException unable to read the sites
+	 */
+	void readSites(String database, LongConsumer consumer) throws IOException;
+
+	/**
+	 * Stores a batch of newly discovered sites and fetch outcomes. New
+	 * sites are stored before fetch outcomes, since a site may be
+	 * discovered and fetched within the same batch. Sites that are already
+	 * stored are ignored. A fetch outcome with a version makes the site
+	 * due to be recrawled once the interval of the version has passed, and
+	 * one without a version keeps it from being recrawled.
+	 *
+	 * @param database the name of the database
+	 * @param batch the sites to store
+	 * @throws IOException unable to store the batch
+	 */
+	void write(String database, List<SiteWriter.Entry> batch) throws IOException;
+
+	/**
+	 * Stores a batch of records that page processors extracted.
+	 *
+	 * @param database the name of the database
+	 * @param batch the records to store
+	 * @throws IOException unable to store the batch
+	 */
+	void writeExtracts(String database, List<ExtractWriter.Entry> batch) throws IOException;
+
+	/**
+	 * Releases the resources of the store.
+	 */
+	void close();
+
+	/**
+	 * @param database the name of a database
+	 * @return true if the name consists of 1 to 64 letters, digits and underscores
+	 */
+	static boolean isValidName(String database) {
+		return database != null && NAME.matcher(database).matches();
+	}
+
+	/**
+	 * @param database the name of a database
+	 * @throws IOException the name is not valid, see isValidName()
+	 */
+	static void checkName(String database) throws IOException {
+		if (!isValidName(database)) throw new IOException("invalid database name: " + database);
+	}
+
+	/**
+	 * @param config the crawler configuration
+	 * @return the configured store, which is the MariaDB app if the
+	 * configured store does not exist
+	 */
+	static CrawlStore open(CrawlerConfig config) {
+		switch (config.storeType().trim().toLowerCase()) {
+		case "embedded":
+			return new EmbeddedStore(Paths.get(config.storeDirectory()));
+		case "mariadb":
+			return new MariaDbStore(new ConnectionPool(config));
+		default:
+			System.err.println("invalid value for store.type: " + config.storeType());
+			return new MariaDbStore(new ConnectionPool(config));
+		}
+	}
+}
@@ -0,0 +1,542 @@
+package webcrawler;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CrawlerConfig class holds the tunable settings of the web crawler.
+ * Settings are read from an optional properties file, and every setting
+ * that is missing from the file falls back to a default value.
+ */
+public class CrawlerConfig {
+	private static final String DEFAULT_FILE = "crawler.properties";
+	private final Properties properties;
+
+	// Rep invariant:
+	//		properties != null
+	// Abstraction function:
+	//		Represents the settings in properties, where any setting
+	//		that is not in properties has its default value.
+
+	/**
+	 * Creates a configuration where every setting has its default value.
+	 */
+	public CrawlerConfig() {
+		this(new Properties());
+	}
+
+	/**
+	 * Creates a configuration from the given settings.
+	 *
+	 * @param properties the settings, which are copied
+	 */
+	public CrawlerConfig(Properties properties) {
+		this.properties = new Properties();
+		this.properties.putAll(properties);
+	}
+
+	/**
+	 * Loads the configuration from crawler.properties in the working
+	 * directory. If the file does not exist, all defaults are used.
+	 *
+	 * @return the loaded configuration
+	 */
+	public static CrawlerConfig load() {
+		return load(DEFAULT_FILE);
+	}
+
+	/**
+	 * Loads the configuration from a properties file. If the file does
+	 * not exist, all defaults are used.
+	 *
+	 * @param file path to the properties file
+	 * @return the loaded configuration
+	 */
+	public static CrawlerConfig load(String file) {
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		} catch (FileNotFoundException e) {
+			// No configuration file, so use the defaults
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return new CrawlerConfig(properties);
+	}
+
+	/**
+	 * @return the port where the server listens for clients, or 0 to use
+	 * any free port
+	 */
+	public int serverPort() {
+		return getInt("server.port", 4949);
+	}
+
+	/**
+	 * @return the maximum number of clients connected at once
+	 */
+	public int serverMaxConnections() {
+		return getInt("server.maxConnections", 1024);
+	}
+
+	/**
+	 * @return the number of threads that execute the commands of clients
+	 */
+	public int serverThreads() {
+		return getInt("server.threads", 16);
+	}
+
+	/**
+	 * @return true if every command and reply is logged to standard error
+	 */
+	public boolean serverLogRequests() {
+		return !properties.getProperty("server.logRequests", "true").trim().equalsIgnoreCase("false");
+	}
+
+	/**
+	 * @return the file that the init command reads the seed sites from
+	 */
+	public String seedsFile() {
+		return properties.getProperty("seeds.file", "seedSites.txt");
+	}
+
+	/**
+	 * @return where the crawl databases are kept, either "mariadb" or "embedded"
+	 */
+	public String storeType() {
+		return properties.getProperty("store.type", "mariadb");
+	}
+
+	/**
+	 * @return the directory of the embedded store
+	 */
+	public String storeDirectory() {
+		return properties.getProperty("store.dir", "store");
+	}
+
+	/**
+	 * @return the JDBC URL of the MariaDB app
+	 */
+	public String databaseUrl() {
+		return properties.getProperty("db.url", "jdbc:mariadb://localhost:3306/?user=root&useServerPrepStmts=true&rewriteBatchedStatements=true");
+	}
+
+	/**
+	 * @return the maximum number of connections to the MariaDB app
+	 * that the server keeps open
+	 */
+	public int databasePoolSize() {
+		return getInt("db.poolSize", 16);
+	}
+
+	/**
+	 * @return the maximum number of milliseconds to wait for a
+	 * connection when all connections are in use
+	 */
+	public long databasePoolTimeout() {
+		return getLong("db.poolTimeout", 30000);
+	}
+
+	/**
+	 * @return the maximum number of URLs waiting to be crawled in memory
+	 */
+	public int frontierCapacity() {
+		return getInt("frontier.capacity", 100000);
+	}
+
+	/**
+	 * @return the directory in which URLs that do not fit in the frontier
+	 * are kept
+	 */
+	public String frontierSpillDirectory() {
+		return properties.getProperty("frontier.spillDir", "frontier/spill");
+	}
+
+	/**
+	 * @return the directory that holds the frontier log of each database
+	 */
+	public String frontierLogDirectory() {
+		return properties.getProperty("frontier.logDir", "frontier");
+	}
+
+	/**
+	 * @return the maximum number of milliseconds between flushes of the
+	 * frontier log to the disk
+	 */
+	public long frontierLogSyncInterval() {
+		return getLong("frontier.logSyncInterval", 1000);
+	}
+
+	/**
+	 * @return the order in which sites are crawled, which is breadth-first
+	 * if the configured policy does not exist
+	 */
+	public CrawlPolicy crawlPolicy() {
+		String name = properties.getProperty("frontier.policy", "breadth-first");
+		try {
+			return CrawlPolicy.forName(name);
+		} catch (IllegalArgumentException e) {
+			System.err.println("invalid value for frontier.policy: " + name);
+			return new CrawlPolicy.BreadthFirst();
+		}
+	}
+
+	/**
+	 * @return the maximum number of links between a seed and a crawled
+	 * site, unless the start or resume command gives one
+	 */
+	public int crawlMaxDepth() {
+		return getInt("crawl.maxDepth", Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return the number of milliseconds that the pause command waits for
+	 * the sites being crawled to be finished before it cancels them
+	 */
+	public long crawlPauseTimeout() {
+		return getLong("crawl.pauseTimeout", 2000);
+	}
+
+	/**
+	 * @return the number of milliseconds after which a site that has been
+	 * fetched for the first time is due to be recrawled
+	 */
+	public long recrawlInterval() {
+		return TimeUnit.SECONDS.toMillis(getLong("recrawl.interval", TimeUnit.DAYS.toSeconds(1)));
+	}
+
+	/**
+	 * @return the shortest number of milliseconds between two fetches of a
+	 * site, which sites that keep changing are recrawled after
+	 */
+	public long recrawlMinInterval() {
+		return TimeUnit.SECONDS.toMillis(getLong("recrawl.minInterval", TimeUnit.HOURS.toSeconds(1)));
+	}
+
+	/**
+	 * @return the longest number of milliseconds between two fetches of a
+	 * site, which sites that never change are recrawled after
+	 */
+	public long recrawlMaxInterval() {
+		return TimeUnit.SECONDS.toMillis(getLong("recrawl.maxInterval", TimeUnit.DAYS.toSeconds(30)));
+	}
+
+	/**
+	 * @return true if pages that are near-duplicates of pages crawled
+	 * before are neither stored nor scanned for links
+	 */
+	public boolean duplicatesEnabled() {
+		return !properties.getProperty("duplicates.enabled", "true").trim().equalsIgnoreCase("false");
+	}
+
+	/**
+	 * @return the maximum number of bits in which the SimHash fingerprints
+	 * of near-duplicate pages differ
+	 */
+	public int duplicatesMaxDistance() {
+		return getInt("duplicates.maxDistance", 3);
+	}
+
+	/**
+	 * @return the number of fingerprints of recently crawled pages that
+	 * new pages are compared with, per database
+	 */
+	public int duplicatesCapacity() {
+		return getInt("duplicates.capacity", 250000);
+	}
+
+	/**
+	 * @return true if the bodies of crawled pages are kept in the page
+	 * archive of the database
+	 */
+	public boolean archiveEnabled() {
+		return properties.getProperty("archive.enabled", "false").trim().equalsIgnoreCase("true");
+	}
+
+	/**
+	 * @return the directory that holds the page archive of each database
+	 */
+	public String archiveDirectory() {
+		return properties.getProperty("archive.dir", "archive");
+	}
+
+	/**
+	 * @return the size in bytes at which a segment of the page archive is
+	 * closed and a new one started
+	 */
+	public long archiveSegmentSize() {
+		return getLong("archive.segmentSize", 1L << 30);
+	}
+
+	/**
+	 * @return the deflate level that pages are compressed with in the page
+	 * archive, from 1 (fastest) to 9 (smallest)
+	 */
+	public int archiveCompressionLevel() {
+		return getInt("archive.compressionLevel", 1);
+	}
+
+	/**
+	 * @return the maximum number of compressed pages waiting to be written
+	 * to the page archive
+	 */
+	public int archiveQueueCapacity() {
+		return getInt("archive.queueCapacity", 1000);
+	}
+
+	/**
+	 * @return the maximum number of requests to the same host that can
+	 * be in progress at the same time
+	 */
+	public int hostMaxInFlight() {
+		return getInt("host.maxInFlight", 2);
+	}
+
+	/**
+	 * @return the minimum number of milliseconds between two requests
+	 * to the same host
+	 */
+	public long hostCrawlDelay() {
+		return getLong("host.crawlDelay", 500);
+	}
+
+	/**
+	 * @return the number of sites that the in-memory set of seen
+	 * sites is sized for
+	 */
+	public long expectedSites() {
+		return getLong("seen.expectedSites", 10000000);
+	}
+
+	/**
+	 * @return the number of new sites written to the database at once
+	 */
+	public int writerBatchSize() {
+		return getInt("writer.batchSize", 500);
+	}
+
+	/**
+	 * @return the maximum number of milliseconds that a new site waits
+	 * before it is written to the database
+	 */
+	public long writerFlushInterval() {
+		return getLong("writer.flushInterval", 1000);
+	}
+
+	/**
+	 * @return the maximum number of new sites waiting to be written to
+	 * the database before crawl workers have to wait
+	 */
+	public int writerQueueCapacity() {
+		return getInt("writer.queueCapacity", 50000);
+	}
+
+	/**
+	 * @return the host:port addresses of every node of the cluster that
+	 * this server is part of, or an empty list if it crawls on its own
+	 */
+	public List<String> clusterNodes() {
+		return getList("cluster.nodes", "");
+	}
+
+	/**
+	 * @return the index of this server in the list of cluster nodes
+	 */
+	public int clusterNode() {
+		return getInt("cluster.node", 0);
+	}
+
+	/**
+	 * @return the number of sites forwarded to another node at once
+	 */
+	public int clusterBatchSize() {
+		return getInt("cluster.batchSize", 500);
+	}
+
+	/**
+	 * @return the maximum number of milliseconds that a site waits
+	 * before it is forwarded to another node
+	 */
+	public long clusterFlushInterval() {
+		return getLong("cluster.flushInterval", 100);
+	}
+
+	/**
+	 * @return the maximum number of sites waiting to be forwarded to a
+	 * node before new sites for it are dropped
+	 */
+	public int clusterMaxPending() {
+		return getInt("cluster.maxPending", 100000);
+	}
+
+	/**
+	 * @return the number of threads that deliver HTTP responses
+	 */
+	public int fetchThreads() {
+		return getInt("fetch.threads", 4);
+	}
+
+	/**
+	 * @return the maximum number of milliseconds to wait for a connection
+	 * to a host to be established
+	 */
+	public long fetchConnectTimeout() {
+		return getLong("fetch.connectTimeout", 10000);
+	}
+
+	/**
+	 * @return the maximum number of milliseconds to wait for the response
+	 * to a request, including the download of its body
+	 */
+	public long fetchReadTimeout() {
+		return getLong("fetch.readTimeout", 30000);
+	}
+
+	/**
+	 * @return the maximum number of bytes of a page that are downloaded
+	 */
+	public int fetchMaxBodySize() {
+		return getInt("fetch.maxBodySize", 5 * 1024 * 1024);
+	}
+
+	/**
+	 * @return the User-Agent header sent with every request
+	 */
+	public String fetchUserAgent() {
+		return properties.getProperty("fetch.userAgent", "webcrawler");
+	}
+
+	/**
+	 * @return the number of threads that parse downloaded pages
+	 */
+	public int parseThreads() {
+		return getInt("parse.threads", Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @return true if every page is parsed into a Jsoup document, or false
+	 * if pages are only scanned for links
+	 */
+	public boolean parseDocuments() {
+		return properties.getProperty("parse.mode", "stream").trim().equalsIgnoreCase("dom");
+	}
+
+	/**
+	 * @return the page processors that run over every crawled page, by
+	 * name or class name, see PageProcessor
+	 */
+	public List<String> extractProcessors() {
+		return getList("extract.processors", "");
+	}
+
+	/**
+	 * @return the number of threads that run the page processors
+	 */
+	public int extractThreads() {
+		return getInt("extract.threads", Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @return the maximum number of pages waiting for the page processors
+	 */
+	public int extractQueueCapacity() {
+		return getInt("extract.queueCapacity", 1000);
+	}
+
+	/**
+	 * @return true if robots.txt files are obeyed
+	 */
+	public boolean robotsEnabled() {
+		return !properties.getProperty("robots.enabled", "true").trim().equalsIgnoreCase("false");
+	}
+
+	/**
+	 * @return the maximum number of hosts whose robots.txt rules are cached
+	 */
+	public int robotsCacheSize() {
+		return getInt("robots.cacheSize", 10000);
+	}
+
+	/**
+	 * @return the number of milliseconds that a downloaded robots.txt
+	 * file is used before it is downloaded again
+	 */
+	public long robotsTtl() {
+		return getLong("robots.ttl", 24 * 60 * 60 * 1000);
+	}
+
+	/**
+	 * @return the names of query and path parameters that are removed from
+	 * URLs, where a trailing '*' matches any suffix
+	 */
+	public List<String> urlStrippedParameters() {
+		return getList("url.stripParams", "jsessionid,phpsessid,sid,sessionid,utm_*");
+	}
+
+	/**
+	 * @return the URL schemes that are crawled
+	 */
+	public List<String> filterSchemes() {
+		return getList("filter.schemes", "http,https");
+	}
+
+	/**
+	 * @return the file extensions of URLs that are not crawled
+	 */
+	public List<String> filterDeniedExtensions() {
+		return getList("filter.denyExtensions",
+		        "jpg,jpeg,png,gif,bmp,svg,ico,webp,tif,tiff,css,js,json,xml,rss,pdf,doc,docx,xls,xlsx,ppt,pptx,"
+		                + "zip,gz,tgz,tar,rar,7z,exe,dmg,iso,apk,mp3,wav,ogg,mp4,avi,mov,wmv,flv,webm,woff,woff2,ttf,eot");
+	}
+
+	/**
+	 * @return the domains that URLs must belong to, or an empty list if
+	 * URLs of any domain are crawled
+	 */
+	public List<String> filterAllowedDomains() {
+		return getList("filter.allowDomains", "");
+	}
+
+	/**
+	 * @return the domains whose URLs are not crawled
+	 */
+	public List<String> filterDeniedDomains() {
+		return getList("filter.denyDomains", "");
+	}
+
+	private List<String> getList(String key, String defaultValue) {
+		List<String> list = new ArrayList<String>();
+		for (String value : properties.getProperty(key, defaultValue).split(",")) {
+			if (!value.trim().isEmpty()) list.add(value.trim());
+		}
+		return list;
+	}
+
+	private int getInt(String key, int defaultValue) {
+		String value = properties.getProperty(key);
+		if (value == null) return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			System.err.println("invalid value for " + key + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	private long getLong(String key, long defaultValue) {
+		String value = properties.getProperty(key);
+		if (value == null) return defaultValue;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			System.err.println("invalid value for " + key + ": " + value);
+			return defaultValue;
+		}
+	}
+}
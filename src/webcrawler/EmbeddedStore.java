@@ -0,0 +1,475 @@
+package webcrawler;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * An EmbeddedStore keeps every crawl database in a directory of its own,
+ * in append-only files: seeds.log records the seeds and every claim on
+ * them, sites.log records every discovered site, every fetch outcome and
+ * every claim of a site that is due to be recrawled, and extracts.log
+ * records what page processors extract from the crawled sites. A batch
+ * of sites is appended with a single write, and nothing is ever updated
+ * in place, so the store keeps up with any crawl that a single server can
+ * run. The files are only read back when a crawl starts, to find the
+ * unclaimed seeds, the sites that have been seen, or the sites that are
+ * due to be recrawled.
+ *
+ * Records are written as [length][type][data], where length is a 4-byte
+ * integer that counts the rest of the record. Appended records survive a
+ * crash of the server, and are flushed to the disk when the store is
+ * closed. A record that was cut short by a crash of the machine is
+ * dropped when the file is opened again.
+ */
+class EmbeddedStore implements CrawlStore {
+	// Types of the records of seeds.log, followed by a UTF-8 site
+	private static final byte SEED = 1;
+	private static final byte CLAIM = 2;
+	private static final byte RELEASE = 3;
+	// Types of the records of sites.log, followed by the fingerprint of the
+	// site and then its UTF-8 URL, its status, its status and version, or
+	// the time of its next fetch
+	private static final byte DISCOVERED = 1;
+	private static final byte STATUS = 2;
+	private static final byte VERSION = 3;
+	private static final byte SCHEDULE = 4;
+	// Type of the records of extracts.log, followed by the fingerprint of the
+	// site, the UTF-8 type of the processor as a 2-byte length and its bytes,
+	// and the UTF-8 data
+	private static final byte EXTRACT = 1;
+	private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+	private final Path directory;
+	// Databases whose files are open, by name
+	private final Map<String, Database> databases;
+
+	// Rep invariant:
+	//		directory != null, databases != null
+	//		every database in databases has been initialized
+	// Abstraction function:
+	//		Represents the databases whose files are in the subdirectories
+	//		of directory.
+	// Thread safety argument:
+	//		databases is only accessed while holding this object's lock, and
+	//		the state of each database only while holding that database's lock.
+
+	/**
+	 * Creates a store. Files are created when a database is initialized.
+	 *
+	 * @param directory the directory of the databases
+	 */
+	public EmbeddedStore(Path directory) {
+		this.directory = directory;
+		this.databases = new HashMap<String, Database>();
+	}
+
+	public void use(String database) throws IOException {
+		CrawlStore.checkName(database);
+		Files.createDirectories(directory.resolve(database));
+	}
+
+	public synchronized void drop(String database) throws IOException {
+		CrawlStore.checkName(database);
+		close(database);
+		Path path = directory.resolve(database);
+		if (!Files.exists(path)) return;
+		try (Stream<Path> files = Files.walk(path)) {
+			for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	public synchronized void init(String database, List<String> seeds) throws IOException {
+		CrawlStore.checkName(database);
+		close(database);
+		Path path = directory.resolve(database);
+		Files.createDirectories(path);
+		Files.deleteIfExists(path.resolve("seeds.log"));
+		Files.deleteIfExists(path.resolve("sites.log"));
+		Files.deleteIfExists(path.resolve("extracts.log"));
+
+		Database db = open(database);
+		ByteBuffer records = ByteBuffer.allocate(1024);
+		for (String site : seeds) {
+			if (db.seeds.containsKey(site)) continue;
+			db.seeds.put(site, false);
+			records = appendSite(records, SEED, site, false);
+		}
+		db.seedLog.append(records);
+	}
+
+	public synchronized int version(String database) throws IOException {
+		// The files have had the same format since the store was added, and
+		// extracts.log is created when an older database is opened
+		return databases.containsKey(database) || Files.exists(directory.resolve(database).resolve("sites.log"))
+		        ? Schema.VERSION : 0;
+	}
+
+	public long migrate(String database) throws IOException {
+		return 0;
+	}
+
+	public void claimSeeds(String database, Predicate<String> consumer) throws IOException {
+		Database db = database(database);
+		synchronized (db) {
+			for (Map.Entry<String, Boolean> seed : db.seeds.entrySet()) {
+				if (seed.getValue()) continue;
+				String site = seed.getKey();
+				seed.setValue(true);
+				db.seedLog.append(appendSite(ByteBuffer.allocate(256), CLAIM, site, false));
+				if (!consumer.test(site)) {
+					seed.setValue(false);
+					db.seedLog.append(appendSite(ByteBuffer.allocate(256), RELEASE, site, false));
+					break;
+				}
+			}
+		}
+	}
+
+	public void claimDueSites(String database, long now, BiPredicate<String, PageVersion> consumer)
+	        throws IOException {
+		Database db = database(database);
+		synchronized (db) {
+			// Find the latest version and next fetch of every site that is
+			// to be recrawled, and then the URLs of the sites that are due
+			Map<Long, Revisit> revisits = new HashMap<Long, Revisit>();
+			db.siteLog.scan(record -> {
+				byte type = record.get();
+				if (type == DISCOVERED) return;
+				long id = record.getLong();
+				if (type == STATUS) {
+					revisits.remove(id);
+				} else if (type == VERSION) {
+					// Skip the status
+					record.get();
+					long contentHash = record.getLong();
+					long interval = record.getLong();
+					long nextFetch = record.getLong();
+					String etag = getString(record);
+					String lastModified = getString(record);
+					revisits.put(id, new Revisit(new PageVersion(etag, lastModified, contentHash, interval), nextFetch));
+				} else if (type == SCHEDULE && revisits.containsKey(id)) {
+					revisits.get(id).nextFetch = record.getLong();
+				}
+			});
+			revisits.values().removeIf(revisit -> revisit.nextFetch > now);
+			if (revisits.isEmpty()) return;
+			List<Revisit> due = new ArrayList<Revisit>(revisits.size());
+			db.siteLog.scan(record -> {
+				if (record.get() != DISCOVERED) return;
+				Revisit revisit = revisits.remove(record.getLong());
+				if (revisit == null) return;
+				revisit.site = new String(record.array(), record.position(), record.remaining(), StandardCharsets.UTF_8);
+				due.add(revisit);
+			});
+
+			for (Revisit revisit : due) {
+				db.siteLog.append(appendSchedule(revisit.site, now + revisit.version.getInterval()));
+				if (!consumer.test(revisit.site, revisit.version)) {
+					db.siteLog.append(appendSchedule(revisit.site, now));
+					break;
+				}
+			}
+		}
+	}
+
+	public List<String> removeSavedFrontier(String database) {
+		// Only the MariaDB store was used by the versions that saved the frontier
+		return Collections.emptyList();
+	}
+
+	public void readSites(String database, LongConsumer consumer) throws IOException {
+		Database db = database(database);
+		synchronized (db) {
+			db.siteLog.scan(record -> {
+				if (record.get() == DISCOVERED) consumer.accept(record.getLong());
+			});
+		}
+	}
+
+	public void write(String database, List<SiteWriter.Entry> batch) throws IOException {
+		Database db = database(database);
+		ByteBuffer records = ByteBuffer.allocate(batch.size() * 128);
+		for (SiteWriter.Entry entry : batch) {
+			if (entry.getStatus() == Schema.STATUS_DISCOVERED) records = appendSite(records, DISCOVERED, entry.getSite(), true);
+		}
+		long now = System.currentTimeMillis();
+		for (SiteWriter.Entry entry : batch) {
+			if (entry.getStatus() == Schema.STATUS_DISCOVERED) continue;
+			if (entry.getVersion() != null) {
+				records = appendVersion(records, entry, now);
+				continue;
+			}
+			records = ensureRemaining(records, 14);
+			records.putInt(10).put(STATUS).putLong(Fingerprint.of(entry.getSite())).put((byte) entry.getStatus());
+		}
+		synchronized (db) {
+			db.siteLog.append(records);
+		}
+	}
+
+	public void writeExtracts(String database, List<ExtractWriter.Entry> batch) throws IOException {
+		Database db = database(database);
+		ByteBuffer records = ByteBuffer.allocate(batch.size() * 256);
+		for (ExtractWriter.Entry entry : batch) {
+			byte[] type = entry.getType().getBytes(StandardCharsets.UTF_8);
+			byte[] data = entry.getData().getBytes(StandardCharsets.UTF_8);
+			int length = 1 + 8 + 2 + type.length + data.length;
+			records = ensureRemaining(records, 4 + length);
+			records.putInt(length).put(EXTRACT).putLong(Fingerprint.of(entry.getSite())).putShort((short) type.length).put(type)
+			        .put(data);
+		}
+		synchronized (db) {
+			db.extractLog.append(records);
+		}
+	}
+
+	public synchronized void close() {
+		for (Database db : databases.values()) {
+			db.close();
+		}
+		databases.clear();
+	}
+
+	/**
+	 * @return the open database with the given name, opening it if needed
+	 * @throws IOException the database has not been initialized, or its
+	 *             files cannot be read
+	 */
+	private synchronized Database database(String database) throws IOException {
+		Database db = databases.get(database);
+		if (db == null) {
+			if (version(database) == 0) throw new IOException("database " + database + " has not been initialized");
+			db = open(database);
+		}
+		return db;
+	}
+
+	/**
+	 * Opens the files of a database, and reads the state of its seeds.
+	 */
+	private Database open(String database) throws IOException {
+		Path path = directory.resolve(database);
+		Database db = new Database(new RecordFile(path.resolve("seeds.log")), new RecordFile(path.resolve("sites.log")),
+		        new RecordFile(path.resolve("extracts.log")));
+		db.seedLog.scan(record -> {
+			byte type = record.get();
+			String site = new String(record.array(), record.position(), record.remaining(), StandardCharsets.UTF_8);
+			if (type == SEED) db.seeds.putIfAbsent(site, false);
+			else db.seeds.replace(site, type == CLAIM);
+		});
+		databases.put(database, db);
+		return db;
+	}
+
+	private void close(String database) {
+		Database db = databases.remove(database);
+		if (db != null) db.close();
+	}
+
+	/**
+	 * Appends a record that holds a site to a buffer, growing the buffer if needed.
+	 *
+	 * @param fingerprinted true if the fingerprint of the site comes before its URL
+	 * @return the buffer that holds the record
+	 */
+	private static ByteBuffer appendSite(ByteBuffer records, byte type, String site, boolean fingerprinted) {
+		byte[] bytes = site.getBytes(StandardCharsets.UTF_8);
+		int length = 1 + (fingerprinted ? 8 : 0) + bytes.length;
+		records = ensureRemaining(records, 4 + length);
+		records.putInt(length).put(type);
+		if (fingerprinted) records.putLong(Fingerprint.of(site));
+		records.put(bytes);
+		return records;
+	}
+
+	/**
+	 * Appends a record that holds the status and version of a fetched site
+	 * to a buffer, growing the buffer if needed. Validators are written as
+	 * a 2-byte length, or -1 if there is none, followed by their UTF-8 bytes.
+	 *
+	 * @param now the time of the fetch
+	 * @return the buffer that holds the record
+	 */
+	private static ByteBuffer appendVersion(ByteBuffer records, SiteWriter.Entry entry, long now) {
+		PageVersion version = entry.getVersion();
+		byte[] etag = bytesOf(version.getEtag(), Schema.MAX_ETAG_LENGTH);
+		byte[] lastModified = bytesOf(version.getLastModified(), Schema.MAX_LAST_MODIFIED_LENGTH);
+		int length = 1 + 8 + 1 + 3 * 8 + 2 + (etag == null ? 0 : etag.length) + 2
+		        + (lastModified == null ? 0 : lastModified.length);
+		records = ensureRemaining(records, 4 + length);
+		records.putInt(length).put(VERSION).putLong(Fingerprint.of(entry.getSite())).put((byte) entry.getStatus());
+		records.putLong(version.getContentHash()).putLong(version.getInterval()).putLong(now + version.getInterval());
+		for (byte[] validator : new byte[][] { etag, lastModified }) {
+			records.putShort((short) (validator == null ? -1 : validator.length));
+			if (validator != null) records.put(validator);
+		}
+		return records;
+	}
+
+	/**
+	 * @return a record that puts off the next fetch of a site
+	 */
+	private static ByteBuffer appendSchedule(String site, long nextFetch) {
+		return ByteBuffer.allocate(21).putInt(17).put(SCHEDULE).putLong(Fingerprint.of(site)).putLong(nextFetch);
+	}
+
+	/**
+	 * @return the UTF-8 bytes of a validator, or null if there is none or
+	 * it is longer than the given length
+	 */
+	private static byte[] bytesOf(String validator, int maxLength) {
+		if (validator == null || validator.length() > maxLength) return null;
+		return validator.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads a validator written by appendVersion().
+	 */
+	private static String getString(ByteBuffer record) {
+		int length = record.getShort();
+		if (length < 0) return null;
+		String value = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+		record.position(record.position() + length);
+		return value;
+	}
+
+	private static ByteBuffer ensureRemaining(ByteBuffer buffer, int size) {
+		if (buffer.remaining() >= size) return buffer;
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	/**
+	 * The open files of a database, and the seeds with whether they have
+	 * been claimed, in the order in which they were added.
+	 */
+	private static class Database {
+		private final RecordFile seedLog;
+		private final RecordFile siteLog;
+		private final RecordFile extractLog;
+		private final Map<String, Boolean> seeds;
+
+		private Database(RecordFile seedLog, RecordFile siteLog, RecordFile extractLog) {
+			this.seedLog = seedLog;
+			this.siteLog = siteLog;
+			this.extractLog = extractLog;
+			this.seeds = new LinkedHashMap<String, Boolean>();
+		}
+
+		private void close() {
+			seedLog.close();
+			siteLog.close();
+			extractLog.close();
+		}
+	}
+
+	/**
+	 * A site that is to be recrawled, with the version that it was last
+	 * fetched in and the time of its next fetch.
+	 */
+	private static class Revisit {
+		private final PageVersion version;
+		private long nextFetch;
+		// The URL, once it has been read
+		private String site;
+
+		private Revisit(PageVersion version, long nextFetch) {
+			this.version = version;
+			this.nextFetch = nextFetch;
+		}
+	}
+
+	/**
+	 * An append-only file of records. This class is not threadsafe.
+	 */
+	private static class RecordFile {
+		private final Path path;
+		private final FileChannel channel;
+
+		/**
+		 * Opens a file, creating it if it does not exist, and drops a
+		 * record at its end that was not written completely.
+		 */
+		private RecordFile(Path path) throws IOException {
+			this.path = path;
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+			        StandardOpenOption.WRITE);
+			long end = scan(record -> {
+			});
+			channel.truncate(end);
+			channel.position(end);
+		}
+
+		/**
+		 * Appends the records in a buffer.
+		 */
+		private void append(ByteBuffer records) throws IOException {
+			records.flip();
+			while (records.hasRemaining()) {
+				channel.write(records);
+			}
+		}
+
+		/**
+		 * Reads every complete record of the file in order.
+		 *
+		 * @param visitor receives the type and data of every record
+		 * @return the position after the last complete record
+		 */
+		private long scan(RecordVisitor visitor) throws IOException {
+			long end = 0;
+			try (DataInputStream in = new DataInputStream(
+			        new BufferedInputStream(Files.newInputStream(path), 1024 * 1024))) {
+				while (true) {
+					int length = in.readInt();
+					if (length <= 0 || length > MAX_RECORD_LENGTH) break;
+					byte[] record = new byte[length];
+					in.readFully(record);
+					visitor.visit(ByteBuffer.wrap(record));
+					end += 4 + length;
+				}
+			} catch (EOFException e) {
+				// The last record ends here, or was not written completely
+			}
+			return end;
+		}
+
+		private void close() {
+			try {
+				channel.force(false);
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Receives the records of a file.
+	 */
+	private interface RecordVisitor {
+		void visit(ByteBuffer record) throws IOException;
+	}
+}
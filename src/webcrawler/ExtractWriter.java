@@ -0,0 +1,106 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * An ExtractWriter is the stage that persists the records that page
+ * processors extract. Like the SiteWriter, it hands records to a
+ * BatchWriter, whose thread writes them to the 'extracts' table in batches.
+ * When its queue is full, the processors wait for the writer to catch up.
+ */
+class ExtractWriter {
+	private final BatchWriter<Entry> batches;
+
+	// Rep invariant:
+	//		batches != null
+	// Abstraction function:
+	//		Represents the records queued in batches, which have been
+	//		extracted but have not been written to the database yet.
+	// Thread safety argument:
+	//		Processors and the writer thread only share batches, which is
+	//		threadsafe. CrawlStore and CrawlMetrics are threadsafe.
+
+	/**
+	 * Creates a writer. The writer thread does not run until start() is called.
+	 *
+	 * @param store the store of the database
+	 * @param database the name of the database to write to
+	 * @param metrics the metrics to record the written batches in
+	 * @param config the crawler configuration
+	 */
+	public ExtractWriter(final CrawlStore store, final String database, final CrawlMetrics metrics,
+	        CrawlerConfig config) {
+		this.batches = new BatchWriter<Entry>("extract-writer", new BatchWriter.Sink<Entry>() {
+			public void write(List<Entry> batch) throws IOException {
+				long start = System.nanoTime();
+				store.writeExtracts(database, batch);
+				metrics.extractsWritten(batch.size(), System.nanoTime() - start);
+			}
+		}, config);
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	public void start() {
+		batches.start();
+	}
+
+	/**
+	 * Queues a record to be inserted into the 'extracts' table. Blocks
+	 * while the queue is full.
+	 *
+	 * @param site the site that the record was extracted from
+	 * @param type the type of the processor that extracted it
+	 * @param data the fields of the record as a JSON object
+	 * @throws InterruptedException the calling thread was interrupted
+	 */
+	public void write(String site, String type, String data) throws InterruptedException {
+		batches.put(new Entry(site, type, data));
+	}
+
+	/**
+	 * Writes every queued record to the database, then stops the writer
+	 * thread. Must not be called while processors are still writing.
+	 */
+	public void close() {
+		batches.close();
+	}
+
+	/**
+	 * A record that a page processor extracted from a site.
+	 */
+	static class Entry {
+		private final String site;
+		private final String type;
+		private final String data;
+
+		private Entry(String site, String type, String data) {
+			this.site = site;
+			this.type = type;
+			this.data = data;
+		}
+
+		/**
+		 * @return the URL of the site
+		 */
+		public String getSite() {
+			return site;
+		}
+
+		/**
+		 * @return the type of the processor that extracted the record
+		 */
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * @return the fields of the record as a JSON object
+		 */
+		public String getData() {
+			return data;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package webcrawler;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A Fetcher downloads sites with a non-blocking HTTP client, so that
+ * thousands of requests can be in flight without a thread per request.
+ * Connections are kept alive and reused per host, and HTTP/2 is used
+ * when the host supports it. Only HTML bodies are downloaded, and only
+ * up to a maximum size.
+ */
+public class Fetcher implements AutoCloseable {
+	private final HttpClient client;
+	private final ExecutorService executor;
+	private final Duration readTimeout;
+	private final int maxBodySize;
+	private final String userAgent;
+
+	// Rep invariant:
+	//		client != null, executor != null, readTimeout != null
+	//		maxBodySize > 0, userAgent != null
+	// Abstraction function:
+	//		Represents a downloader of web pages that uses client.
+	// Thread safety argument:
+	//		All fields are final and HttpClient is threadsafe.
+
+	/**
+	 * Creates a fetcher.
+	 *
+	 * @param config the crawler configuration
+	 */
+	public Fetcher(CrawlerConfig config) {
+		this.executor = Executors.newFixedThreadPool(config.fetchThreads(), runnable -> {
+			Thread thread = new Thread(runnable, "fetcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.client = HttpClient.newBuilder()
+		        .version(HttpClient.Version.HTTP_2)
+		        .followRedirects(HttpClient.Redirect.NORMAL)
+		        .connectTimeout(Duration.ofMillis(config.fetchConnectTimeout()))
+		        .executor(executor)
+		        .build();
+		this.readTimeout = Duration.ofMillis(config.fetchReadTimeout());
+		this.maxBodySize = config.fetchMaxBodySize();
+		this.userAgent = config.fetchUserAgent();
+	}
+
+	/**
+	 * Starts downloading a site. The returned future completes exceptionally
+	 * if the URL is invalid, or if the request fails or times out, which it
+	 * does if the whole response, body included, takes longer than the read
+	 * timeout. Cancelling the future aborts the request.
+	 *
+	 * @param site the URL to download
+	 * @param previous the version of the site that was downloaded before,
+	 *            whose validators make the request conditional, or null
+	 * @return the page once it has been downloaded, which has status 304
+	 * and no body if it has not been modified since the previous version
+	 */
+	public CompletableFuture<Page> fetch(String site, PageVersion previous) {
+		return send(site, "text/html,application/xhtml+xml", previous, info -> bodySubscriber(info));
+	}
+
+	/**
+	 * Starts downloading a text file, such as robots.txt, whatever its
+	 * status and content type. The returned future completes exceptionally
+	 * if the URL is invalid, or if the request fails or times out.
+	 *
+	 * @param url the URL to download
+	 * @param maxSize the maximum number of bytes to download
+	 * @return the file once it has been downloaded
+	 */
+	public CompletableFuture<Page> fetchText(String url, int maxSize) {
+		return send(url, "text/plain", null, info -> new LimitedBodySubscriber(maxSize));
+	}
+
+	/**
+	 * Stops the threads that deliver responses.
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @param contentType the value of a Content-Type header
+	 * @return true if the content type is an HTML document
+	 */
+	public static boolean isHtml(String contentType) {
+		String type = contentType.toLowerCase();
+		return type.isEmpty() || type.startsWith("text/html") || type.startsWith("application/xhtml+xml");
+	}
+
+	/**
+	 * Starts a GET request, which is conditional if a previous version is given.
+	 */
+	private CompletableFuture<Page> send(String url, String accept, PageVersion previous,
+	        HttpResponse.BodyHandler<LimitedBody> handler) {
+		HttpRequest request;
+		try {
+			HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+			        .timeout(readTimeout)
+			        .header("User-Agent", userAgent)
+			        .header("Accept", accept);
+			if (previous != null && previous.getEtag() != null) builder.header("If-None-Match", previous.getEtag());
+			if (previous != null && previous.getLastModified() != null) {
+				builder.header("If-Modified-Since", previous.getLastModified());
+			}
+			request = builder.GET().build();
+		} catch (IllegalArgumentException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+
+		CompletableFuture<HttpResponse<LimitedBody>> exchange = client.sendAsync(request, handler);
+		CompletableFuture<Page> page = exchange.thenApply(response -> {
+			String contentType = response.headers().firstValue("Content-Type").orElse("");
+			LimitedBody body = response.body();
+			return new Page(response.uri().toString(), response.statusCode(), contentType, body.bytes, body.truncated,
+			        response.headers().firstValue("ETag").orElse(null),
+			        response.headers().firstValue("Last-Modified").orElse(null));
+		});
+		// The timeout of the request only covers the headers, so a slow body is cut off here
+		page.orTimeout(readTimeout.toMillis(), TimeUnit.MILLISECONDS);
+		// Neither cancelling nor timing out a dependent future reaches the
+		// exchange, which the client only aborts when its own future is cancelled
+		page.whenComplete((result, error) -> {
+			if (page.isCancelled() || error instanceof TimeoutException) exchange.cancel(true);
+		});
+		return page;
+	}
+
+	/**
+	 * Reads the bodies of successful HTML responses up to the maximum
+	 * body size, and discards all other bodies.
+	 */
+	private HttpResponse.BodySubscriber<LimitedBody> bodySubscriber(HttpResponse.ResponseInfo info) {
+		String contentType = info.headers().firstValue("Content-Type").orElse("");
+		if (info.statusCode() / 100 != 2 || !isHtml(contentType)) {
+			return HttpResponse.BodySubscribers.replacing(new LimitedBody(new byte[0], false));
+		}
+		return new LimitedBodySubscriber(maxBodySize);
+	}
+
+	/**
+	 * The downloaded part of a response body.
+	 */
+	private static class LimitedBody {
+		private final byte[] bytes;
+		private final boolean truncated;
+
+		private LimitedBody(byte[] bytes, boolean truncated) {
+			this.bytes = bytes;
+			this.truncated = truncated;
+		}
+	}
+
+	/**
+	 * Collects a response body, and cancels the download once the
+	 * maximum body size has been reached.
+	 */
+	private static class LimitedBodySubscriber implements HttpResponse.BodySubscriber<LimitedBody> {
+		private final int maxBodySize;
+		private final ByteArrayOutputStream buffer;
+		private final CompletableFuture<LimitedBody> body;
+		private Flow.Subscription subscription;
+
+		private LimitedBodySubscriber(int maxBodySize) {
+			this.maxBodySize = maxBodySize;
+			this.buffer = new ByteArrayOutputStream();
+			this.body = new CompletableFuture<LimitedBody>();
+		}
+
+		public CompletionStage<LimitedBody> getBody() {
+			return body;
+		}
+
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(1);
+		}
+
+		public void onNext(List<ByteBuffer> items) {
+			for (ByteBuffer item : items) {
+				int length = Math.min(item.remaining(), maxBodySize - buffer.size());
+				byte[] bytes = new byte[length];
+				item.get(bytes);
+				buffer.write(bytes, 0, length);
+				if (buffer.size() >= maxBodySize) {
+					subscription.cancel();
+					body.complete(new LimitedBody(buffer.toByteArray(), true));
+					return;
+				}
+			}
+			subscription.request(1);
+		}
+
+		public void onError(Throwable throwable) {
+			body.completeExceptionally(throwable);
+		}
+
+		public void onComplete() {
+			body.complete(new LimitedBody(buffer.toByteArray(), false));
+		}
+	}
+}
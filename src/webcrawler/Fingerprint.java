@@ -0,0 +1,60 @@
+package webcrawler;
+
+/**
+ * The Fingerprint class computes 64-bit hashes of URLs and page bodies.
+ * Two different URLs have the same fingerprint with negligible
+ * probability, so the fingerprint can stand in for the URL when checking
+ * for duplicates, and the same holds for the bodies of two versions of a
+ * page.
+ */
+final class Fingerprint {
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private Fingerprint() {
+	}
+
+	/**
+	 * @param site a URL
+	 * @return the 64-bit fingerprint of the URL
+	 */
+	public static long of(String site) {
+		// FNV-1a over the UTF-16 characters, followed by a finalizer
+		// so that every input bit affects every output bit
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = 0; i < site.length(); i++) {
+			char c = site.charAt(i);
+			hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+			hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * @param bytes the body of a page
+	 * @return the 64-bit fingerprint of the bytes
+	 */
+	public static long of(byte[] bytes) {
+		long hash = FNV_OFFSET_BASIS;
+		for (byte b : bytes) {
+			hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Scrambles the bits of a 64-bit value. This is the finalizer of
+	 * MurmurHash3, which is a bijection on 64-bit values.
+	 *
+	 * @param hash the value to scramble
+	 * @return the scrambled value
+	 */
+	public static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
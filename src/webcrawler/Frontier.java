@@ -0,0 +1,552 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * The Frontier is the bounded set of URLs that are waiting to be
+ * crawled. Link extraction feeds new URLs into the frontier, and a
+ * fixed pool of worker threads drains it.
+ *
+ * URLs are queued per host so that the frontier can be polite: no host
+ * has more than a maximum number of requests in progress, and requests
+ * to the same host are separated by a minimum crawl delay. Within these
+ * rules, a crawl policy decides the order of the URLs of each host and
+ * which of the ready hosts goes next.
+ *
+ * Only a fixed number of URLs are kept in the host queues. When they are
+ * full, new URLs are spilled to a queue on the disk, and as long as there
+ * are spilled URLs every new URL goes behind them, so URLs are crawled in
+ * the order in which they were found. The host queues are refilled from
+ * the disk in large batches once they are half empty.
+ */
+class Frontier {
+	// Score of seeds, and of sites whose score was lost by a pause
+	public static final double INITIAL_SCORE = 1;
+	// Orders the URLs of a host, and ties are broken by age
+	private static final Comparator<Entry> ENTRY_ORDER = Comparator.<Entry> comparingDouble(e -> e.priority)
+	        .thenComparingLong(e -> e.sequence);
+	// Orders the ready hosts, and ties are broken by the time they became ready
+	private static final Comparator<HostQueue> HOST_ORDER = Comparator.<HostQueue> comparingDouble(h -> h.priority)
+	        .thenComparingLong(h -> h.sequence);
+	private final int capacity;
+	private final int maxInFlightPerHost;
+	private final long defaultCrawlDelay;
+	private final CrawlPolicy policy;
+	// URLs that did not fit in the host queues, or null if URLs that do
+	// not fit are rejected
+	private final SpillQueue spill;
+	// Queues of URLs waiting to be crawled, by host
+	private final Map<String, HostQueue> hosts;
+	// Hosts that can be crawled right now, best first
+	private final TreeSet<HostQueue> ready;
+	// Hosts that have URLs waiting but must wait for their crawl delay
+	private final Queue<HostQueue> delayed;
+	// URLs waiting in the host queues by fingerprint, or null if the
+	// policy does not use scores
+	private final Map<Long, Entry> index;
+	// Source of the sequence numbers of entries and ready hosts
+	private long sequence;
+	// Total number of URLs waiting in all host queues
+	private int pending;
+	// Number of URLs that have been handed to a worker but not completed
+	private int inProgress;
+	// True if take() waits for new URLs when nothing is pending or in progress
+	private boolean held;
+	private boolean closed;
+
+	// Rep invariant:
+	//		capacity > 0, maxInFlightPerHost > 0, defaultCrawlDelay >= 0
+	//		pending == sum of the sizes of the host queues <= capacity
+	//		if spill != null and spill.size() > 0, then it holds URLs that were
+	//		offered after every URL in the host queues
+	//		inProgress == sum of the in-flight counts of the host queues
+	//		a host queue is in at most one of ready and delayed, and it is
+	//		in one of them iff it is scheduled
+	//		every host queue in ready has URLs and room for another request,
+	//		and unless the policy rotates hosts, its priority is the priority
+	//		of its first URL
+	//		index == null iff !policy.usesScores(), and otherwise maps the
+	//		fingerprint of every URL in the host queues to its entry
+	// Abstraction function:
+	//		Represents the set of URLs that still need to be crawled, where
+	//		hosts contains them grouped by host in the order that they will
+	//		be handed out to workers, followed by the URLs in spill.
+	// Thread safety argument:
+	//		All fields are only accessed while holding this object's lock.
+	//		The mutable fields of an entry are only changed while it is in
+	//		the frontier.
+
+	/**
+	 * Creates an empty frontier that crawls breadth-first and rejects URLs
+	 * once it is full.
+	 *
+	 * @param capacity the maximum number of URLs waiting to be crawled
+	 * @param maxInFlightPerHost the maximum number of URLs of one host that
+	 *            can be in progress at the same time
+	 * @param crawlDelay the minimum number of milliseconds between handing
+	 *            out two URLs of the same host
+	 */
+	public Frontier(int capacity, int maxInFlightPerHost, long crawlDelay) {
+		this(capacity, maxInFlightPerHost, crawlDelay, new CrawlPolicy.BreadthFirst(), null);
+	}
+
+	/**
+	 * Creates an empty frontier.
+	 *
+	 * @param capacity the maximum number of URLs waiting to be crawled
+	 *            in memory
+	 * @param maxInFlightPerHost the maximum number of URLs of one host that
+	 *            can be in progress at the same time
+	 * @param crawlDelay the minimum number of milliseconds between handing
+	 *            out two URLs of the same host
+	 * @param policy the order in which URLs are crawled
+	 * @param spillDirectory the directory in which to keep the URLs that do
+	 *            not fit in memory, or null to reject them
+	 */
+	public Frontier(int capacity, int maxInFlightPerHost, long crawlDelay, CrawlPolicy policy, Path spillDirectory) {
+		this.capacity = capacity;
+		this.maxInFlightPerHost = maxInFlightPerHost;
+		this.defaultCrawlDelay = crawlDelay;
+		this.policy = policy;
+		this.spill = spillDirectory == null ? null : new SpillQueue(spillDirectory);
+		this.hosts = new HashMap<String, HostQueue>();
+		this.ready = new TreeSet<HostQueue>(HOST_ORDER);
+		this.delayed = new PriorityQueue<HostQueue>(Comparator.comparingLong(h -> h.nextFetchTime));
+		this.index = policy.usesScores() ? new HashMap<Long, Entry>() : null;
+		this.sequence = 0;
+		this.pending = 0;
+		this.inProgress = 0;
+		this.held = false;
+		this.closed = false;
+	}
+
+	/**
+	 * Creates an empty frontier using the settings of a configuration.
+	 *
+	 * @param config the crawler configuration
+	 */
+	public Frontier(CrawlerConfig config) {
+		this(config.frontierCapacity(), config.hostMaxInFlight(), config.hostCrawlDelay(), config.crawlPolicy(),
+		        Paths.get(config.frontierSpillDirectory()));
+	}
+
+	/**
+	 * Adds a URL to its host's queue if there is room for it, and
+	 * otherwise to the end of the spilled URLs.
+	 *
+	 * @param site the URL to crawl
+	 * @param depth the number of links between a seed and the URL
+	 * @param score the score of the URL, used by the link-score policy
+	 * @return true if the URL was added, false if the frontier is full
+	 * and does not spill, or if the URL could not be spilled
+	 */
+	public synchronized boolean offer(String site, int depth, double score) {
+		Entry entry = new Entry(site, depth, score);
+		if (spill != null && (pending >= capacity || spill.size() > 0)) {
+			try {
+				spill.add(entry);
+				return true;
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		if (pending >= capacity) return false;
+
+		add(entry);
+		return true;
+	}
+
+	/**
+	 * Adds to the score of a URL that is waiting in memory, because
+	 * another page links to it. Does nothing if the policy does not use
+	 * scores, or if the URL is not waiting in memory.
+	 *
+	 * @param site the URL
+	 * @param score the score to add
+	 */
+	public synchronized void addScore(String site, double score) {
+		if (index == null) return;
+		Entry entry = index.get(Fingerprint.of(site));
+		if (entry == null) return;
+
+		HostQueue hostQueue = hosts.get(entry.host);
+		hostQueue.sites.remove(entry);
+		entry.score += score;
+		entry.priority = policy.priority(entry);
+		hostQueue.sites.add(entry);
+		reprioritize(hostQueue);
+	}
+
+	/**
+	 * Blocks until a URL is available to crawl without breaking the
+	 * politeness rules of its host. Every entry returned by this method
+	 * must later be passed to complete().
+	 *
+	 * @return the next URL to crawl, or null if the frontier has been
+	 * closed or if it is empty, no URLs are in progress and it is not held
+	 * @throws InterruptedException the calling thread was interrupted
+	 */
+	public synchronized Entry take() throws InterruptedException {
+		while (true) {
+			if (!closed && pending <= capacity / 2) refill();
+			if (closed || (!held && pending == 0 && inProgress == 0)) return null;
+
+			long now = System.currentTimeMillis();
+			while (!delayed.isEmpty() && delayed.peek().nextFetchTime <= now) {
+				HostQueue hostQueue = delayed.poll();
+				hostQueue.scheduled = false;
+				schedule(hostQueue, now);
+			}
+
+			HostQueue hostQueue = ready.pollFirst();
+			if (hostQueue != null) {
+				hostQueue.ready = false;
+				Entry entry = hostQueue.sites.pollFirst();
+				if (index != null) index.remove(entry.fingerprint);
+				pending--;
+				inProgress++;
+				hostQueue.inFlight++;
+				hostQueue.nextFetchTime = now + hostQueue.crawlDelay;
+				hostQueue.scheduled = false;
+				schedule(hostQueue, now);
+				return entry;
+			}
+
+			// Sleep until the next delayed host is ready, or until
+			// another worker adds or completes a URL
+			if (delayed.isEmpty()) wait();
+			else wait(Math.max(1, delayed.peek().nextFetchTime - now));
+		}
+	}
+
+	/**
+	 * Marks a URL previously returned by take() as crawled.
+	 *
+	 * @param entry the URL that has been crawled
+	 */
+	public synchronized void complete(Entry entry) {
+		inProgress--;
+		HostQueue hostQueue = hosts.get(entry.host);
+		if (hostQueue != null) {
+			hostQueue.inFlight--;
+			schedule(hostQueue, System.currentTimeMillis());
+		}
+		// Waiting workers may need to exit if this was the last URL in progress
+		notifyAll();
+	}
+
+	/**
+	 * Sets the minimum delay between requests to a given host,
+	 * for example the crawl delay requested by the host itself.
+	 *
+	 * @param host the host name
+	 * @param crawlDelay the minimum number of milliseconds between requests
+	 *            until the host has no more URLs waiting or in progress,
+	 *            which is ignored if it has none already
+	 */
+	public synchronized void setCrawlDelay(String host, long crawlDelay) {
+		// A queue made here would never be scheduled, so it would never be forgotten
+		HostQueue hostQueue = hosts.get(host);
+		if (hostQueue != null) hostQueue.crawlDelay = Math.max(defaultCrawlDelay, crawlDelay);
+	}
+
+	/**
+	 * Keeps take() waiting for new URLs once the frontier is empty and no
+	 * URLs are in progress, until the frontier is closed. This is needed
+	 * when URLs can arrive from outside the crawl, such as from the other
+	 * nodes of a cluster.
+	 */
+	public synchronized void hold() {
+		held = true;
+	}
+
+	/**
+	 * Stops handing out URLs to workers. URLs can still be added
+	 * so that the links found by in-progress workers are kept.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Removes all URLs that are waiting to be crawled, and passes them
+	 * to a consumer.
+	 *
+	 * @param consumer receives the pending URLs, grouped by host for the
+	 *            URLs in memory and followed by the spilled URLs
+	 */
+	public synchronized void drain(Consumer<String> consumer) {
+		for (HostQueue hostQueue : hosts.values()) {
+			for (Entry entry : hostQueue.sites) {
+				consumer.accept(entry.site);
+			}
+		}
+		if (spill != null) {
+			try {
+				Entry entry;
+				while ((entry = spill.poll()) != null) {
+					consumer.accept(entry.site);
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		clear();
+	}
+
+	/**
+	 * Removes all URLs that are waiting to be crawled, and deletes the
+	 * spilled URLs from the disk.
+	 */
+	public synchronized void clear() {
+		for (HostQueue hostQueue : hosts.values()) {
+			hostQueue.sites.clear();
+		}
+		hosts.clear();
+		ready.clear();
+		delayed.clear();
+		if (index != null) index.clear();
+		pending = 0;
+		if (spill != null) {
+			try {
+				spill.clear();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of URLs waiting to be crawled, including the
+	 * spilled URLs
+	 */
+	public synchronized long size() {
+		return pending + (spill == null ? 0 : spill.size());
+	}
+
+	/**
+	 * @return the number of URLs waiting to be crawled that are spilled
+	 * to the disk
+	 */
+	public synchronized long spilledSize() {
+		return spill == null ? 0 : spill.size();
+	}
+
+	/**
+	 * @return the number of hosts that have URLs waiting or in progress
+	 */
+	public synchronized int hostCount() {
+		return hosts.size();
+	}
+
+	/**
+	 * @param limit the maximum number of hosts to return
+	 * @return the number of URLs in progress of the hosts with the most
+	 * URLs in progress, from most to least
+	 */
+	public synchronized Map<String, Integer> inFlightByHost(int limit) {
+		List<HostQueue> busy = new ArrayList<HostQueue>();
+		for (HostQueue hostQueue : hosts.values()) {
+			if (hostQueue.inFlight > 0) busy.add(hostQueue);
+		}
+		busy.sort(Comparator.comparingInt((HostQueue h) -> h.inFlight).reversed());
+		Map<String, Integer> inFlight = new LinkedHashMap<String, Integer>();
+		for (HostQueue hostQueue : busy.subList(0, Math.min(limit, busy.size()))) {
+			inFlight.put(hostQueue.host, hostQueue.inFlight);
+		}
+		return inFlight;
+	}
+
+	/**
+	 * Adds a URL to its host's queue.
+	 */
+	private void add(Entry entry) {
+		HostQueue hostQueue = hosts.get(entry.host);
+		if (hostQueue == null) {
+			hostQueue = new HostQueue(entry.host, defaultCrawlDelay);
+			hosts.put(entry.host, hostQueue);
+		}
+		entry.priority = policy.priority(entry);
+		entry.sequence = sequence++;
+		hostQueue.sites.add(entry);
+		if (index != null) index.put(entry.fingerprint, entry);
+		pending++;
+		reprioritize(hostQueue);
+		schedule(hostQueue, System.currentTimeMillis());
+	}
+
+	/**
+	 * Moves spilled URLs back into the host queues until they are three
+	 * quarters full. If the spilled URLs cannot be read, they are lost.
+	 */
+	private void refill() {
+		if (spill == null || spill.size() == 0) return;
+		int target = Math.max(1, capacity - capacity / 4);
+		try {
+			while (pending < target) {
+				Entry entry = spill.poll();
+				if (entry == null) break;
+				add(entry);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			try {
+				spill.clear();
+			} catch (IOException clearError) {
+				clearError.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Moves a ready host to its new place in the order of the ready
+	 * hosts after its first URL has changed.
+	 */
+	private void reprioritize(HostQueue hostQueue) {
+		if (!hostQueue.ready || policy.rotatesHosts()) return;
+		double priority = hostQueue.sites.first().priority;
+		if (priority == hostQueue.priority) return;
+		ready.remove(hostQueue);
+		hostQueue.priority = priority;
+		ready.add(hostQueue);
+	}
+
+	/**
+	 * Puts a host queue in ready or delayed if it has URLs waiting and room
+	 * for another request. Idle hosts are kept in delayed until their crawl
+	 * delay has passed, and are then forgotten.
+	 */
+	private void schedule(HostQueue hostQueue, long now) {
+		if (hostQueue.scheduled) return;
+		if (hostQueue.sites.isEmpty()) {
+			if (hostQueue.inFlight > 0) return;
+			if (hostQueue.nextFetchTime <= now) {
+				hosts.remove(hostQueue.host);
+			} else {
+				hostQueue.scheduled = true;
+				delayed.add(hostQueue);
+			}
+			return;
+		}
+		if (hostQueue.inFlight >= maxInFlightPerHost) return;
+
+		hostQueue.scheduled = true;
+		if (hostQueue.nextFetchTime <= now) {
+			// Hosts that rotate all have the same priority, so they take
+			// turns in the order in which they became ready
+			hostQueue.priority = policy.rotatesHosts() ? 0 : hostQueue.sites.first().priority;
+			hostQueue.sequence = sequence++;
+			hostQueue.ready = true;
+			ready.add(hostQueue);
+		} else {
+			delayed.add(hostQueue);
+		}
+		notify();
+	}
+
+	/**
+	 * @param site a URL
+	 * @return the lower case host name of the URL, or the empty
+	 * string if the URL is malformed
+	 */
+	public static String hostOf(String site) {
+		try {
+			return new URL(site).getHost().toLowerCase();
+		} catch (MalformedURLException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * A URL in the frontier, together with what the crawl policy needs
+	 * to know about it.
+	 */
+	public static class Entry {
+		private final String site;
+		private final String host;
+		private final long fingerprint;
+		private final int depth;
+		private double score;
+		// Place of the entry in its host's queue
+		private double priority;
+		private long sequence;
+
+		/**
+		 * @param site the URL
+		 * @param depth the number of links between a seed and the URL
+		 * @param score the score of the URL
+		 */
+		Entry(String site, int depth, double score) {
+			this.site = site;
+			this.host = hostOf(site);
+			this.fingerprint = Fingerprint.of(site);
+			this.depth = depth;
+			this.score = score;
+		}
+
+		/**
+		 * @return the URL
+		 */
+		public String getSite() {
+			return site;
+		}
+
+		/**
+		 * @return the number of links between a seed and the URL
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		/**
+		 * @return the score of the URL, which is final once the URL has
+		 * been taken from the frontier
+		 */
+		public double getScore() {
+			return score;
+		}
+	}
+
+	/**
+	 * The URLs waiting to be crawled for a single host,
+	 * together with its politeness state.
+	 */
+	private static class HostQueue {
+		private final String host;
+		private final TreeSet<Entry> sites;
+		private long crawlDelay;
+		private int inFlight;
+		private long nextFetchTime;
+		private boolean scheduled;
+		// Place of the host among the ready hosts, if it is in ready
+		private boolean ready;
+		private double priority;
+		private long sequence;
+
+		private HostQueue(String host, long crawlDelay) {
+			this.host = host;
+			this.sites = new TreeSet<Entry>(ENTRY_ORDER);
+			this.crawlDelay = crawlDelay;
+			this.inFlight = 0;
+			this.nextFetchTime = 0;
+			this.scheduled = false;
+			this.ready = false;
+		}
+	}
+}
@@ -0,0 +1,466 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A FrontierLog is an append-only file that records every site added to
+ * the frontier of a database and every site that has been crawled, so
+ * that a paused or crashed crawl can be resumed without losing the sites
+ * that were waiting and without crawling finished sites again.
+ *
+ * The file is written through a memory-mapped window, so appending a
+ * record is a memory copy, and the records survive a crash of the server
+ * as soon as they are written. The window is flushed to the disk at a
+ * fixed interval, and when the log is synced or closed. Once most of the
+ * records are about sites that have been crawled, the log is compacted
+ * into a new file that only holds the sites that are still pending. The
+ * new file is written by a background thread while records are still
+ * appended to the old one, and the records appended in the meantime are
+ * copied over when the new file is swapped in.
+ *
+ * The file is divided into chunks of CHUNK_SIZE bytes. A chunk holds
+ * records of the form [length][type][depth][UTF-8 site], where length
+ * is a 4-byte integer that counts the rest of the record, and depth is a
+ * 4-byte integer that only ENQUEUE_AT_DEPTH records have. The length is
+ * written last, so a record that was not finished reads as a length of
+ * 0, which marks the end of the records in a chunk.
+ */
+class FrontierLog implements AutoCloseable {
+	private static final int CHUNK_SIZE = 16 * 1024 * 1024;
+	// Enqueue records without a depth, which count as depth 0
+	private static final byte ENQUEUE = 1;
+	private static final byte COMPLETE = 2;
+	private static final byte ENQUEUE_AT_DEPTH = 3;
+	// Compaction only happens once there are this many obsolete records
+	private static final long MIN_GARBAGE = 100000;
+	// Passes over the records appended during a compaction that are copied
+	// before the lock is taken to copy the rest
+	private static final int CATCH_UP_PASSES = 2;
+	private final Path path;
+	private final long syncInterval;
+	private FileChannel channel;
+	// The chunk that records are appended to
+	private MappedByteBuffer window;
+	private long windowStart;
+	// Fingerprints of the sites that have been enqueued but not completed
+	private LongHashSet live;
+	// Number of records in the file
+	private long records;
+	private long lastSync;
+	// Number of crawl sessions that append to this log
+	private int sessions;
+	private boolean closed;
+	// True while a background thread compacts the log
+	private boolean compacting;
+	// Changes whenever the file is replaced, so that a compaction of the
+	// file that was replaced is dropped
+	private long generation;
+
+	// Rep invariant:
+	//		path != null, syncInterval >= 0, live != null, records >= live.size()
+	//		if !closed: channel is open, window maps the chunk of the file
+	//		that starts at windowStart, and window.position() is the end of
+	//		the last record in that chunk
+	//		sessions >= 0
+	// Abstraction function:
+	//		Represents the list of sites in the file at path that have an
+	//		ENQUEUE record and no later COMPLETE record, in the order in
+	//		which they were enqueued.
+	// Thread safety argument:
+	//		All fields are only accessed while holding this object's lock.
+	//		The compaction thread reads the file through a channel of its
+	//		own, and only touches the fields while holding the lock.
+
+	/**
+	 * Opens a log, creating it if it does not exist.
+	 *
+	 * @param path the file of the log
+	 * @param config the crawler configuration
+	 * @throws IOException unable to open or read the file
+	 */
+	public FrontierLog(Path path, CrawlerConfig config) throws IOException {
+		this(path, config.frontierLogSyncInterval());
+	}
+
+	private FrontierLog(Path path, long syncInterval) throws IOException {
+		this.path = path;
+		this.syncInterval = syncInterval;
+		this.sessions = 0;
+		this.compacting = false;
+		this.generation = 0;
+		open();
+	}
+
+	/**
+	 * Registers a crawl session that appends to this log. Only one session
+	 * at a time can resume from the log, because it takes every pending
+	 * site, including those of other sessions that are still running.
+	 *
+	 * @param exclusive true if the session resumes from this log
+	 * @return false if the session is exclusive and another session is
+	 * registered, in which case the session is not registered
+	 */
+	public synchronized boolean attach(boolean exclusive) {
+		if (exclusive && sessions > 0) return false;
+		sessions++;
+		return true;
+	}
+
+	/**
+	 * Unregisters a crawl session that has finished.
+	 */
+	public synchronized void detach() {
+		sessions--;
+	}
+
+	/**
+	 * Records that a site has been added to the frontier.
+	 *
+	 * @param site the site
+	 * @param depth the number of links between a seed and the site
+	 */
+	public synchronized void enqueue(String site, int depth) {
+		if (append(ENQUEUE_AT_DEPTH, depth, site)) live.add(Fingerprint.of(site));
+	}
+
+	/**
+	 * Records that a site has been crawled, or that it has been removed
+	 * from the frontier without being crawled.
+	 *
+	 * @param site the site
+	 */
+	public synchronized void complete(String site) {
+		if (live.remove(Fingerprint.of(site)) && append(COMPLETE, 0, site)) maybeCompact();
+	}
+
+	/**
+	 * Reads the sites that are still pending, for example to resume a
+	 * crawl after it was paused or after the server crashed. The sites are
+	 * streamed from the file, so only their fingerprints are kept in memory.
+	 *
+	 * @param consumer receives the pending sites and their depths, in the
+	 *            order in which they were first enqueued
+	 * @throws IOException unable to read the file
+	 */
+	public synchronized void replay(ObjIntConsumer<String> consumer) throws IOException {
+		LongHashSet replayed = new LongHashSet(live.size());
+		scan((type, site, fingerprint, depth) -> {
+			if (type != COMPLETE && live.contains(fingerprint) && replayed.add(fingerprint)) consumer.accept(site, depth);
+		});
+	}
+
+	/**
+	 * @return the number of pending sites
+	 */
+	public synchronized int size() {
+		return live.size();
+	}
+
+	/**
+	 * Flushes all records to the disk.
+	 */
+	public synchronized void sync() {
+		if (closed) return;
+		window.force();
+		lastSync = System.currentTimeMillis();
+	}
+
+	/**
+	 * Removes all records, for example because the tables of the database
+	 * have been recreated.
+	 *
+	 * @throws IOException unable to recreate the file
+	 */
+	public synchronized void clear() throws IOException {
+		generation++;
+		closeChannel();
+		Files.deleteIfExists(path);
+		open();
+	}
+
+	/**
+	 * Flushes all records to the disk and closes the file.
+	 */
+	public synchronized void close() {
+		if (closed) return;
+		generation++;
+		sync();
+		try {
+			closeChannel();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Opens the file and finds the end of its records.
+	 */
+	private void open() throws IOException {
+		if (path.getParent() != null) Files.createDirectories(path.getParent());
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		LongHashSet fingerprints = new LongHashSet(16);
+		long[] count = new long[1];
+		long end = scan((type, site, fingerprint, depth) -> {
+			if (type == COMPLETE) fingerprints.remove(fingerprint);
+			else fingerprints.add(fingerprint);
+			count[0]++;
+		});
+		live = fingerprints;
+		records = count[0];
+		map(end);
+	}
+
+	/**
+	 * Maps the chunk that holds the end of the records, and appends from there.
+	 */
+	private void map(long end) throws IOException {
+		windowStart = end - end % CHUNK_SIZE;
+		window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, CHUNK_SIZE);
+		window.position((int) (end - windowStart));
+		lastSync = System.currentTimeMillis();
+		closed = false;
+	}
+
+	/**
+	 * Reads every record of the file in order.
+	 *
+	 * @param visitor receives every record
+	 * @return the position after the last record
+	 */
+	private long scan(RecordVisitor visitor) throws IOException {
+		return scan(channel, 0, channel.size(), visitor);
+	}
+
+	/**
+	 * Reads the records of a file between two positions in order.
+	 *
+	 * @param channel the file
+	 * @param from the position of the first record
+	 * @param to the position after which no records are read
+	 * @param visitor receives every record
+	 * @return the position after the last record
+	 */
+	private static long scan(FileChannel channel, long from, long to, RecordVisitor visitor) throws IOException {
+		long size = Math.min(to, channel.size());
+		long end = from;
+		for (long chunk = from - from % CHUNK_SIZE; chunk < size; chunk += CHUNK_SIZE) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk, Math.min(CHUNK_SIZE, size - chunk));
+			if (chunk < from) buffer.position((int) (from - chunk));
+			while (buffer.remaining() >= 4) {
+				int length = buffer.getInt(buffer.position());
+				if (length <= 0 || length > buffer.remaining() - 4) break;
+				buffer.position(buffer.position() + 4);
+				byte type = buffer.get();
+				int depth = type == ENQUEUE_AT_DEPTH ? buffer.getInt() : 0;
+				byte[] bytes = new byte[length - (type == ENQUEUE_AT_DEPTH ? 5 : 1)];
+				buffer.get(bytes);
+				String site = new String(bytes, StandardCharsets.UTF_8);
+				visitor.visit(type, site, Fingerprint.of(site), depth);
+			}
+			end = chunk + buffer.position();
+		}
+		return end;
+	}
+
+	/**
+	 * Appends a record, moving to the next chunk if it does not fit in the
+	 * current one.
+	 *
+	 * @return true if the record was written
+	 */
+	private boolean append(byte type, int depth, String site) {
+		if (closed) return false;
+		byte[] bytes = site.getBytes(StandardCharsets.UTF_8);
+		int length = (type == ENQUEUE_AT_DEPTH ? 5 : 1) + bytes.length;
+		try {
+			if (window.remaining() < 4 + length) {
+				// The rest of the chunk stays zero, which marks its end
+				window.force();
+				windowStart += CHUNK_SIZE;
+				window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, CHUNK_SIZE);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		int start = window.position();
+		window.position(start + 4);
+		window.put(type);
+		if (type == ENQUEUE_AT_DEPTH) window.putInt(depth);
+		window.put(bytes);
+		window.putInt(start, length);
+		records++;
+
+		long now = System.currentTimeMillis();
+		if (now - lastSync >= syncInterval) {
+			window.force();
+			lastSync = now;
+		}
+		return true;
+	}
+
+	/**
+	 * Starts rewriting the log with only the pending sites on a background
+	 * thread if most of its records are obsolete.
+	 */
+	private void maybeCompact() {
+		long garbage = records - live.size();
+		if (compacting || garbage < MIN_GARBAGE || garbage < live.size()) return;
+
+		compacting = true;
+		long end = windowStart + window.position();
+		long compactedGeneration = generation;
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				compact(end, compactedGeneration);
+			}
+		}, "frontier-log-compaction");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * The body of the compaction thread. Writes the sites that were pending
+	 * at a position of the file into a new file, without holding the lock,
+	 * and then swaps the new file in.
+	 *
+	 * @param end the position up to which the file is compacted
+	 * @param compactedGeneration the generation of the file that is compacted
+	 */
+	private void compact(long end, long compactedGeneration) {
+		Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+		FrontierLog log = null;
+		try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ)) {
+			Files.deleteIfExists(compacted);
+			log = new FrontierLog(compacted, Long.MAX_VALUE);
+			LongHashSet pending = new LongHashSet(16);
+			scan(source, 0, end, (type, site, fingerprint, depth) -> {
+				if (type == COMPLETE) pending.remove(fingerprint);
+				else pending.add(fingerprint);
+			});
+			LongHashSet copied = new LongHashSet(pending.size());
+			FrontierLog target = log;
+			scan(source, 0, end, (type, site, fingerprint, depth) -> {
+				if (type != COMPLETE && pending.contains(fingerprint) && copied.add(fingerprint)) target.enqueue(site, depth);
+			});
+
+			// Copy most of the records appended in the meantime, so that few are left to copy while holding the lock
+			for (int pass = 0; pass < CATCH_UP_PASSES; pass++) {
+				long appended = end(compactedGeneration);
+				if (appended < 0) break;
+				end = copy(source, end, appended, log);
+			}
+			// Flushed here, so that swapping only flushes the records copied last
+			log.sync();
+		} catch (IOException e) {
+			e.printStackTrace();
+			discard(log, compacted);
+			return;
+		}
+		swap(log, compacted, end, compactedGeneration);
+	}
+
+	/**
+	 * @param compactedGeneration the generation of the file that is compacted
+	 * @return the position after the last record of the file, or -1 if it
+	 * has been replaced or closed
+	 */
+	private synchronized long end(long compactedGeneration) {
+		return closed || generation != compactedGeneration ? -1 : windowStart + window.position();
+	}
+
+	/**
+	 * Appends the records of a file between two positions to a log.
+	 *
+	 * @return the position after the last record that was copied
+	 */
+	private static long copy(FileChannel source, long from, long to, FrontierLog log) throws IOException {
+		return scan(source, from, to, (type, site, fingerprint, depth) -> {
+			if (type == COMPLETE) log.complete(site);
+			else log.enqueue(site, depth);
+		});
+	}
+
+	/**
+	 * Copies the records appended since a compaction started to the
+	 * compacted file, and replaces the log with it. The new file replaces
+	 * the old one atomically, so a crash during compaction leaves one of
+	 * them intact.
+	 *
+	 * @param log the compacted log
+	 * @param compacted the file of the compacted log
+	 * @param end the position up to which the file was compacted
+	 * @param compactedGeneration the generation of the file that was compacted
+	 */
+	private synchronized void swap(FrontierLog log, Path compacted, long end, long compactedGeneration) {
+		if (closed || generation != compactedGeneration) {
+			// The file was cleared or closed in the meantime
+			discard(log, compacted);
+			return;
+		}
+		try {
+			copy(channel, end, windowStart + window.position(), log);
+			long compactedEnd;
+			long compactedRecords;
+			synchronized (log) {
+				compactedEnd = log.windowStart + log.window.position();
+				compactedRecords = log.records;
+			}
+			log.close();
+			closeChannel();
+			Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			// The pending sites are the same, so the new file need not be scanned
+			generation++;
+			channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			records = compactedRecords;
+			map(compactedEnd);
+		} catch (IOException e) {
+			e.printStackTrace();
+			log.close();
+			if (closed) {
+				try {
+					open();
+				} catch (IOException reopenError) {
+					reopenError.printStackTrace();
+				}
+			}
+		} finally {
+			compacting = false;
+		}
+	}
+
+	/**
+	 * Drops an unfinished compaction.
+	 */
+	private synchronized void discard(FrontierLog log, Path compacted) {
+		if (log != null) log.close();
+		try {
+			Files.deleteIfExists(compacted);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		compacting = false;
+	}
+
+	private void closeChannel() throws IOException {
+		closed = true;
+		window = null;
+		channel.close();
+	}
+
+	/**
+	 * Receives the records of the file.
+	 */
+	private interface RecordVisitor {
+		void visit(byte type, String site, long fingerprint, int depth);
+	}
+}
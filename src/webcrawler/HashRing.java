@@ -0,0 +1,77 @@
+package webcrawler;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A HashRing assigns every host to one of the nodes of a cluster by
+ * consistent hashing. Each node is placed at many points of a ring of
+ * 64-bit hashes, and a host belongs to the node of the first point at or
+ * after the hash of the host. The points of a node only depend on its
+ * address, so every node computes the same assignment, and adding or
+ * removing a node only moves the hosts between that node and its
+ * neighbours on the ring.
+ */
+final class HashRing {
+	// Points of every node on the ring, which evens out the share of each node
+	private static final int POINTS_PER_NODE = 160;
+	// Hashes of the points, in increasing order
+	private final long[] points;
+	// Index of the node of each point
+	private final int[] nodes;
+	private final int nodeCount;
+
+	// Rep invariant:
+	//		points.length == nodes.length == nodeCount * POINTS_PER_NODE
+	//		points is sorted in increasing order
+	//		0 <= nodes[i] < nodeCount
+	// Abstraction function:
+	//		Represents the ring where the point points[i] belongs to node nodes[i].
+	// Thread safety argument:
+	//		HashRing is immutable.
+
+	/**
+	 * Creates a ring of nodes.
+	 *
+	 * @param addresses the addresses of the nodes, in the order of their indexes
+	 */
+	public HashRing(List<String> addresses) {
+		this.nodeCount = addresses.size();
+		long[] hashes = new long[nodeCount * POINTS_PER_NODE];
+		for (int node = 0; node < nodeCount; node++) {
+			for (int point = 0; point < POINTS_PER_NODE; point++) {
+				hashes[node * POINTS_PER_NODE + point] = Fingerprint.of(addresses.get(node) + "#" + point);
+			}
+		}
+
+		// Sort the points by hash, keeping track of their nodes
+		Integer[] order = new Integer[hashes.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+		this.points = new long[hashes.length];
+		this.nodes = new int[hashes.length];
+		for (int i = 0; i < order.length; i++) {
+			points[i] = hashes[order[i]];
+			nodes[i] = order[i] / POINTS_PER_NODE;
+		}
+	}
+
+	/**
+	 * @param host a lower case host name
+	 * @return the index of the node that the host belongs to
+	 */
+	public int owner(String host) {
+		int i = Arrays.binarySearch(points, Fingerprint.of(host));
+		if (i < 0) i = -i - 1;
+		return nodes[i == points.length ? 0 : i];
+	}
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int size() {
+		return nodeCount;
+	}
+}
@@ -0,0 +1,185 @@
+package webcrawler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * A JobPostingProcessor extracts the job postings that a page describes
+ * with the JobPosting type of schema.org, either as JSON-LD or as
+ * microdata. Every posting yields one record with its title, hiring
+ * organization, location, employment type, dates, URL and the text of its
+ * description, as far as the page gives them. This class is immutable.
+ */
+class JobPostingProcessor implements PageProcessor {
+	private static final int MAX_VALUE_LENGTH = 1000;
+	// Descriptions are longer than the other fields, but are still cut off
+	private static final int MAX_DESCRIPTION_LENGTH = 4000;
+
+	public String type() {
+		return "job-posting";
+	}
+
+	public void process(ParsedPage page, Consumer<Map<String, String>> records) {
+		Document doc = page.document();
+		if (doc == null) return;
+		for (Element script : doc.select("script[type=application/ld+json]")) {
+			try {
+				visit(Json.parse(script.data()), records, 0);
+			} catch (IllegalArgumentException e) {
+				// Pages with invalid JSON-LD are common, and their other scripts may still be valid
+			}
+		}
+		for (Element item : doc.select("[itemscope][itemtype*=schema.org/JobPosting]")) {
+			records.accept(microdata(item));
+		}
+	}
+
+	/**
+	 * Finds the job postings in a JSON-LD value: the value itself, the
+	 * elements of an array, and the nodes of a graph.
+	 */
+	private static void visit(Object value, Consumer<Map<String, String>> records, int depth) {
+		if (depth > 2) return;
+		if (value instanceof List) {
+			for (Object element : (List<?>) value) {
+				visit(element, records, depth + 1);
+			}
+		} else if (value instanceof Map) {
+			Map<?, ?> node = (Map<?, ?>) value;
+			if (isJobPosting(node.get("@type"))) records.accept(jsonLd(node));
+			else if (node.containsKey("@graph")) visit(node.get("@graph"), records, depth + 1);
+		}
+	}
+
+	/**
+	 * @return true if a JSON-LD type, or any of a list of types, is JobPosting
+	 */
+	private static boolean isJobPosting(Object type) {
+		if (type instanceof List) {
+			for (Object element : (List<?>) type) {
+				if (isJobPosting(element)) return true;
+			}
+			return false;
+		}
+		return type instanceof String && (type.equals("JobPosting") || ((String) type).endsWith("/JobPosting"));
+	}
+
+	/**
+	 * @return the record of a JSON-LD job posting
+	 */
+	private static Map<String, String> jsonLd(Map<?, ?> posting) {
+		Map<String, String> record = new LinkedHashMap<String, String>();
+		put(record, "title", text(posting.get("title")), MAX_VALUE_LENGTH);
+		put(record, "organization", text(posting.get("hiringOrganization")), MAX_VALUE_LENGTH);
+		String location = location(posting.get("jobLocation"));
+		if (location == null && "TELECOMMUTE".equals(posting.get("jobLocationType"))) location = "remote";
+		put(record, "location", location, MAX_VALUE_LENGTH);
+		put(record, "employmentType", text(posting.get("employmentType")), MAX_VALUE_LENGTH);
+		put(record, "datePosted", text(posting.get("datePosted")), MAX_VALUE_LENGTH);
+		put(record, "validThrough", text(posting.get("validThrough")), MAX_VALUE_LENGTH);
+		put(record, "url", text(posting.get("url")), MAX_VALUE_LENGTH);
+		String description = text(posting.get("description"));
+		// Descriptions are usually HTML
+		if (description != null) put(record, "description", Jsoup.parse(description).text(), MAX_DESCRIPTION_LENGTH);
+		return record;
+	}
+
+	/**
+	 * @return the record of a microdata job posting
+	 */
+	private static Map<String, String> microdata(Element posting) {
+		Map<String, String> record = new LinkedHashMap<String, String>();
+		put(record, "title", property(posting, "title"), MAX_VALUE_LENGTH);
+		Element organization = posting.selectFirst("[itemprop=hiringOrganization]");
+		if (organization != null) {
+			String name = property(organization, "name");
+			put(record, "organization", name != null ? name : organization.text(), MAX_VALUE_LENGTH);
+		}
+		Element location = posting.selectFirst("[itemprop=jobLocation]");
+		if (location != null) {
+			Element address = location.selectFirst("[itemprop=address]");
+			put(record, "location", (address != null ? address : location).text(), MAX_VALUE_LENGTH);
+		}
+		put(record, "employmentType", property(posting, "employmentType"), MAX_VALUE_LENGTH);
+		put(record, "datePosted", property(posting, "datePosted"), MAX_VALUE_LENGTH);
+		put(record, "validThrough", property(posting, "validThrough"), MAX_VALUE_LENGTH);
+		put(record, "description", property(posting, "description"), MAX_DESCRIPTION_LENGTH);
+		return record;
+	}
+
+	/**
+	 * @return the value of the first microdata property with a name within
+	 * an item, or null if it has none
+	 */
+	private static String property(Element item, String name) {
+		Element property = item.selectFirst("[itemprop=" + name + "]");
+		if (property == null) return null;
+		if (property.hasAttr("content")) return property.attr("content");
+		if (property.hasAttr("datetime")) return property.attr("datetime");
+		return property.text();
+	}
+
+	/**
+	 * @return the place of a JSON-LD job location, or of a list of them
+	 */
+	private static String location(Object location) {
+		if (location instanceof List) {
+			List<String> places = new ArrayList<String>();
+			for (Object element : (List<?>) location) {
+				String place = location(element);
+				if (place != null) places.add(place);
+			}
+			return places.isEmpty() ? null : String.join("; ", places);
+		}
+		if (!(location instanceof Map)) return text(location);
+		Object address = ((Map<?, ?>) location).get("address");
+		if (!(address instanceof Map)) return address != null ? text(address) : text(location);
+		Map<?, ?> postal = (Map<?, ?>) address;
+		List<String> parts = new ArrayList<String>();
+		for (String part : new String[] { "streetAddress", "addressLocality", "addressRegion", "postalCode", "addressCountry" }) {
+			String value = text(postal.get(part));
+			if (value != null && !value.trim().isEmpty()) parts.add(value.trim());
+		}
+		return parts.isEmpty() ? null : String.join(", ", parts);
+	}
+
+	/**
+	 * @return the text of a JSON-LD value: a string, a number, the name of
+	 * a node, or the texts of a list joined by commas
+	 */
+	private static String text(Object value) {
+		if (value instanceof String) return (String) value;
+		if (value instanceof Double) {
+			double number = (Double) value;
+			return number == Math.rint(number) && Math.abs(number) < 1e15 ? Long.toString((long) number) : value.toString();
+		}
+		if (value instanceof Map) return text(((Map<?, ?>) value).get("name"));
+		if (value instanceof List) {
+			List<String> texts = new ArrayList<String>();
+			for (Object element : (List<?>) value) {
+				String text = text(element);
+				if (text != null) texts.add(text);
+			}
+			return texts.isEmpty() ? null : String.join(", ", texts);
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a field to a record, unless its value is blank, cutting it off
+	 * at a maximum length.
+	 */
+	private static void put(Map<String, String> record, String field, String value, int maxLength) {
+		if (value == null) return;
+		value = value.trim();
+		if (value.isEmpty()) return;
+		record.put(field, value.length() > maxLength ? value.substring(0, maxLength) : value);
+	}
+}
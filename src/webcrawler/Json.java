@@ -0,0 +1,242 @@
+package webcrawler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Json class reads the JSON that pages embed, such as the JSON-LD of
+ * schema.org, and writes the records that page processors extract. Values
+ * are read into Maps, Lists, Strings, Doubles, Booleans and nulls, and
+ * records are written as objects of string fields.
+ */
+final class Json {
+	private Json() {
+	}
+
+	/**
+	 * @param text a JSON value
+	 * @return the value, see the class comment
+	 * @throws IllegalArgumentException the text is not valid JSON
+	 */
+	public static Object parse(String text) {
+		Parser parser = new Parser(text);
+		Object value = parser.value();
+		parser.skipWhitespace();
+		if (parser.pos < text.length()) throw parser.error("unexpected text after the value");
+		return value;
+	}
+
+	/**
+	 * @param record the fields of a record, which must not be null
+	 * @return the record as a JSON object
+	 */
+	public static String write(Map<String, String> record) {
+		StringBuilder json = new StringBuilder("{");
+		for (Map.Entry<String, String> field : record.entrySet()) {
+			if (json.length() > 1) json.append(',');
+			quote(field.getKey(), json);
+			json.append(':');
+			quote(field.getValue(), json);
+		}
+		return json.append('}').toString();
+	}
+
+	/**
+	 * Appends a string as a JSON string literal.
+	 */
+	private static void quote(String value, StringBuilder json) {
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+				else json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	/**
+	 * A recursive descent parser over the text of a value. This class is
+	 * not threadsafe.
+	 */
+	private static class Parser {
+		// Objects and arrays may be nested this deep, which bounds the stack
+		private static final int MAX_DEPTH = 64;
+		private final String text;
+		private int pos;
+		private int depth;
+
+		private Parser(String text) {
+			this.text = text;
+			this.pos = 0;
+			this.depth = 0;
+		}
+
+		private Object value() {
+			skipWhitespace();
+			if (pos >= text.length()) throw error("unexpected end");
+			char c = text.charAt(pos);
+			switch (c) {
+			case '{':
+				return object();
+			case '[':
+				return array();
+			case '"':
+				return string();
+			case 't':
+				return literal("true", Boolean.TRUE);
+			case 'f':
+				return literal("false", Boolean.FALSE);
+			case 'n':
+				return literal("null", null);
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) return number();
+				throw error("unexpected character");
+			}
+		}
+
+		private Map<String, Object> object() {
+			enter();
+			Map<String, Object> object = new LinkedHashMap<String, Object>();
+			pos++;
+			skipWhitespace();
+			if (consume('}')) {
+				depth--;
+				return object;
+			}
+			do {
+				skipWhitespace();
+				if (pos >= text.length() || text.charAt(pos) != '"') throw error("expected a name");
+				String name = string();
+				skipWhitespace();
+				if (!consume(':')) throw error("expected ':'");
+				object.put(name, value());
+				skipWhitespace();
+			} while (consume(','));
+			if (!consume('}')) throw error("expected '}'");
+			depth--;
+			return object;
+		}
+
+		private List<Object> array() {
+			enter();
+			List<Object> array = new ArrayList<Object>();
+			pos++;
+			skipWhitespace();
+			if (consume(']')) {
+				depth--;
+				return array;
+			}
+			do {
+				array.add(value());
+				skipWhitespace();
+			} while (consume(','));
+			if (!consume(']')) throw error("expected ']'");
+			depth--;
+			return array;
+		}
+
+		private String string() {
+			StringBuilder string = new StringBuilder();
+			pos++;
+			while (true) {
+				if (pos >= text.length()) throw error("unterminated string");
+				char c = text.charAt(pos++);
+				if (c == '"') return string.toString();
+				if (c != '\\') {
+					string.append(c);
+					continue;
+				}
+				if (pos >= text.length()) throw error("unterminated string");
+				char escaped = text.charAt(pos++);
+				switch (escaped) {
+				case 'b':
+					string.append('\b');
+					break;
+				case 'f':
+					string.append('\f');
+					break;
+				case 'n':
+					string.append('\n');
+					break;
+				case 'r':
+					string.append('\r');
+					break;
+				case 't':
+					string.append('\t');
+					break;
+				case 'u':
+					if (pos + 4 > text.length()) throw error("invalid escape");
+					try {
+						string.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+					} catch (NumberFormatException e) {
+						throw error("invalid escape");
+					}
+					pos += 4;
+					break;
+				default:
+					string.append(escaped);
+				}
+			}
+		}
+
+		private Double number() {
+			int start = pos;
+			while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+				pos++;
+			}
+			try {
+				return Double.valueOf(text.substring(start, pos));
+			} catch (NumberFormatException e) {
+				throw error("invalid number");
+			}
+		}
+
+		private Object literal(String literal, Object value) {
+			if (!text.startsWith(literal, pos)) throw error("unexpected character");
+			pos += literal.length();
+			return value;
+		}
+
+		private void enter() {
+			if (++depth > MAX_DEPTH) throw error("nested too deeply");
+		}
+
+		private boolean consume(char c) {
+			if (pos < text.length() && text.charAt(pos) == c) {
+				pos++;
+				return true;
+			}
+			return false;
+		}
+
+		private void skipWhitespace() {
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+				pos++;
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException("invalid JSON at " + pos + ": " + message);
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package webcrawler;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+
+/**
+ * The LinkExtractor class finds the links of an HTML page. The streaming
+ * extractor scans the bytes of the page once, without building a
+ * document tree, and finds the same links as selecting "a[href]" in a
+ * parsed Jsoup document: the href of every anchor, resolved against the
+ * page's URL or its &lt;base href&gt;.
+ *
+ * The streaming extractor only looks at markup, which is ASCII in every
+ * ASCII-compatible charset, so it works on the raw bytes and only decodes
+ * the href values. Pages in other charsets are decoded first.
+ */
+final class LinkExtractor {
+	private LinkExtractor() {
+	}
+
+	/**
+	 * Finds the links of an HTML page without parsing it into a document.
+	 *
+	 * @param body the bytes of the page
+	 * @param charset the name of the page's charset, or null if it is unknown,
+	 *            in which case a &lt;meta charset&gt; tag or UTF-8 is used
+	 * @param pageUrl the URL of the page
+	 * @param links receives the absolute URL of every link, in page order
+	 */
+	public static void extract(byte[] body, String charset, String pageUrl, Consumer<String> links) {
+		Charset pageCharset = charsetOf(charset);
+		if (pageCharset != null && !isAsciiCompatible(pageCharset)) {
+			body = new String(body, pageCharset).getBytes(StandardCharsets.UTF_8);
+			pageCharset = StandardCharsets.UTF_8;
+		}
+		new Scanner(body, pageCharset).scan(pageUrl, links);
+	}
+
+	/**
+	 * Finds the links of an HTML page that has been parsed into a document.
+	 *
+	 * @param doc the parsed page
+	 * @param links receives the absolute URL of every link, in page order
+	 */
+	public static void extract(Document doc, Consumer<String> links) {
+		for (Element link : doc.select("a[href]")) {
+			links.accept(link.attr("abs:href"));
+		}
+	}
+
+	/**
+	 * Resolves a link against a base URL the same way as Jsoup's "abs:" prefix.
+	 *
+	 * @param base the base URL, or null if the page URL is invalid
+	 * @param href the value of an href attribute
+	 * @return the absolute URL, or the empty string if it cannot be resolved
+	 */
+	public static String resolve(URL base, String href) {
+		href = href.trim();
+		try {
+			if (base == null) return new URL(href).toExternalForm();
+			// A link consisting only of a query keeps the path of the base
+			if (href.startsWith("?")) href = base.getPath() + href;
+			return new URL(base, href).toExternalForm();
+		} catch (MalformedURLException e) {
+			// Links with a scheme that Java does not know, such as javascript:, are already absolute
+			return hasScheme(href) ? href : "";
+		}
+	}
+
+	/**
+	 * @param href a link
+	 * @return true if the link starts with a URI scheme
+	 */
+	private static boolean hasScheme(String href) {
+		int colon = href.indexOf(':');
+		if (colon < 1 || !Character.isLetter(href.charAt(0))) return false;
+		for (int i = 1; i < colon; i++) {
+			char c = href.charAt(i);
+			if (!Character.isLetterOrDigit(c) && c != '+' && c != '-' && c != '.') return false;
+		}
+		return true;
+	}
+
+	private static Charset charsetOf(String name) {
+		if (name == null) return null;
+		try {
+			return Charset.forName(name);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static boolean isAsciiCompatible(Charset charset) {
+		byte[] markup = "<a href=\"\">".getBytes(charset);
+		return new String(markup, StandardCharsets.US_ASCII).equals("<a href=\"\">");
+	}
+
+	/**
+	 * A single pass over the bytes of one page.
+	 */
+	private static class Scanner {
+		private final byte[] body;
+		private Charset charset;
+		private int pos;
+		// Unresolved href values of anchors, and of the first <base> tag
+		private final List<String> hrefs;
+		private String baseHref;
+
+		private Scanner(byte[] body, Charset charset) {
+			this.body = body;
+			this.charset = charset;
+			this.pos = 0;
+			this.hrefs = new ArrayList<String>();
+			this.baseHref = null;
+		}
+
+		private void scan(String pageUrl, Consumer<String> links) {
+			while (pos < body.length) {
+				if (body[pos++] != '<' || pos >= body.length) continue;
+
+				byte b = body[pos];
+				if (b == '!') {
+					if (startsWith("!--")) skipPast("-->");
+					else skipPast(">");
+				} else if (b == '/' || b == '?') {
+					skipPast(">");
+				} else if (isLetter(b)) {
+					tag();
+				}
+			}
+
+			// The base URL applies to the whole page, even to links before it
+			URL base = toUrl(pageUrl);
+			if (baseHref != null) {
+				String resolvedBase = resolve(base, baseHref);
+				if (!resolvedBase.isEmpty()) base = toUrl(resolvedBase);
+			}
+			for (String href : hrefs) {
+				links.accept(resolve(base, href));
+			}
+		}
+
+		/**
+		 * Reads a start tag whose name begins at pos, and its attributes.
+		 */
+		private void tag() {
+			int nameStart = pos;
+			while (pos < body.length && !isSpace(body[pos]) && body[pos] != '>' && body[pos] != '/') pos++;
+			String name = ascii(nameStart, pos).toLowerCase();
+			boolean anchor = name.equals("a");
+			boolean base = name.equals("base") && baseHref == null;
+			boolean meta = name.equals("meta");
+
+			String httpEquivContent = null;
+			while (pos < body.length) {
+				// Skip to the next attribute, or the end of the tag
+				while (pos < body.length && (isSpace(body[pos]) || body[pos] == '/')) pos++;
+				if (pos >= body.length) return;
+				if (body[pos] == '>') {
+					pos++;
+					break;
+				}
+
+				int attributeStart = pos;
+				while (pos < body.length && !isSpace(body[pos]) && body[pos] != '=' && body[pos] != '>'
+				        && body[pos] != '/') {
+					pos++;
+				}
+				int attributeEnd = pos;
+				while (pos < body.length && isSpace(body[pos])) pos++;
+				if (pos >= body.length || body[pos] != '=') continue;
+				pos++;
+				while (pos < body.length && isSpace(body[pos])) pos++;
+				if (pos >= body.length) return;
+
+				int valueStart;
+				int valueEnd;
+				byte quote = body[pos];
+				if (quote == '"' || quote == '\'') {
+					valueStart = ++pos;
+					while (pos < body.length && body[pos] != quote) pos++;
+					valueEnd = pos;
+					if (pos < body.length) pos++;
+				} else {
+					valueStart = pos;
+					while (pos < body.length && !isSpace(body[pos]) && body[pos] != '>') pos++;
+					valueEnd = pos;
+				}
+
+				if (!anchor && !base && !meta) continue;
+				String attribute = ascii(attributeStart, attributeEnd).toLowerCase();
+				if (attribute.equals("href") && (anchor || base)) {
+					String value = value(valueStart, valueEnd);
+					if (anchor) hrefs.add(value);
+					else baseHref = value;
+					// Only the first href of a tag counts
+					anchor = false;
+					base = false;
+				} else if (meta && attribute.equals("charset")) {
+					setCharset(value(valueStart, valueEnd));
+				} else if (meta && attribute.equals("content")) {
+					httpEquivContent = value(valueStart, valueEnd);
+				}
+			}
+
+			if (httpEquivContent != null) {
+				int charsetIndex = httpEquivContent.toLowerCase().indexOf("charset=");
+				if (charsetIndex >= 0) setCharset(httpEquivContent.substring(charsetIndex + 8).split(";")[0]);
+			}
+
+			// The contents of these elements are text, not markup
+			if (name.equals("script") || name.equals("style") || name.equals("textarea") || name.equals("title")) {
+				skipPastEndTag(name);
+			}
+		}
+
+		/**
+		 * Uses a charset declared by the page, unless one is already known.
+		 */
+		private void setCharset(String name) {
+			if (charset != null) return;
+			Charset declared = charsetOf(name.trim().replace("\"", ""));
+			if (declared != null && isAsciiCompatible(declared)) charset = declared;
+		}
+
+		private String value(int start, int end) {
+			String value = new String(body, start, end - start, charset == null ? StandardCharsets.UTF_8 : charset);
+			return value.indexOf('&') >= 0 ? Parser.unescapeEntities(value, true) : value;
+		}
+
+		private String ascii(int start, int end) {
+			return new String(body, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+
+		private boolean startsWith(String prefix) {
+			if (pos + prefix.length() > body.length) return false;
+			for (int i = 0; i < prefix.length(); i++) {
+				if (body[pos + i] != prefix.charAt(i)) return false;
+			}
+			return true;
+		}
+
+		private void skipPast(String end) {
+			while (pos < body.length && !startsWith(end)) pos++;
+			pos = Math.min(body.length, pos + end.length());
+		}
+
+		private void skipPastEndTag(String name) {
+			while (pos < body.length) {
+				if (body[pos] == '<' && pos + name.length() + 1 < body.length && body[pos + 1] == '/'
+				        && ascii(pos + 2, pos + 2 + name.length()).equalsIgnoreCase(name)) {
+					return;
+				}
+				pos++;
+			}
+		}
+
+		private static boolean isLetter(byte b) {
+			return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+		}
+
+		private static boolean isSpace(byte b) {
+			return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+		}
+
+		private static URL toUrl(String url) {
+			try {
+				return new URL(url);
+			} catch (MalformedURLException e) {
+				return null;
+			}
+		}
+	}
+}
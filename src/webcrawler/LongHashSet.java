@@ -0,0 +1,128 @@
+package webcrawler;
+
+/**
+ * A LongHashSet is a set of primitive long values stored in an open
+ * addressing table, so that no object is allocated per element.
+ * This class is not threadsafe.
+ */
+class LongHashSet {
+	private static final int MIN_CAPACITY = 16;
+	private long[] table;
+	private int size;
+	private boolean containsZero;
+
+	// Rep invariant:
+	//		table.length is a power of two and at least MIN_CAPACITY
+	//		the number of non-zero entries of table == size - (containsZero ? 1 : 0)
+	//		size - (containsZero ? 1 : 0) <= table.length / 2
+	//		every non-zero value v in table is reachable by linear probing from
+	//		slot(v) without passing an empty (zero) slot
+	// Abstraction function:
+	//		Represents the set of non-zero values in table, plus 0 if containsZero.
+
+	/**
+	 * Creates an empty set.
+	 *
+	 * @param expectedSize the number of values expected to be added
+	 */
+	public LongHashSet(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity / 2 < expectedSize && capacity < (1 << 30)) capacity <<= 1;
+		this.table = new long[capacity];
+		this.size = 0;
+		this.containsZero = false;
+	}
+
+	/**
+	 * @param value a value
+	 * @return true if the value is in the set
+	 */
+	public boolean contains(long value) {
+		if (value == 0) return containsZero;
+		int mask = table.length - 1;
+		for (int i = slot(value, mask); table[i] != 0; i = (i + 1) & mask) {
+			if (table[i] == value) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Adds a value to the set.
+	 *
+	 * @param value the value to add
+	 * @return true if the value was not already in the set
+	 */
+	public boolean add(long value) {
+		if (value == 0) {
+			if (containsZero) return false;
+			containsZero = true;
+			size++;
+			return true;
+		}
+		int mask = table.length - 1;
+		int i = slot(value, mask);
+		for (; table[i] != 0; i = (i + 1) & mask) {
+			if (table[i] == value) return false;
+		}
+		table[i] = value;
+		size++;
+		if (size > table.length / 2) resize(table.length * 2);
+		return true;
+	}
+
+	/**
+	 * Removes a value from the set.
+	 *
+	 * @param value the value to remove
+	 * @return true if the value was in the set
+	 */
+	public boolean remove(long value) {
+		if (value == 0) {
+			if (!containsZero) return false;
+			containsZero = false;
+			size--;
+			return true;
+		}
+		int mask = table.length - 1;
+		int i = slot(value, mask);
+		for (; table[i] != value; i = (i + 1) & mask) {
+			if (table[i] == 0) return false;
+		}
+
+		// Shift later entries of the probe sequence back into the hole
+		int hole = i;
+		for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+			int home = slot(table[j], mask);
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				table[hole] = table[j];
+				hole = j;
+			}
+		}
+		table[hole] = 0;
+		size--;
+		return true;
+	}
+
+	/**
+	 * @return the number of values in the set
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void resize(int capacity) {
+		long[] oldTable = table;
+		table = new long[capacity];
+		int mask = capacity - 1;
+		for (long value : oldTable) {
+			if (value == 0) continue;
+			int i = slot(value, mask);
+			while (table[i] != 0) i = (i + 1) & mask;
+			table[i] = value;
+		}
+	}
+
+	private static int slot(long value, int mask) {
+		return (int) Fingerprint.mix(value) & mask;
+	}
+}
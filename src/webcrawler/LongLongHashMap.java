@@ -0,0 +1,107 @@
+package webcrawler;
+
+/**
+ * A LongLongHashMap maps primitive long keys to primitive long values in
+ * an open addressing table, so that no object is allocated per entry.
+ * This class is not threadsafe.
+ */
+class LongLongHashMap {
+	private static final int MIN_CAPACITY = 16;
+	private long[] keys;
+	private long[] values;
+	private int size;
+	private boolean containsZero;
+	private long zeroValue;
+
+	// Rep invariant:
+	//		keys.length == values.length, which is a power of two and at
+	//		least MIN_CAPACITY
+	//		the number of non-zero keys == size - (containsZero ? 1 : 0)
+	//		size - (containsZero ? 1 : 0) <= keys.length / 2
+	//		every non-zero key k in keys is reachable by linear probing from
+	//		slot(k) without passing an empty (zero) slot
+	// Abstraction function:
+	//		Represents the map from every non-zero keys[i] to values[i], plus
+	//		0 to zeroValue if containsZero.
+
+	/**
+	 * Creates an empty map.
+	 *
+	 * @param expectedSize the number of keys expected to be added
+	 */
+	public LongLongHashMap(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity / 2 < expectedSize && capacity < (1 << 30)) capacity <<= 1;
+		this.keys = new long[capacity];
+		this.values = new long[capacity];
+		this.size = 0;
+		this.containsZero = false;
+	}
+
+	/**
+	 * @param key a key
+	 * @param defaultValue the value to return if the key is not in the map
+	 * @return the value of the key, or defaultValue if it is not in the map
+	 */
+	public long get(long key, long defaultValue) {
+		if (key == 0) return containsZero ? zeroValue : defaultValue;
+		int mask = keys.length - 1;
+		for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+			if (keys[i] == key) return values[i];
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Maps a key to a value, replacing its previous value.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void put(long key, long value) {
+		if (key == 0) {
+			if (!containsZero) size++;
+			containsZero = true;
+			zeroValue = value;
+			return;
+		}
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		for (; keys[i] != 0; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		if (size > keys.length / 2) resize(keys.length * 2);
+	}
+
+	/**
+	 * @return the number of keys in the map
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		keys = new long[capacity];
+		values = new long[capacity];
+		int mask = capacity - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == 0) continue;
+			int i = slot(oldKeys[j], mask);
+			while (keys[i] != 0) i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+
+	private static int slot(long key, int mask) {
+		return (int) Fingerprint.mix(key) & mask;
+	}
+}
@@ -0,0 +1,387 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+
+/**
+ * A MariaDbStore keeps every crawl database in a database of the MariaDB
+ * app, in the tables described by Schema. Clients of the same database
+ * never lock it, and are kept from inserting the same site twice by the
+ * primary keys of the tables. Seeds and sites that are due to be
+ * recrawled are claimed in batches, skipping the rows that another client
+ * is claiming at the same time.
+ *
+ * Sites are only ever passed to the MariaDB app as parameters of prepared
+ * statements, which every pooled connection prepares once and then reuses.
+ */
+class MariaDbStore implements CrawlStore {
+	private static final int FETCH_SIZE = 10000;
+	private static final int CLAIM_BATCH_SIZE = 100;
+	private static final int INSERT_BATCH_SIZE = 1000;
+	private static final String INSERT_SEED = "insert ignore into seeds (id, site) values (?, ?);";
+	private static final String SELECT_SEEDS = "select id, site from seeds where visited = 0 limit " + CLAIM_BATCH_SIZE
+	        + " for update skip locked;";
+	private static final String UPDATE_SEED = "update seeds set visited = ? where id = ?;";
+	private static final String SELECT_STATE = "select site from state;";
+	private static final String SELECT_SITES = "select id from sites;";
+	private static final String INSERT_HOST = "insert ignore into hosts (id, host) values (?, ?);";
+	private static final String INSERT_SITE = "insert ignore into sites (id, host_id, site) values (?, ?, ?);";
+	private static final String UPDATE_SITE = "update sites set status = ?, fetched = current_timestamp, etag = ?,"
+	        + " last_modified = ?, content_hash = ?, revisit_interval = ?, next_fetch = ? where id = ?;";
+	private static final String SELECT_DUE_SITES = "select id, site, etag, last_modified, content_hash, revisit_interval"
+	        + " from sites where next_fetch <= ? and id > ? order by id limit " + CLAIM_BATCH_SIZE
+	        + " for update skip locked;";
+	private static final String UPDATE_NEXT_FETCH = "update sites set next_fetch = ? where id = ?;";
+	private static final String INSERT_EXTRACT = "insert into extracts (site_id, type, data) values (?, ?, ?);";
+	private final ConnectionPool pool;
+	// Hosts that have been inserted into the 'hosts' table of each database, or are being inserted by a batch
+	private final Map<String, LongHashSet> knownHosts;
+
+	// Rep invariant:
+	//		pool != null, knownHosts != null
+	// Abstraction function:
+	//		Represents the databases of the MariaDB app that pool connects to.
+	// Thread safety argument:
+	//		Every operation uses its own pooled connection. knownHosts is
+	//		only accessed while holding its own lock.
+
+	/**
+	 * Creates a store.
+	 *
+	 * @param pool connections to the MariaDB app
+	 */
+	public MariaDbStore(ConnectionPool pool) {
+		this.pool = pool;
+		this.knownHosts = new HashMap<String, LongHashSet>();
+	}
+
+	public void use(String database) throws IOException {
+		CrawlStore.checkName(database);
+		try (ConnectionPool.Lease lease = pool.acquire(null); Statement stmt = lease.connection().createStatement()) {
+			// 'schema' is MariaDB's synonym for 'database', which embedded databases understand as well
+			stmt.executeUpdate("create schema if not exists " + database);
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void drop(String database) throws IOException {
+		CrawlStore.checkName(database);
+		try (ConnectionPool.Lease lease = pool.acquire(null); Statement stmt = lease.connection().createStatement()) {
+			stmt.executeUpdate("drop database if exists " + database + ";");
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+		forgetHosts(database);
+	}
+
+	public void init(String database, List<String> seeds) throws IOException {
+		try (ConnectionPool.Lease lease = pool.acquire(database);
+		        Statement stmt = lease.connection().createStatement()) {
+			// Create or replace the tables. The primary keys let clients
+			// crawl the same database concurrently without locking it.
+			Schema.create(stmt);
+			PreparedStatement insertSeed = lease.prepare(INSERT_SEED);
+			int batched = 0;
+			for (String site : seeds) {
+				insertSeed.setLong(1, Fingerprint.of(site));
+				insertSeed.setString(2, site);
+				insertSeed.addBatch();
+				if (++batched % INSERT_BATCH_SIZE == 0) insertSeed.executeBatch();
+			}
+			insertSeed.executeBatch();
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+		forgetHosts(database);
+	}
+
+	public int version(String database) throws IOException {
+		try (ConnectionPool.Lease lease = pool.acquire(database)) {
+			return Schema.version(lease.connection());
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public long migrate(String database) throws IOException {
+		try (ConnectionPool.Lease lease = pool.acquire(database)) {
+			return Schema.migrate(lease.connection());
+		} catch (SQLException e) {
+			throw new IOException(e);
+		} finally {
+			forgetHosts(database);
+		}
+	}
+
+	public void claimSeeds(String database, Predicate<String> consumer) throws IOException {
+		try (ConnectionPool.Lease lease = pool.acquire(database)) {
+			PreparedStatement select = lease.prepare(SELECT_SEEDS);
+			PreparedStatement update = lease.prepare(UPDATE_SEED);
+			List<Long> ids = new ArrayList<Long>(CLAIM_BATCH_SIZE);
+			List<String> sites = new ArrayList<String>(CLAIM_BATCH_SIZE);
+			do {
+				// Claim a batch of seeds by setting them to visited in one
+				// transaction. Seeds that another client is claiming at the
+				// same time are locked, and skipped instead of waited for.
+				ids.clear();
+				sites.clear();
+				lease.connection().setAutoCommit(false);
+				try (ResultSet availableSeeds = select.executeQuery()) {
+					while (availableSeeds.next()) {
+						ids.add(availableSeeds.getLong(1));
+						sites.add(availableSeeds.getString(2));
+					}
+				}
+				setVisited(update, ids, 0, true);
+				lease.connection().commit();
+				lease.connection().setAutoCommit(true);
+
+				for (int i = 0; i < sites.size(); i++) {
+					if (!consumer.test(sites.get(i))) {
+						// Give back the rejected seed and the rest of the batch
+						setVisited(update, ids, i, false);
+						return;
+					}
+				}
+			} while (ids.size() == CLAIM_BATCH_SIZE);
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void claimDueSites(String database, long now, BiPredicate<String, PageVersion> consumer)
+	        throws IOException {
+		try (ConnectionPool.Lease lease = pool.acquire(database)) {
+			PreparedStatement select = lease.prepare(SELECT_DUE_SITES);
+			PreparedStatement update = lease.prepare(UPDATE_NEXT_FETCH);
+			List<Long> ids = new ArrayList<Long>(CLAIM_BATCH_SIZE);
+			List<String> sites = new ArrayList<String>(CLAIM_BATCH_SIZE);
+			List<PageVersion> versions = new ArrayList<PageVersion>(CLAIM_BATCH_SIZE);
+			// Sites are claimed in the order of their ids, so that every site
+			// is claimed at most once, even if it is due again right away
+			long lastId = Long.MIN_VALUE;
+			do {
+				// Claim a batch of sites by putting off their next fetch in
+				// one transaction, like a batch of seeds
+				ids.clear();
+				sites.clear();
+				versions.clear();
+				lease.connection().setAutoCommit(false);
+				select.setTimestamp(1, new Timestamp(now));
+				select.setLong(2, lastId);
+				try (ResultSet dueSites = select.executeQuery()) {
+					while (dueSites.next()) {
+						ids.add(dueSites.getLong(1));
+						sites.add(dueSites.getString(2));
+						versions.add(new PageVersion(dueSites.getString(3), dueSites.getString(4), dueSites.getLong(5),
+						        dueSites.getLong(6)));
+					}
+				}
+				for (int i = 0; i < ids.size(); i++) {
+					update.setTimestamp(1, new Timestamp(now + versions.get(i).getInterval()));
+					update.setLong(2, ids.get(i));
+					update.addBatch();
+				}
+				if (!ids.isEmpty()) {
+					update.executeBatch();
+					lastId = ids.get(ids.size() - 1);
+				}
+				lease.connection().commit();
+				lease.connection().setAutoCommit(true);
+
+				for (int i = 0; i < sites.size(); i++) {
+					if (!consumer.test(sites.get(i), versions.get(i))) {
+						// Give back the rejected site and the rest of the batch
+						for (int j = i; j < ids.size(); j++) {
+							update.setTimestamp(1, new Timestamp(now));
+							update.setLong(2, ids.get(j));
+							update.addBatch();
+						}
+						update.executeBatch();
+						return;
+					}
+				}
+			} while (ids.size() == CLAIM_BATCH_SIZE);
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public List<String> removeSavedFrontier(String database) throws IOException {
+		List<String> sites = new ArrayList<String>();
+		try (ConnectionPool.Lease lease = pool.acquire(database);
+		        Statement stmt = lease.connection().createStatement()) {
+			try (ResultSet state = lease.prepare(SELECT_STATE).executeQuery()) {
+				while (state.next()) {
+					sites.add(state.getString("site"));
+				}
+			}
+			Schema.createState(stmt, "");
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+		return sites;
+	}
+
+	public void readSites(String database, LongConsumer consumer) throws IOException {
+		try (ConnectionPool.Lease lease = pool.acquire(database)) {
+			PreparedStatement select = lease.prepare(SELECT_SITES);
+			select.setFetchSize(FETCH_SIZE);
+			// The primary key of a site is its fingerprint
+			try (ResultSet sites = select.executeQuery()) {
+				while (sites.next()) {
+					consumer.accept(sites.getLong(1));
+				}
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void write(String database, List<SiteWriter.Entry> batch) throws IOException {
+		LongHashSet hosts = hostsOf(database);
+		// Hosts that this batch inserts, which are only known once it has been written
+		List<Long> newHosts = new ArrayList<Long>();
+		try (ConnectionPool.Lease lease = pool.acquire(database)) {
+			PreparedStatement insertHost = lease.prepare(INSERT_HOST);
+			PreparedStatement insertSite = lease.prepare(INSERT_SITE);
+			PreparedStatement updateSite = lease.prepare(UPDATE_SITE);
+			boolean updates = false;
+			for (SiteWriter.Entry entry : batch) {
+				if (entry.getStatus() == Schema.STATUS_DISCOVERED) {
+					String host = Schema.hostOf(entry.getSite());
+					long hostId = Fingerprint.of(host);
+					boolean newHost;
+					synchronized (hosts) {
+						newHost = hosts.add(hostId);
+					}
+					if (newHost) {
+						insertHost.setLong(1, hostId);
+						insertHost.setString(2, host);
+						insertHost.addBatch();
+						newHosts.add(hostId);
+					}
+					insertSite.setLong(1, Fingerprint.of(entry.getSite()));
+					insertSite.setLong(2, hostId);
+					insertSite.setString(3, entry.getSite());
+					insertSite.addBatch();
+				} else {
+					setFetched(updateSite, entry);
+					updateSite.addBatch();
+					updates = true;
+				}
+			}
+			if (!newHosts.isEmpty()) insertHost.executeBatch();
+			insertSite.executeBatch();
+			if (updates) updateSite.executeBatch();
+		} catch (SQLException e) {
+			// The hosts of a failed batch may not have been written, so later batches insert them again
+			synchronized (hosts) {
+				for (long hostId : newHosts) {
+					hosts.remove(hostId);
+				}
+			}
+			throw new IOException(e);
+		}
+	}
+
+	public void writeExtracts(String database, List<ExtractWriter.Entry> batch) throws IOException {
+		try (ConnectionPool.Lease lease = pool.acquire(database)) {
+			PreparedStatement insertExtract = lease.prepare(INSERT_EXTRACT);
+			for (ExtractWriter.Entry entry : batch) {
+				insertExtract.setLong(1, Fingerprint.of(entry.getSite()));
+				insertExtract.setString(2, entry.getType());
+				insertExtract.setString(3, entry.getData());
+				insertExtract.addBatch();
+			}
+			insertExtract.executeBatch();
+		} catch (SQLException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public void close() {
+		pool.close();
+	}
+
+	/**
+	 * Sets the parameters of UPDATE_SITE to the outcome of a fetch.
+	 */
+	private static void setFetched(PreparedStatement update, SiteWriter.Entry entry) throws SQLException {
+		PageVersion version = entry.getVersion();
+		update.setInt(1, entry.getStatus());
+		if (version == null) {
+			update.setNull(2, Types.VARCHAR);
+			update.setNull(3, Types.VARCHAR);
+			update.setNull(4, Types.BIGINT);
+			update.setNull(5, Types.BIGINT);
+			update.setNull(6, Types.TIMESTAMP);
+		} else {
+			update.setString(2, fits(version.getEtag(), Schema.MAX_ETAG_LENGTH));
+			update.setString(3, fits(version.getLastModified(), Schema.MAX_LAST_MODIFIED_LENGTH));
+			update.setLong(4, version.getContentHash());
+			update.setLong(5, version.getInterval());
+			update.setTimestamp(6, new Timestamp(System.currentTimeMillis() + version.getInterval()));
+		}
+		update.setLong(7, Fingerprint.of(entry.getSite()));
+	}
+
+	/**
+	 * @return the value if it fits in a column of the given length, and
+	 * otherwise null
+	 */
+	private static String fits(String value, int length) {
+		return value != null && value.length() <= length ? value : null;
+	}
+
+	/**
+	 * Sets whether the seeds with the given ids, from index from onwards,
+	 * have been visited.
+	 */
+	private static void setVisited(PreparedStatement update, List<Long> ids, int from, boolean visited)
+	        throws SQLException {
+		if (from >= ids.size()) return;
+		for (int i = from; i < ids.size(); i++) {
+			update.setInt(1, visited ? 1 : 0);
+			update.setLong(2, ids.get(i));
+			update.addBatch();
+		}
+		update.executeBatch();
+	}
+
+	/**
+	 * @return the hosts known to be in the 'hosts' table of a database
+	 */
+	private LongHashSet hostsOf(String database) {
+		synchronized (knownHosts) {
+			LongHashSet hosts = knownHosts.get(database);
+			if (hosts == null) {
+				hosts = new LongHashSet(1024);
+				knownHosts.put(database, hosts);
+			}
+			return hosts;
+		}
+	}
+
+	/**
+	 * Forgets the hosts of a database whose tables have been replaced.
+	 */
+	private void forgetHosts(String database) {
+		synchronized (knownHosts) {
+			knownHosts.remove(database);
+		}
+	}
+}
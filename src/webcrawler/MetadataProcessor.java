@@ -0,0 +1,56 @@
+package webcrawler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * A MetadataProcessor extracts what a page says about itself: its title,
+ * its description, its canonical URL and language, and the title and
+ * description that it gives for sharing it (Open Graph). Every page with
+ * any of these yields one record, with the fields that it has. This class
+ * is immutable.
+ */
+class MetadataProcessor implements PageProcessor {
+	// Longer values are cut off
+	private static final int MAX_VALUE_LENGTH = 1000;
+
+	public String type() {
+		return "metadata";
+	}
+
+	public void process(ParsedPage page, Consumer<Map<String, String>> records) {
+		Document doc = page.document();
+		if (doc == null) return;
+		Map<String, String> record = new LinkedHashMap<String, String>();
+		put(record, "title", doc.title());
+		put(record, "description", attr(doc, "meta[name=description]", "content"));
+		put(record, "canonical", attr(doc, "link[rel=canonical][href]", "abs:href"));
+		put(record, "language", attr(doc, "html[lang]", "lang"));
+		put(record, "ogTitle", attr(doc, "meta[property=og:title]", "content"));
+		put(record, "ogDescription", attr(doc, "meta[property=og:description]", "content"));
+		if (!record.isEmpty()) records.accept(record);
+	}
+
+	/**
+	 * @return the attribute of the first element that matches a query, or
+	 * null if no element matches
+	 */
+	private static String attr(Document doc, String query, String attribute) {
+		Element element = doc.selectFirst(query);
+		return element == null ? null : element.attr(attribute);
+	}
+
+	/**
+	 * Adds a field to a record, unless its value is blank.
+	 */
+	private static void put(Map<String, String> record, String field, String value) {
+		if (value == null) return;
+		value = value.trim();
+		if (value.isEmpty()) return;
+		record.put(field, value.length() > MAX_VALUE_LENGTH ? value.substring(0, MAX_VALUE_LENGTH) : value);
+	}
+}
@@ -0,0 +1,104 @@
+package webcrawler;
+
+import java.util.Arrays;
+
+/**
+ * A NearDuplicateIndex holds the SimHash fingerprints of the most recently
+ * crawled pages of a database, and finds the pages whose fingerprints are
+ * within a maximum Hamming distance of a new one.
+ *
+ * The 64 bits of a fingerprint are split into maxDistance + 1 bands. Two
+ * fingerprints that differ in at most maxDistance bits are equal in at
+ * least one band, so every fingerprint is filed under the value of each
+ * of its bands, and only the fingerprints filed under the same value in
+ * some band are compared bit by bit. Once the index holds capacity
+ * fingerprints, every new one replaces the oldest.
+ */
+class NearDuplicateIndex {
+	// Bands are at most this many bits wide, which bounds the bucket arrays
+	private static final int MAX_BAND_BITS = 16;
+	private final int maxDistance;
+	private final int capacity;
+	// Bit offset of each band, and the last is followed by 64
+	private final int[] bandStart;
+	// Id of the newest fingerprint in each bucket of each band, or -1
+	private final long[][] heads;
+	// Fingerprint with id i is in fingerprints[i % capacity]
+	private final long[] fingerprints;
+	// Id of the next older fingerprint in the same bucket of each band, or -1
+	private final long[][] next;
+	// Number of fingerprints added so far, which is the id of the next one
+	private long count;
+
+	// Rep invariant:
+	//		0 <= maxDistance < 64, capacity > 0
+	//		bandStart.length == heads.length == next.length == maxDistance + 1
+	//		fingerprints.length == next[band].length == capacity
+	//		every chain of ids starting at heads[band][bucket] decreases
+	// Abstraction function:
+	//		Represents the fingerprints with ids count - capacity to count - 1
+	//		that are >= 0, which are in fingerprints.
+	// Thread safety argument:
+	//		All methods are synchronized.
+
+	/**
+	 * Creates an empty index.
+	 *
+	 * @param maxDistance the maximum number of bits in which near-duplicates differ
+	 * @param capacity the number of fingerprints to keep
+	 */
+	public NearDuplicateIndex(int maxDistance, int capacity) {
+		this.maxDistance = Math.max(0, Math.min(maxDistance, 63));
+		this.capacity = Math.max(1, capacity);
+		int bands = this.maxDistance + 1;
+		this.bandStart = new int[bands];
+		this.heads = new long[bands][];
+		this.next = new long[bands][this.capacity];
+		for (int band = 0; band < bands; band++) {
+			bandStart[band] = band * 64 / bands;
+			int width = (band + 1) * 64 / bands - bandStart[band];
+			heads[band] = new long[1 << Math.min(width, MAX_BAND_BITS)];
+			Arrays.fill(heads[band], -1);
+		}
+		this.fingerprints = new long[this.capacity];
+		this.count = 0;
+	}
+
+	/**
+	 * Adds a fingerprint to the index, unless it is a near-duplicate of a
+	 * fingerprint that is already in the index.
+	 *
+	 * @param fingerprint the SimHash fingerprint of a page
+	 * @return false if the index holds a fingerprint that differs from it
+	 * in at most maxDistance bits
+	 */
+	public synchronized boolean add(long fingerprint) {
+		long oldest = count - capacity;
+		for (int band = 0; band < heads.length; band++) {
+			for (long id = heads[band][bucket(fingerprint, band)]; id >= 0 && id >= oldest; id = next[band][(int) (id % capacity)]) {
+				if (SimHash.distance(fingerprint, fingerprints[(int) (id % capacity)]) <= maxDistance) return false;
+			}
+		}
+
+		long id = count++;
+		int slot = (int) (id % capacity);
+		fingerprints[slot] = fingerprint;
+		for (int band = 0; band < heads.length; band++) {
+			int bucket = bucket(fingerprint, band);
+			next[band][slot] = heads[band][bucket];
+			heads[band][bucket] = id;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of fingerprints in the index
+	 */
+	public synchronized int size() {
+		return (int) Math.min(count, capacity);
+	}
+
+	private int bucket(long fingerprint, int band) {
+		return (int) (fingerprint >>> bandStart[band]) & (heads[band].length - 1);
+	}
+}
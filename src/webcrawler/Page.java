@@ -0,0 +1,130 @@
+package webcrawler;
+
+/**
+ * A Page is the response to fetching a site: its final URL after
+ * redirects, status code, content type, validators, and the downloaded
+ * body.
+ */
+final class Page {
+	private final String url;
+	private final int status;
+	private final String contentType;
+	private final byte[] body;
+	private final boolean truncated;
+	private final String etag;
+	private final String lastModified;
+
+	// Rep invariant:
+	//		url != null, contentType != null, body != null
+	// Abstraction function:
+	//		Represents the response with the given status code that the
+	//		server at url returned, where body holds the first body.length
+	//		bytes of the response body, which is longer iff truncated, and
+	//		etag and lastModified are the validators of the response, or
+	//		null if it had none.
+
+	/**
+	 * @param url the URL of the page after following redirects
+	 * @param status the HTTP status code of the response
+	 * @param contentType the value of the Content-Type header, or the empty string
+	 * @param body the downloaded response body
+	 * @param truncated true if the body was longer than the maximum body size
+	 * @param etag the value of the ETag header, or null
+	 * @param lastModified the value of the Last-Modified header, or null
+	 */
+	public Page(String url, int status, String contentType, byte[] body, boolean truncated, String etag,
+	        String lastModified) {
+		this.url = url;
+		this.status = status;
+		this.contentType = contentType;
+		this.body = body;
+		this.truncated = truncated;
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * @return the URL of the page after following redirects
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return the HTTP status code of the response
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the value of the Content-Type header, or the empty string
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return the downloaded response body, which must not be modified
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * @return true if only the beginning of the response body was downloaded
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @return the value of the ETag header, or null if there was none
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * @return the value of the Last-Modified header, or null if there was none
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return true if the server answered a conditional request with the
+	 * page not having been modified, so the body is empty
+	 */
+	public boolean isNotModified() {
+		return status == 304;
+	}
+
+	/**
+	 * @return true if the request succeeded
+	 */
+	public boolean isSuccess() {
+		return status >= 200 && status < 300;
+	}
+
+	/**
+	 * @return true if the body is an HTML document
+	 */
+	public boolean isHtml() {
+		return Fetcher.isHtml(contentType);
+	}
+
+	/**
+	 * @return the character set named by the content type, or null if
+	 * the content type does not name one
+	 */
+	public String getCharset() {
+		for (String parameter : contentType.split(";")) {
+			String[] pair = parameter.trim().split("=", 2);
+			if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+				return pair[1].trim().replace("\"", "");
+			}
+		}
+		return null;
+	}
+}
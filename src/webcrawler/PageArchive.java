@@ -0,0 +1,611 @@
+package webcrawler;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A PageArchive keeps the bodies of the HTML pages crawled in a database,
+ * in the manner of a WARC file. Pages are appended to segment files, which
+ * are closed once they reach a maximum size, and nothing is ever updated
+ * in place: a page that is fetched again is appended again, and reading
+ * its URL returns the newest copy.
+ *
+ * Every record is compressed on its own, so a page can be read without
+ * decompressing its neighbours. Crawl workers compress their pages and
+ * hand them to a writer thread through a bounded queue, and the writer
+ * appends them in batches, with a single write per batch. A batch is
+ * written once it holds BATCH_BYTES or once the flush interval has
+ * passed, whichever comes first.
+ *
+ * Segment n is the file n.pages, where n has six digits, and holds
+ * records of the form [MAGIC][length][data], where length is a 4-byte
+ * integer that counts the data, and the data is
+ * [fingerprint][fetched][status][truncated][site][content type][size][crc][body].
+ * The fingerprint is that of the site, fetched is the time of the fetch in
+ * milliseconds, status is a 2-byte integer, truncated is a byte, the
+ * strings are a 2-byte length followed by UTF-8 bytes, size is the 4-byte
+ * length of the body before compression, crc is its 4-byte CRC-32, and the
+ * body is compressed with deflate. Next to every segment, n.index holds
+ * [fingerprint][offset] for each of its records, so that the offsets of
+ * all pages can be loaded without reading the segments. Records that were
+ * cut short by a crash are dropped from the last segment when the archive
+ * is opened, and its index is rebuilt.
+ */
+class PageArchive implements AutoCloseable {
+	// "WCP1", so that a damaged segment is noticed
+	private static final int MAGIC = 0x57435031;
+	// Bytes of a record up to the site, and of the fields between the site and the body
+	private static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 2 + 1 + 2;
+	private static final int TRAILER_LENGTH = 2 + 4 + 4;
+	private static final int MAX_RECORD_LENGTH = 1 << 30;
+	// Locations are the index of the segment followed by the offset in it
+	private static final int OFFSET_BITS = 40;
+	private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+	private static final int BATCH_BYTES = 1024 * 1024;
+	private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(Deflater::new);
+	private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+	// Marks the end of the queue, so the writer thread knows to stop
+	private static final Pending END = new Pending(0, new byte[0], 0);
+	private final Path directory;
+	private final long segmentSize;
+	private final int compressionLevel;
+	private final long flushInterval;
+	private final BlockingQueue<Pending> queue;
+	private final Thread thread;
+	// Open segments, in order
+	private final List<FileChannel> segments;
+	// Location of the newest record of every site, by fingerprint
+	private final LongLongHashMap locations;
+	// End of the records written to the last segment
+	private long end;
+	// Index of the last segment, which only the writer thread appends to
+	private FileChannel index;
+	private boolean closed;
+
+	// Rep invariant:
+	//		directory != null, segmentSize > 0, flushInterval > 0
+	//		Deflater.BEST_SPEED <= compressionLevel <= Deflater.BEST_COMPRESSION
+	//		queue != null, thread != null, segments is not empty
+	//		segments.get(i) is the open file of segment i
+	//		end is the size of the last segment, and index is the open index
+	//		of the last segment, unless closed
+	//		every location in locations is the start of a complete record
+	// Abstraction function:
+	//		Represents the records in the segments, followed by the records
+	//		in queue, which have not been written yet.
+	// Thread safety argument:
+	//		Workers and the writer thread share queue, which is a threadsafe
+	//		BlockingQueue. segments, locations, end and closed are only
+	//		accessed while holding this object's lock. index is only used
+	//		by the writer thread once the archive has been opened, and
+	//		FileChannel reads at a position are threadsafe.
+
+	/**
+	 * Opens an archive, creating it if it does not exist, and starts its
+	 * writer thread.
+	 *
+	 * @param directory the directory of the segments
+	 * @param config the crawler configuration
+	 * @throws IOException unable to open or read the segments
+	 */
+	public PageArchive(Path directory, CrawlerConfig config) throws IOException {
+		this.directory = directory;
+		this.segmentSize = config.archiveSegmentSize();
+		this.compressionLevel = Math.max(Deflater.BEST_SPEED,
+		        Math.min(config.archiveCompressionLevel(), Deflater.BEST_COMPRESSION));
+		this.flushInterval = config.writerFlushInterval();
+		this.queue = new ArrayBlockingQueue<Pending>(config.archiveQueueCapacity());
+		this.segments = new ArrayList<FileChannel>();
+		this.locations = new LongLongHashMap(1024);
+		this.closed = false;
+		Files.createDirectories(directory);
+		open();
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				writeBatches();
+			}
+		}, "page-archive");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Compresses a page on the calling thread, and queues it to be
+	 * appended to the archive. Blocks while the queue is full.
+	 *
+	 * @param site the site that was fetched
+	 * @param page the page that was downloaded from it
+	 * @return the size of the record in the archive
+	 * @throws InterruptedException the calling thread was interrupted
+	 */
+	public int add(String site, Page page) throws InterruptedException {
+		long fingerprint = Fingerprint.of(site);
+		byte[] siteBytes = bytesOf(site);
+		byte[] contentType = bytesOf(page.getContentType());
+		byte[] body = page.getBody();
+		CRC32 crc = new CRC32();
+		crc.update(body);
+
+		// Most pages shrink to a fraction of their size, and the buffer grows for those that do not
+		int start = HEADER_LENGTH + siteBytes.length + TRAILER_LENGTH + contentType.length;
+		byte[] record = new byte[start + body.length / 2 + 64];
+		Deflater deflater = DEFLATERS.get();
+		deflater.reset();
+		deflater.setLevel(compressionLevel);
+		deflater.setInput(body);
+		deflater.finish();
+		int length = start;
+		while (!deflater.finished()) {
+			if (length == record.length) record = Arrays.copyOf(record, record.length * 2);
+			length += deflater.deflate(record, length, record.length - length);
+		}
+
+		ByteBuffer header = ByteBuffer.wrap(record);
+		header.putInt(MAGIC).putInt(length - 8).putLong(fingerprint).putLong(System.currentTimeMillis());
+		header.putShort((short) page.getStatus()).put((byte) (page.isTruncated() ? 1 : 0));
+		header.putShort((short) siteBytes.length).put(siteBytes);
+		header.putShort((short) contentType.length).put(contentType);
+		header.putInt(body.length).putInt((int) crc.getValue());
+		queue.put(new Pending(fingerprint, record, length));
+		return length;
+	}
+
+	/**
+	 * Reads the newest copy of a page. Pages that are still waiting to
+	 * be written are not found.
+	 *
+	 * @param site the URL that the page was fetched from
+	 * @return the page, or null if it is not in the archive
+	 * @throws IOException unable to read the page
+	 */
+	public Record read(String site) throws IOException {
+		FileChannel segment;
+		long offset;
+		synchronized (this) {
+			long location = locations.get(Fingerprint.of(site), -1);
+			if (location < 0) return null;
+			segment = segments.get((int) (location >>> OFFSET_BITS));
+			offset = location & OFFSET_MASK;
+		}
+		ByteBuffer header = ByteBuffer.allocate(8);
+		readFully(segment, header, offset);
+		int length = recordLength(header.getInt(0), header.getInt(4));
+		ByteBuffer data = ByteBuffer.allocate(length);
+		readFully(segment, data, offset + 8);
+		Record record = decode(data.array());
+		// Another site with the same fingerprint
+		return record.getSite().equals(site) ? record : null;
+	}
+
+	/**
+	 * Reads every page that had been written when the scan started, in
+	 * the order in which they were written, including the older copies of
+	 * pages that were fetched more than once.
+	 *
+	 * @param consumer receives the pages
+	 * @throws IOException unable to read the segments
+	 */
+	public void scan(Consumer<Record> consumer) throws IOException {
+		int segmentCount;
+		long lastEnd;
+		synchronized (this) {
+			segmentCount = segments.size();
+			lastEnd = end;
+		}
+		for (int i = 0; i < segmentCount; i++) {
+			long limit = i == segmentCount - 1 ? lastEnd : Files.size(segmentPath(i));
+			try (DataInputStream in = new DataInputStream(
+			        new BufferedInputStream(Files.newInputStream(segmentPath(i)), 1024 * 1024))) {
+				for (long position = 0; position < limit;) {
+					int length = recordLength(in.readInt(), in.readInt());
+					byte[] data = new byte[length];
+					in.readFully(data);
+					consumer.accept(decode(data));
+					position += 8 + length;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of sites that have a page in the archive
+	 */
+	public synchronized int size() {
+		return locations.size();
+	}
+
+	/**
+	 * Writes every queued page, then stops the writer thread and closes
+	 * the segments. Must not be called while workers are still adding pages.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+		}
+		try {
+			queue.put(END);
+			thread.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		synchronized (this) {
+			try {
+				index.close();
+				segments.get(segments.size() - 1).force(false);
+				for (FileChannel segment : segments) {
+					segment.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Opens the segments and loads their indexes. The last segment is
+	 * scanned instead, dropping a record at its end that was not written
+	 * completely, and its index is rewritten.
+	 */
+	private void open() throws IOException {
+		int segmentCount = 0;
+		while (Files.exists(segmentPath(segmentCount))) segmentCount++;
+		for (int i = 0; i < segmentCount - 1; i++) {
+			segments.add(FileChannel.open(segmentPath(i), StandardOpenOption.READ));
+			try (DataInputStream in = new DataInputStream(
+			        new BufferedInputStream(Files.newInputStream(indexPath(i)), 64 * 1024))) {
+				while (true) {
+					long fingerprint = in.readLong();
+					locations.put(fingerprint, location(i, in.readLong()));
+				}
+			} catch (EOFException e) {
+				// The end of the index
+			}
+		}
+
+		int last = Math.max(0, segmentCount - 1);
+		FileChannel segment = FileChannel.open(segmentPath(last), StandardOpenOption.CREATE, StandardOpenOption.READ,
+		        StandardOpenOption.WRITE);
+		segments.add(segment);
+		ByteBuffer entries = ByteBuffer.allocate(16 * 1024);
+		long size = segment.size();
+		end = 0;
+		try (DataInputStream in = new DataInputStream(
+		        new BufferedInputStream(Files.newInputStream(segmentPath(last)), 1024 * 1024))) {
+			while (end + 16 <= size) {
+				int magic = in.readInt();
+				int length = in.readInt();
+				if (magic != MAGIC || length < HEADER_LENGTH + TRAILER_LENGTH - 8 || length > MAX_RECORD_LENGTH
+				        || end + 8 + length > size) {
+					break;
+				}
+				long fingerprint = in.readLong();
+				in.skipNBytes(length - 8);
+				locations.put(fingerprint, location(last, end));
+				entries = ensureRemaining(entries, 16);
+				entries.putLong(fingerprint).putLong(end);
+				end += 8 + length;
+			}
+		}
+		segment.truncate(end);
+		segment.position(end);
+		index = FileChannel.open(indexPath(last), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		        StandardOpenOption.TRUNCATE_EXISTING);
+		append(index, entries);
+	}
+
+	/**
+	 * The body of the writer thread.
+	 */
+	private void writeBatches() {
+		List<Pending> batch = new ArrayList<Pending>();
+		boolean stopped = false;
+		while (!stopped) {
+			// Collect pages until the batch is full or the flush interval has passed
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+			int batchBytes = 0;
+			try {
+				while (batchBytes < BATCH_BYTES) {
+					Pending pending = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (pending == null) break;
+					if (pending == END) {
+						stopped = true;
+						break;
+					}
+					batch.add(pending);
+					batchBytes += pending.length;
+				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				stopped = true;
+			}
+
+			if (batch.size() > 0) {
+				try {
+					write(batch);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Appends a batch of pages to the last segment, starting a new segment
+	 * whenever the last one is full, and then records their locations.
+	 */
+	private void write(List<Pending> batch) throws IOException {
+		int first = 0;
+		while (first < batch.size()) {
+			FileChannel segment;
+			int segmentIndex;
+			long position;
+			synchronized (this) {
+				segmentIndex = segments.size() - 1;
+				segment = segments.get(segmentIndex);
+				position = end;
+			}
+			if (position > 0 && position + batch.get(first).length > segmentSize) {
+				roll();
+				continue;
+			}
+
+			// Write the pages that fit in this segment with a single write
+			int last = first;
+			long size = 0;
+			while (last < batch.size() && (size == 0 || position + size + batch.get(last).length <= segmentSize)) {
+				size += batch.get(last++).length;
+			}
+			ByteBuffer[] records = new ByteBuffer[last - first];
+			ByteBuffer entries = ByteBuffer.allocate(16 * records.length);
+			long offset = position;
+			for (int i = first; i < last; i++) {
+				Pending pending = batch.get(i);
+				records[i - first] = ByteBuffer.wrap(pending.record, 0, pending.length);
+				entries.putLong(pending.fingerprint).putLong(offset);
+				offset += pending.length;
+			}
+			// The records are written at the end of the last complete record, and
+			// cut off again if the write fails, so a failed batch leaves nothing behind
+			long indexPosition = index.position();
+			try {
+				segment.position(position);
+				while (records[records.length - 1].hasRemaining()) {
+					segment.write(records);
+				}
+				append(index, entries);
+			} catch (IOException e) {
+				try {
+					segment.truncate(position);
+					index.truncate(indexPosition);
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+				throw e;
+			}
+
+			synchronized (this) {
+				offset = position;
+				for (int i = first; i < last; i++) {
+					locations.put(batch.get(i).fingerprint, location(segmentIndex, offset));
+					offset += batch.get(i).length;
+				}
+				end = offset;
+			}
+			first = last;
+		}
+	}
+
+	/**
+	 * Closes the index of the last segment, and starts a new segment.
+	 */
+	private void roll() throws IOException {
+		int next;
+		synchronized (this) {
+			next = segments.size();
+			segments.get(next - 1).force(false);
+		}
+		index.force(false);
+		index.close();
+		FileChannel segment = FileChannel.open(segmentPath(next), StandardOpenOption.CREATE, StandardOpenOption.READ,
+		        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		index = FileChannel.open(indexPath(next), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		        StandardOpenOption.TRUNCATE_EXISTING);
+		synchronized (this) {
+			segments.add(segment);
+			end = 0;
+		}
+	}
+
+	private Path segmentPath(int segment) {
+		return directory.resolve(String.format("%06d.pages", segment));
+	}
+
+	private Path indexPath(int segment) {
+		return directory.resolve(String.format("%06d.index", segment));
+	}
+
+	private static long location(int segment, long offset) {
+		return (long) segment << OFFSET_BITS | offset;
+	}
+
+	/**
+	 * @return the length of the data of a record with the given header
+	 * @throws IOException the header is not that of a record
+	 */
+	private static int recordLength(int magic, int length) throws IOException {
+		if (magic != MAGIC || length < HEADER_LENGTH + TRAILER_LENGTH - 8 || length > MAX_RECORD_LENGTH) {
+			throw new IOException("damaged page archive record");
+		}
+		return length;
+	}
+
+	/**
+	 * Decodes and decompresses the data of a record.
+	 */
+	private static Record decode(byte[] data) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		// Skip the fingerprint
+		buffer.position(8);
+		long fetched = buffer.getLong();
+		int status = buffer.getShort();
+		boolean truncated = buffer.get() != 0;
+		String site = getString(buffer);
+		String contentType = getString(buffer);
+		byte[] body = new byte[buffer.getInt()];
+		int crc = buffer.getInt();
+
+		Inflater inflater = INFLATERS.get();
+		inflater.reset();
+		inflater.setInput(data, buffer.position(), buffer.remaining());
+		try {
+			int length = 0;
+			while (length < body.length && !inflater.finished()) {
+				int inflated = inflater.inflate(body, length, body.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+				length += inflated;
+			}
+			CRC32 check = new CRC32();
+			check.update(body, 0, length);
+			if (length != body.length || (int) check.getValue() != crc) throw new IOException("damaged page archive record");
+		} catch (DataFormatException e) {
+			throw new IOException("damaged page archive record", e);
+		}
+		return new Record(site, fetched, status, truncated, contentType, body);
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xffff;
+		String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+
+	/**
+	 * @return the UTF-8 bytes of a string, cut off at the largest length
+	 * that a record can hold
+	 */
+	private static byte[] bytesOf(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		return bytes.length > 0xffff ? Arrays.copyOf(bytes, 0xffff) : bytes;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+		}
+	}
+
+	private static void append(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static ByteBuffer ensureRemaining(ByteBuffer buffer, int size) {
+		if (buffer.remaining() >= size) return buffer;
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	/**
+	 * A page in the archive.
+	 */
+	static class Record {
+		private final String site;
+		private final long fetched;
+		private final int status;
+		private final boolean truncated;
+		private final String contentType;
+		private final byte[] body;
+
+		private Record(String site, long fetched, int status, boolean truncated, String contentType, byte[] body) {
+			this.site = site;
+			this.fetched = fetched;
+			this.status = status;
+			this.truncated = truncated;
+			this.contentType = contentType;
+			this.body = body;
+		}
+
+		/**
+		 * @return the URL that the page was fetched from
+		 */
+		public String getSite() {
+			return site;
+		}
+
+		/**
+		 * @return the time of the fetch, in milliseconds since the epoch
+		 */
+		public long getFetched() {
+			return fetched;
+		}
+
+		/**
+		 * @return the HTTP status code of the response
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return true if only the beginning of the response body was downloaded
+		 */
+		public boolean isTruncated() {
+			return truncated;
+		}
+
+		/**
+		 * @return the value of the Content-Type header, or the empty string
+		 */
+		public String getContentType() {
+			return contentType;
+		}
+
+		/**
+		 * @return the response body
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+	}
+
+	/**
+	 * A compressed record waiting to be written.
+	 */
+	private static class Pending {
+		private final long fingerprint;
+		private final byte[] record;
+		private final int length;
+
+		private Pending(long fingerprint, byte[] record, int length) {
+			this.fingerprint = fingerprint;
+			this.record = record;
+			this.length = length;
+		}
+	}
+}
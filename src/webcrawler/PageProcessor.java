@@ -0,0 +1,34 @@
+package webcrawler;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A PageProcessor extracts data from the pages of a crawl, such as the job
+ * postings or the metadata of every page. The processors that
+ * extract.processors names run one after the other over every crawled
+ * HTML page, on a pool of threads of their own, after the links of the
+ * page have been found. They share the page's document, which is parsed
+ * at most once for all of them.
+ *
+ * Every record that a processor extracts is a set of named fields, which
+ * is stored with the site and the type of the processor in the
+ * 'extracts' table. Processors are called for several pages at once, so
+ * they must be threadsafe, and a processor that is named by its class
+ * needs a public constructor without arguments.
+ */
+public interface PageProcessor {
+	/**
+	 * @return the type that the records of this processor are stored
+	 * under, at most Schema.MAX_EXTRACT_TYPE_LENGTH characters long
+	 */
+	String type();
+
+	/**
+	 * Extracts data from a page.
+	 *
+	 * @param page the crawled page
+	 * @param records receives the extracted records, by field name, if any
+	 */
+	void process(ParsedPage page, Consumer<Map<String, String>> records);
+}
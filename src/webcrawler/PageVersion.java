@@ -0,0 +1,116 @@
+package webcrawler;
+
+/**
+ * A PageVersion is what the crawler remembers about the last version of
+ * a site that it downloaded: the validators that the server sent with it,
+ * a hash of its body, and how long to wait before fetching it again.
+ *
+ * The validators are sent back when the site is recrawled, so that a
+ * server can answer that the page has not been modified without sending
+ * it again. Servers that do not support validators send the whole page,
+ * which is then compared with the last version by its hash. The interval
+ * adapts to how often the site changes: it is doubled every time the site
+ * is found unchanged, and halved every time it has changed.
+ */
+final class PageVersion {
+	private final String etag;
+	private final String lastModified;
+	private final long contentHash;
+	private final long interval;
+
+	// Rep invariant:
+	//		interval >= 0
+	// Abstraction function:
+	//		Represents the version of a page with the ETag etag and the
+	//		Last-Modified date lastModified, either of which may be null,
+	//		whose body hashes to contentHash, and which is due to be fetched
+	//		again interval milliseconds after it was downloaded.
+	// Thread safety argument:
+	//		PageVersion is immutable.
+
+	/**
+	 * @param etag the value of the ETag header, or null
+	 * @param lastModified the value of the Last-Modified header, or null
+	 * @param contentHash the fingerprint of the body
+	 * @param interval the number of milliseconds after which the site is
+	 *            fetched again
+	 */
+	public PageVersion(String etag, String lastModified, long contentHash, long interval) {
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.contentHash = contentHash;
+		this.interval = interval;
+	}
+
+	/**
+	 * @return the value of the ETag header, or null if there was none
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * @return the value of the Last-Modified header, or null if there was none
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the fingerprint of the body
+	 */
+	public long getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * @return the number of milliseconds after which the site is fetched again
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @param page a response to a request for the site that carried the
+	 *            validators of this version
+	 * @return true if the response is the same page as this version
+	 */
+	public boolean isSameAs(Page page) {
+		return page.isNotModified() || (page.isSuccess() && Fingerprint.of(page.getBody()) == contentHash);
+	}
+
+	/**
+	 * @param page a response that is the same page as this version
+	 * @param maxInterval the longest interval between two fetches
+	 * @return this version with the validators of the response, if it has
+	 * any, that is fetched again after twice the interval
+	 */
+	public PageVersion unchanged(Page page, long maxInterval) {
+		return new PageVersion(page.getEtag() != null ? page.getEtag() : etag,
+		        page.getLastModified() != null ? page.getLastModified() : lastModified, contentHash,
+		        Math.min(maxInterval, Math.max(1, interval) * 2));
+	}
+
+	/**
+	 * @param page a successful response that is not the same page as
+	 *            this version
+	 * @param minInterval the shortest interval between two fetches
+	 * @return the version of the response, which is fetched again after
+	 * half the interval
+	 */
+	public PageVersion changed(Page page, long minInterval) {
+		return new PageVersion(page.getEtag(), page.getLastModified(), Fingerprint.of(page.getBody()),
+		        Math.max(minInterval, interval / 2));
+	}
+
+	/**
+	 * @param page a successful response to a request for a site that was
+	 *            fetched for the first time
+	 * @param interval the number of milliseconds after which the site is
+	 *            fetched again
+	 * @return the version of the response
+	 */
+	public static PageVersion of(Page page, long interval) {
+		return new PageVersion(page.getEtag(), page.getLastModified(), Fingerprint.of(page.getBody()), interval);
+	}
+}
@@ -0,0 +1,74 @@
+package webcrawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+/**
+ * A ParsedPage is a crawled page on its way through the stages that look
+ * at its content: the link extraction of the crawl, and then the page
+ * processors. The page is parsed into a Jsoup document the first time a
+ * stage asks for it, and every later stage gets the same document, so
+ * adding processors does not add parses. This class is not threadsafe,
+ * but a page is only ever looked at by one stage at a time.
+ */
+class ParsedPage {
+	private final String site;
+	private final Page page;
+	// The parsed document, or null if it has not been parsed or could not be
+	private Document document;
+	private boolean parsed;
+
+	// Rep invariant:
+	//		site != null, page != null, document == null if !parsed
+	// Abstraction function:
+	//		Represents the page downloaded from site, whose document is
+	//		document once parsed is true.
+
+	/**
+	 * @param site the site that the page was fetched from
+	 * @param page the downloaded page
+	 */
+	public ParsedPage(String site, Page page) {
+		this.site = site;
+		this.page = page;
+		this.document = null;
+		this.parsed = false;
+	}
+
+	/**
+	 * @return the site that the page was fetched from
+	 */
+	public String getSite() {
+		return site;
+	}
+
+	/**
+	 * @return the downloaded page
+	 */
+	public Page getPage() {
+		return page;
+	}
+
+	/**
+	 * Returns the document of the page, parsing it the first time.
+	 *
+	 * @return the document, or null if the page is not HTML or cannot be parsed
+	 */
+	public Document document() {
+		if (!parsed) {
+			parsed = true;
+			if (!page.isHtml()) return null;
+			try {
+				document = Jsoup.parse(new ByteArrayInputStream(page.getBody()), page.getCharset(), page.getUrl());
+			} catch (IOException e) {
+				document = null;
+			} catch (IllegalArgumentException e) {
+				document = null;
+			}
+		}
+		return document;
+	}
+}
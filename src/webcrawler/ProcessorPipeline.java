@@ -0,0 +1,229 @@
+package webcrawler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ProcessorPipeline runs the configured page processors over the pages
+ * of a crawl session, on a pool of threads of its own, and hands the
+ * records that they extract to an ExtractWriter.
+ *
+ * The crawl hands every page over once its links have been found, while
+ * the site still holds its fetch slot, so handing a page over never
+ * waits: when as many pages are waiting as the queue holds, the page is
+ * skipped and counted instead, and slow processors never hold up
+ * fetching or parsing. The processors of a page run one after the other
+ * on the same thread, over the same ParsedPage, so the page is parsed at
+ * most once however many processors there are, while different pages
+ * are processed in parallel.
+ *
+ * When the crawl ends, the pipeline processes the pages that are still
+ * waiting before it closes. When the crawl is cancelled, those pages are
+ * skipped, the processors that are running are interrupted, and the
+ * pipeline closes without waiting for processors that do not stop.
+ */
+class ProcessorPipeline {
+	// The number of milliseconds that a cancelled pipeline waits for its processors to stop
+	private static final long CANCEL_TIMEOUT = 1000;
+	private final List<PageProcessor> processors;
+	private final ExtractWriter writer;
+	private final CrawlMetrics metrics;
+	private final ExecutorService pool;
+	// One permit for every page that may be processed or waiting
+	private final Semaphore backlog;
+	// True once the pages that are waiting are being skipped
+	private volatile boolean cancelled;
+
+	// Rep invariant:
+	//		all fields != null, !processors.isEmpty()
+	// Abstraction function:
+	//		Represents the processors, and the pages that have been handed
+	//		to pool but have not been processed yet.
+	// Thread safety argument:
+	//		processors is never modified and PageProcessors are threadsafe.
+	//		ExtractWriter, CrawlMetrics, ExecutorService and Semaphore are
+	//		threadsafe, and all fields are final except cancelled, which
+	//		is volatile.
+
+	private ProcessorPipeline(List<PageProcessor> processors, ExtractWriter writer, CrawlMetrics metrics,
+	        CrawlerConfig config) {
+		int threads = Math.max(1, config.extractThreads());
+		this.processors = processors;
+		this.writer = writer;
+		this.metrics = metrics;
+		// Processors that do not stop when cancelled must not keep the server alive
+		this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "page-processor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.backlog = new Semaphore(threads + Math.max(0, config.extractQueueCapacity()));
+		this.cancelled = false;
+	}
+
+	/**
+	 * Creates the pipeline of the processors that extract.processors names.
+	 * Names that are neither a built-in processor nor a PageProcessor class
+	 * are reported and skipped. The pipeline does not run until start() is
+	 * called.
+	 *
+	 * @param store the store of the database
+	 * @param database the name of the database to write the records to
+	 * @param metrics the metrics to record the processed pages in
+	 * @param config the crawler configuration
+	 * @return the pipeline, or null if no processors are configured
+	 */
+	public static ProcessorPipeline create(CrawlStore store, String database, CrawlMetrics metrics,
+	        CrawlerConfig config) {
+		List<PageProcessor> processors = new ArrayList<PageProcessor>();
+		for (String name : config.extractProcessors()) {
+			PageProcessor processor = processor(name);
+			if (processor == null) {
+				System.err.println("invalid value for extract.processors: " + name);
+			} else if (processor.type() == null || processor.type().isEmpty()
+			        || processor.type().length() > Schema.MAX_EXTRACT_TYPE_LENGTH) {
+				System.err.println("invalid type of page processor " + name + ": " + processor.type());
+			} else {
+				processors.add(processor);
+			}
+		}
+		if (processors.isEmpty()) return null;
+		return new ProcessorPipeline(processors, new ExtractWriter(store, database, metrics, config), metrics, config);
+	}
+
+	/**
+	 * @param name the name of a built-in processor, or the class name of a
+	 *            PageProcessor
+	 * @return the processor, or null if there is none with the name
+	 */
+	private static PageProcessor processor(String name) {
+		switch (name) {
+		case "metadata":
+			return new MetadataProcessor();
+		case "job-posting":
+			return new JobPostingProcessor();
+		default:
+			try {
+				return Class.forName(name).asSubclass(PageProcessor.class).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				return null;
+			} catch (ClassCastException e) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Starts the writer of the extracted records.
+	 */
+	public void start() {
+		writer.start();
+	}
+
+	/**
+	 * Queues a page to be processed by every processor, unless the queue is
+	 * full or the pipeline is closing, in which case the page is skipped.
+	 * Never blocks. The caller must not use the page afterwards.
+	 *
+	 * @param page the crawled page
+	 * @return true if the page was queued, false if it was skipped
+	 */
+	public boolean submit(ParsedPage page) {
+		if (!backlog.tryAcquire()) {
+			metrics.extractSkipped(1);
+			return false;
+		}
+		try {
+			pool.execute(new Runnable() {
+				public void run() {
+					try {
+						process(page);
+					} finally {
+						backlog.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			backlog.release();
+			metrics.extractSkipped(1);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Skips the pages that are waiting to be processed, and interrupts the
+	 * processors that are running, so that close() returns promptly. May be
+	 * called while close() is waiting.
+	 */
+	public void cancel() {
+		cancelled = true;
+		metrics.extractSkipped(pool.shutdownNow().size());
+	}
+
+	/**
+	 * Processes every queued page, unless the pipeline is cancelled before
+	 * or meanwhile, and writes the extracted records to the database, then
+	 * stops the threads of the pipeline. Must not be called while pages
+	 * are still being submitted.
+	 */
+	public void close() {
+		pool.shutdown();
+		try {
+			while (!pool.awaitTermination(CANCEL_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				if (cancelled) {
+					System.err.println("page processors did not stop, leaving them behind");
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		writer.close();
+	}
+
+	/**
+	 * Runs every processor over a page, and queues the records that they
+	 * extract. The records of a processor that fails are dropped.
+	 */
+	private void process(ParsedPage page) {
+		String site = page.getSite();
+		long nanos = 0;
+		int count = 0;
+		List<Map<String, String>> records = new ArrayList<Map<String, String>>();
+		try {
+			for (PageProcessor processor : processors) {
+				// A cancelled pipeline stops after the processor that was running
+				if (Thread.currentThread().isInterrupted()) break;
+				long start = System.nanoTime();
+				records.clear();
+				try {
+					processor.process(page, records::add);
+				} catch (RuntimeException e) {
+					metrics.extractFailed();
+					continue;
+				} finally {
+					nanos += System.nanoTime() - start;
+				}
+				for (Map<String, String> record : records) {
+					String data = Json.write(record);
+					if (data.length() > Schema.MAX_EXTRACT_DATA_LENGTH) {
+						metrics.extractFailed();
+						continue;
+					}
+					writer.write(site, processor.type(), data);
+					count++;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		metrics.extracted(count, nanos);
+	}
+}
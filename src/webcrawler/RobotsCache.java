@@ -0,0 +1,160 @@
+package webcrawler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A RobotsCache holds the robots.txt rules of the hosts being crawled.
+ * Each robots.txt file is downloaded once and then kept until it
+ * expires or until it is the least recently used file and the cache is
+ * full. When many sites of a new host are crawled at the same time,
+ * they all wait for the same download.
+ *
+ * As described in RFC 9309, a missing robots.txt file (a 4xx response)
+ * allows everything, and an unreachable one (a 5xx response or a failed
+ * request) disallows everything until it is downloaded again, which
+ * happens sooner than for files that were downloaded successfully.
+ */
+class RobotsCache {
+	// Number of milliseconds to keep the rules of unreachable robots.txt files
+	private static final long UNREACHABLE_TTL = 10 * 60 * 1000;
+	// Maximum number of bytes of a robots.txt file that are downloaded
+	private static final int MAX_ROBOTS_SIZE = 500 * 1024;
+	private final Fetcher fetcher;
+	private final boolean enabled;
+	private final String userAgent;
+	private final long ttl;
+	// Downloaded rules by origin, in least recently used order
+	private final LinkedHashMap<String, Entry> cache;
+	// Downloads that are in progress, by origin
+	private final Map<String, CompletableFuture<RobotsRules>> downloads;
+
+	// Rep invariant:
+	//		all fields != null, ttl > 0
+	//		cache.size() <= its capacity
+	//		no origin is a key of both cache and downloads
+	// Abstraction function:
+	//		Represents the robots.txt rules of the origins in cache, which
+	//		are valid until their expiry time, and of the origins in
+	//		downloads, which are valid once they have been downloaded.
+	// Thread safety argument:
+	//		cache and downloads are only accessed while holding this object's
+	//		lock. The other fields are final and immutable or threadsafe.
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param fetcher the fetcher that downloads robots.txt files
+	 * @param config the crawler configuration
+	 */
+	public RobotsCache(Fetcher fetcher, CrawlerConfig config) {
+		this.fetcher = fetcher;
+		this.enabled = config.robotsEnabled();
+		this.userAgent = config.fetchUserAgent();
+		this.ttl = config.robotsTtl();
+		int capacity = config.robotsCacheSize();
+		this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+		this.downloads = new HashMap<String, CompletableFuture<RobotsRules>>();
+	}
+
+	/**
+	 * Gets the robots.txt rules of a site's host, and starts downloading
+	 * them if they are not in the cache.
+	 *
+	 * @param site a URL in canonical form
+	 * @return the rules that apply to the site, which allow everything if
+	 * robots.txt files are not obeyed
+	 */
+	public CompletableFuture<RobotsRules> rules(String site) {
+		String origin = originOf(site);
+		if (!enabled || origin == null) return CompletableFuture.completedFuture(RobotsRules.ALLOW_ALL);
+
+		CompletableFuture<RobotsRules> download;
+		synchronized (this) {
+			Entry entry = cache.get(origin);
+			if (entry != null && entry.expires > System.currentTimeMillis()) {
+				return CompletableFuture.completedFuture(entry.rules);
+			}
+			download = downloads.get(origin);
+			if (download != null) return download;
+
+			cache.remove(origin);
+			download = new CompletableFuture<RobotsRules>();
+			downloads.put(origin, download);
+		}
+
+		// Download outside of the lock, and share the result with every
+		// site that asked for it in the meantime
+		CompletableFuture<RobotsRules> result = download;
+		fetcher.fetchText(origin + "/robots.txt", MAX_ROBOTS_SIZE).whenComplete((page, error) -> {
+			RobotsRules rules;
+			long expires = System.currentTimeMillis();
+			if (error != null || page.getStatus() >= 500) {
+				rules = RobotsRules.DISALLOW_ALL;
+				expires += Math.min(ttl, UNREACHABLE_TTL);
+			} else if (page.getStatus() >= 400) {
+				rules = RobotsRules.ALLOW_ALL;
+				expires += ttl;
+			} else {
+				rules = RobotsRules.parse(new String(page.getBody(), StandardCharsets.UTF_8), userAgent);
+				expires += ttl;
+			}
+			synchronized (this) {
+				downloads.remove(origin);
+				cache.put(origin, new Entry(rules, expires));
+			}
+			result.complete(rules);
+		});
+		return result;
+	}
+
+	/**
+	 * @return the number of origins whose rules are cached
+	 */
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	/**
+	 * @param site a URL in canonical form
+	 * @return the path and query of the URL
+	 */
+	public static String pathOf(String site) {
+		int schemeEnd = site.indexOf("://");
+		int pathStart = schemeEnd < 0 ? -1 : site.indexOf('/', schemeEnd + 3);
+		return pathStart < 0 ? "/" : site.substring(pathStart);
+	}
+
+	/**
+	 * @param site a URL in canonical form
+	 * @return the scheme, host and port of the URL, or null if it has none
+	 */
+	private static String originOf(String site) {
+		int schemeEnd = site.indexOf("://");
+		if (schemeEnd <= 0) return null;
+		int pathStart = site.indexOf('/', schemeEnd + 3);
+		return pathStart < 0 ? site : site.substring(0, pathStart);
+	}
+
+	/**
+	 * The rules of one origin and the time at which they expire.
+	 */
+	private static class Entry {
+		private final RobotsRules rules;
+		private final long expires;
+
+		private Entry(RobotsRules rules, long expires) {
+			this.rules = rules;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package webcrawler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * RobotsRules are the rules of a robots.txt file that apply to this
+ * crawler, compiled so that checking a URL does no parsing and compiles
+ * no regular expressions.
+ *
+ * The rules follow RFC 9309: the group whose user-agent line is the
+ * longest match for the crawler's user agent is used, and otherwise the
+ * "*" group. Patterns may contain '*' wildcards and end with '$'. The
+ * longest pattern that matches a path decides whether it may be crawled,
+ * and allow rules win ties. The non-standard crawl-delay line is also
+ * supported.
+ */
+class RobotsRules {
+	public static final RobotsRules ALLOW_ALL = new RobotsRules(Collections.<Rule> emptyList(), 0);
+	public static final RobotsRules DISALLOW_ALL = new RobotsRules(Collections.singletonList(new Rule("/", false)), 0);
+	// Crawl delays longer than this are treated as this long
+	private static final long MAX_CRAWL_DELAY = 60000;
+	// Rules ordered from the longest pattern to the shortest
+	private final List<Rule> rules;
+	private final long crawlDelay;
+
+	// Rep invariant:
+	//		rules != null, and is sorted by decreasing pattern length, with
+	//		allow rules before disallow rules of the same length
+	//		0 <= crawlDelay <= MAX_CRAWL_DELAY
+	// Abstraction function:
+	//		Represents the set of paths that match no rule, or whose first
+	//		matching rule in rules is an allow rule, where requests must be
+	//		crawlDelay milliseconds apart.
+	// Thread safety argument:
+	//		This class is immutable.
+
+	private RobotsRules(List<Rule> rules, long crawlDelay) {
+		this.rules = rules;
+		this.crawlDelay = crawlDelay;
+	}
+
+	/**
+	 * Parses a robots.txt file.
+	 *
+	 * @param text the contents of the file
+	 * @param userAgent the User-Agent header of the crawler
+	 * @return the rules that apply to the crawler
+	 */
+	public static RobotsRules parse(String text, String userAgent) {
+		String product = userAgent.trim().split("[/ ]", 2)[0].toLowerCase(Locale.ROOT);
+
+		// The best group found so far, and the group being read
+		List<Rule> bestRules = null;
+		long bestDelay = 0;
+		int bestMatch = -1;
+		List<Rule> groupRules = new ArrayList<Rule>();
+		long groupDelay = 0;
+		int groupMatch = -1;
+		boolean inAgents = false;
+
+		for (String line : text.split("\r\n|\r|\n")) {
+			int comment = line.indexOf('#');
+			if (comment >= 0) line = line.substring(0, comment);
+			int colon = line.indexOf(':');
+			if (colon < 0) continue;
+			String key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+			String value = line.substring(colon + 1).trim();
+
+			if (key.equals("user-agent")) {
+				if (!inAgents) {
+					// A new group starts, so keep the previous group if it is the best one
+					if (groupMatch > bestMatch) {
+						bestRules = groupRules;
+						bestDelay = groupDelay;
+						bestMatch = groupMatch;
+					}
+					groupRules = new ArrayList<Rule>();
+					groupDelay = 0;
+					groupMatch = -1;
+					inAgents = true;
+				}
+				String agent = value.toLowerCase(Locale.ROOT);
+				if (agent.equals("*")) groupMatch = Math.max(groupMatch, 0);
+				else if (!agent.isEmpty() && product.startsWith(agent)) groupMatch = Math.max(groupMatch, agent.length());
+			} else if (key.equals("allow") || key.equals("disallow")) {
+				inAgents = false;
+				// An empty disallow rule allows everything
+				if (!value.isEmpty()) groupRules.add(new Rule(value, key.equals("allow")));
+			} else if (key.equals("crawl-delay")) {
+				inAgents = false;
+				try {
+					double seconds = Double.parseDouble(value);
+					if (seconds > 0) groupDelay = Math.min(MAX_CRAWL_DELAY, (long) (seconds * 1000));
+				} catch (NumberFormatException e) {
+					// Ignore invalid crawl delays
+				}
+			}
+		}
+		if (groupMatch > bestMatch) {
+			bestRules = groupRules;
+			bestDelay = groupDelay;
+		}
+		if (bestRules == null) return ALLOW_ALL;
+
+		Collections.sort(bestRules, (a, b) -> {
+			if (a.length != b.length) return Integer.compare(b.length, a.length);
+			return Boolean.compare(b.allow, a.allow);
+		});
+		return new RobotsRules(bestRules, bestDelay);
+	}
+
+	/**
+	 * @param path the path of a URL, including its query
+	 * @return true if the URL may be crawled
+	 */
+	public boolean isAllowed(String path) {
+		for (Rule rule : rules) {
+			if (rule.matches(path)) return rule.allow;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the minimum number of milliseconds between requests that the
+	 * host asks for, or 0 if it does not ask for one
+	 */
+	public long getCrawlDelay() {
+		return crawlDelay;
+	}
+
+	/**
+	 * A single allow or disallow line, with its pattern split at the
+	 * wildcards into literal parts.
+	 */
+	private static class Rule {
+		private final String[] parts;
+		private final boolean anchored;
+		private final boolean allow;
+		// Length of the pattern, which gives the precedence of the rule
+		private final int length;
+
+		private Rule(String pattern, boolean allow) {
+			this.length = pattern.length();
+			this.anchored = pattern.endsWith("$");
+			if (anchored) pattern = pattern.substring(0, pattern.length() - 1);
+			this.parts = pattern.split("\\*", -1);
+			this.allow = allow;
+		}
+
+		/**
+		 * The first part must match at the start of the path, and every other
+		 * part at the earliest position after the previous one. If the rule
+		 * is anchored, the last part must match at the end of the path.
+		 */
+		private boolean matches(String path) {
+			if (!path.startsWith(parts[0])) return false;
+			int position = parts[0].length();
+			int last = parts.length - 1;
+			for (int i = 1; i < last; i++) {
+				position = path.indexOf(parts[i], position);
+				if (position < 0) return false;
+				position += parts[i].length();
+			}
+			if (last == 0) return !anchored || position == path.length();
+			if (anchored) return path.length() - parts[last].length() >= position && path.endsWith(parts[last]);
+			return path.indexOf(parts[last], position) >= 0;
+		}
+	}
+}
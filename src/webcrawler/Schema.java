@@ -0,0 +1,247 @@
+package webcrawler;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The Schema class creates and migrates the tables of a crawl database.
+ *
+ * Version 2 of the schema keys every URL by its 64-bit fingerprint, so
+ * lookups and duplicate checks are primary key operations whose cost does
+ * not grow with the size of the crawl. Sites reference a normalized
+ * 'hosts' table, and remember their fetch status and times.
+ * Version 3 adds the validators, body fingerprint and revisit schedule of
+ * every fetched site, so that sites can be recrawled with conditional
+ * requests once they are due.
+ * Version 4 adds the 'extracts' table, which holds the records that the
+ * page processors extract from crawled pages.
+ * Version 1 stored plain URLs without any keys.
+ */
+final class Schema {
+	public static final int VERSION = 4;
+	public static final int MAX_SITE_LENGTH = 1023;
+	public static final int MAX_HOST_LENGTH = 255;
+	// Validators that are longer than their columns are not stored
+	public static final int MAX_ETAG_LENGTH = 255;
+	public static final int MAX_LAST_MODIFIED_LENGTH = 64;
+	// Extracted records that are longer than their columns are dropped. A
+	// TEXT column holds 65535 bytes, which is room for this many characters
+	// of any UTF-8 text.
+	public static final int MAX_EXTRACT_TYPE_LENGTH = 64;
+	public static final int MAX_EXTRACT_DATA_LENGTH = 16383;
+
+	// Values of the 'status' column of the 'sites' table
+	public static final int STATUS_DISCOVERED = 0;
+	public static final int STATUS_FETCHED = 1;
+	public static final int STATUS_FAILED = 2;
+	public static final int STATUS_DISALLOWED = 3;
+	public static final int STATUS_DUPLICATE = 4;
+
+	private static final int FETCH_SIZE = 10000;
+	private static final int BATCH_SIZE = 1000;
+	// Columns of the 'sites' table that version 3 added
+	private static final String[] REVISIT_COLUMNS = { "etag VARCHAR(" + MAX_ETAG_LENGTH + ") null",
+	        "last_modified VARCHAR(" + MAX_LAST_MODIFIED_LENGTH + ") null", "content_hash BIGINT null",
+	        "revisit_interval BIGINT null", "next_fetch TIMESTAMP null" };
+	// Columns of the 'extracts' table that version 4 added
+	private static final String EXTRACTS_COLUMNS = "(id BIGINT auto_increment primary key, site_id BIGINT not null,"
+	        + " type VARCHAR(" + MAX_EXTRACT_TYPE_LENGTH + ") not null, data TEXT not null,"
+	        + " extracted TIMESTAMP not null default current_timestamp, key(site_id), key(type));";
+
+	private Schema() {
+	}
+
+	/**
+	 * Creates or replaces all tables of the current schema version.
+	 *
+	 * @param stmt a statement of a connection using the crawl database
+	 * @throws SQLException unable to create the tables
+	 */
+	public static void create(Statement stmt) throws SQLException {
+		createTables(stmt, "");
+		stmt.executeUpdate("create or replace table schema_version(version INT not null);");
+		stmt.executeUpdate("insert into schema_version values (" + VERSION + ");");
+	}
+
+	/**
+	 * Creates or replaces the 'state' table.
+	 *
+	 * @param stmt a statement of a connection using the crawl database
+	 * @param suffix appended to the table name
+	 * @throws SQLException unable to create the table
+	 */
+	public static void createState(Statement stmt, String suffix) throws SQLException {
+		stmt.executeUpdate("create or replace table state" + suffix + "(id BIGINT primary key, site VARCHAR("
+		        + MAX_SITE_LENGTH + ") not null);");
+	}
+
+	/**
+	 * @param connection a connection using the crawl database
+	 * @return the schema version of the database, or 0 if it has no tables
+	 * @throws SQLException unable to read the schema version
+	 */
+	public static int version(Connection connection) throws SQLException {
+		if (tableExists(connection, "schema_version")) {
+			try (Statement stmt = connection.createStatement()) {
+				ResultSet version = stmt.executeQuery("select max(version) from schema_version;");
+				if (version.next()) return version.getInt(1);
+			}
+		}
+		return tableExists(connection, "sites") ? 1 : 0;
+	}
+
+	/**
+	 * Migrates a version 1, 2 or 3 database to the current schema version.
+	 *
+	 * The tables of a version 1 database are filled next to the old ones,
+	 * and then swapped in with a single rename, so the database is never
+	 * left half migrated. The old tables are kept with a '_v1' suffix
+	 * until they are dropped by hand.
+	 *
+	 * A version 2 database only lacks the columns of the revisit schedule,
+	 * which are added to its 'sites' table, and the 'extracts' table. Its
+	 * fetched sites are not recrawled until they are fetched again. A
+	 * version 3 database only lacks the 'extracts' table.
+	 *
+	 * @param connection a connection using the crawl database
+	 * @return the number of sites that were migrated
+	 * @throws SQLException unable to migrate the database
+	 */
+	public static long migrate(Connection connection) throws SQLException {
+		int version = version(connection);
+		if (version == 2 || version == 3) return upgrade(connection, version);
+
+		long migrated = 0;
+		try (Statement stmt = connection.createStatement()) {
+			createTables(stmt, "_v2");
+
+			migrated = copySites(connection);
+			copy(connection, "select site, visited from seeds;",
+			        "insert ignore into seeds_v2 (id, site, visited) values (?, ?, ?);", true);
+			copy(connection, "select site from state;", "insert ignore into state_v2 (id, site) values (?, ?);", false);
+
+			stmt.executeUpdate("rename table sites to sites_v1, sites_v2 to sites, seeds to seeds_v1, seeds_v2 to seeds,"
+			        + " state to state_v1, state_v2 to state, hosts_v2 to hosts, extracts_v2 to extracts;");
+			stmt.executeUpdate("create or replace table schema_version(version INT not null);");
+			stmt.executeUpdate("insert into schema_version values (" + VERSION + ");");
+		}
+		return migrated;
+	}
+
+	/**
+	 * Creates or replaces the 'hosts', 'seeds', 'sites', 'state' and 'extracts' tables.
+	 */
+	private static void createTables(Statement stmt, String suffix) throws SQLException {
+		stmt.executeUpdate("create or replace table hosts" + suffix + "(id BIGINT primary key, host VARCHAR("
+		        + MAX_HOST_LENGTH + ") not null);");
+		stmt.executeUpdate("create or replace table seeds" + suffix + "(id BIGINT primary key, site VARCHAR("
+		        + MAX_SITE_LENGTH + ") not null, visited bit not null default 0, key(visited));");
+		stmt.executeUpdate("create or replace table sites" + suffix + "(id BIGINT primary key, host_id BIGINT not null,"
+		        + " site VARCHAR(" + MAX_SITE_LENGTH + ") not null, status TINYINT not null default " + STATUS_DISCOVERED
+		        + ", discovered TIMESTAMP not null default current_timestamp, fetched TIMESTAMP null,"
+		        + " " + String.join(", ", REVISIT_COLUMNS) + ", key(host_id), key(status), key(next_fetch));");
+		createState(stmt, suffix);
+		stmt.executeUpdate("create or replace table extracts" + suffix + EXTRACTS_COLUMNS);
+	}
+
+	/**
+	 * Adds the columns of the revisit schedule to a version 2 'sites'
+	 * table, and the 'extracts' table to a version 2 or 3 database.
+	 */
+	private static long upgrade(Connection connection, int version) throws SQLException {
+		try (Statement stmt = connection.createStatement()) {
+			if (version == 2) {
+				for (String column : REVISIT_COLUMNS) {
+					stmt.executeUpdate("alter table sites add column if not exists " + column + ";");
+				}
+				stmt.executeUpdate("create index if not exists sites_next_fetch on sites (next_fetch);");
+			}
+			stmt.executeUpdate("create table if not exists extracts" + EXTRACTS_COLUMNS);
+			stmt.executeUpdate("update schema_version set version = " + VERSION + ";");
+			try (ResultSet count = stmt.executeQuery("select count(*) from sites;")) {
+				return count.next() ? count.getLong(1) : 0;
+			}
+		}
+	}
+
+	/**
+	 * Copies the version 1 'sites' table into 'sites_v2' and 'hosts_v2'.
+	 */
+	private static long copySites(Connection connection) throws SQLException {
+		long copied = 0;
+		LongHashSet hostIds = new LongHashSet(1024);
+		try (Statement select = connection.createStatement();
+		        PreparedStatement insertHost = connection
+		                .prepareStatement("insert ignore into hosts_v2 (id, host) values (?, ?);");
+		        PreparedStatement insertSite = connection
+		                .prepareStatement("insert ignore into sites_v2 (id, host_id, site) values (?, ?, ?);")) {
+			select.setFetchSize(FETCH_SIZE);
+			ResultSet sites = select.executeQuery("select site from sites;");
+			while (sites.next()) {
+				String site = sites.getString(1);
+				if (site == null) continue;
+				String host = hostOf(site);
+				long hostId = Fingerprint.of(host);
+				if (hostIds.add(hostId)) {
+					insertHost.setLong(1, hostId);
+					insertHost.setString(2, host);
+					insertHost.addBatch();
+				}
+				insertSite.setLong(1, Fingerprint.of(site));
+				insertSite.setLong(2, hostId);
+				insertSite.setString(3, site);
+				insertSite.addBatch();
+				if (++copied % BATCH_SIZE == 0) {
+					insertHost.executeBatch();
+					insertSite.executeBatch();
+				}
+			}
+			insertHost.executeBatch();
+			insertSite.executeBatch();
+		}
+		return copied;
+	}
+
+	/**
+	 * Copies the rows of a version 1 table, adding the fingerprint of the
+	 * site as the first column.
+	 */
+	private static void copy(Connection connection, String query, String insert, boolean visited) throws SQLException {
+		try (Statement select = connection.createStatement();
+		        PreparedStatement insertRow = connection.prepareStatement(insert)) {
+			select.setFetchSize(FETCH_SIZE);
+			ResultSet rows = select.executeQuery(query);
+			int batched = 0;
+			while (rows.next()) {
+				String site = rows.getString(1);
+				if (site == null) continue;
+				insertRow.setLong(1, Fingerprint.of(site));
+				insertRow.setString(2, site);
+				if (visited) insertRow.setBoolean(3, rows.getBoolean(2));
+				insertRow.addBatch();
+				if (++batched % BATCH_SIZE == 0) insertRow.executeBatch();
+			}
+			insertRow.executeBatch();
+		}
+	}
+
+	/**
+	 * @param site a URL
+	 * @return the normalized host name that the URL is stored under
+	 */
+	public static String hostOf(String site) {
+		String host = Frontier.hostOf(site);
+		return host.length() > MAX_HOST_LENGTH ? host.substring(0, MAX_HOST_LENGTH) : host;
+	}
+
+	private static boolean tableExists(Connection connection, String table) throws SQLException {
+		DatabaseMetaData metaData = connection.getMetaData();
+		try (ResultSet tables = metaData.getTables(connection.getCatalog(), null, table, null)) {
+			return tables.next();
+		}
+	}
+}
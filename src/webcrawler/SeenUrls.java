@@ -0,0 +1,121 @@
+package webcrawler;
+
+/**
+ * The SeenUrls class is the in-memory set of URLs that the crawler has
+ * already discovered. It answers "already seen?" without touching the
+ * database: a Bloom filter rejects most new URLs immediately, and an exact
+ * set of 64-bit URL fingerprints settles the remaining cases.
+ *
+ * The set is split into independently locked shards, so that workers
+ * checking different URLs rarely wait for each other.
+ */
+class SeenUrls {
+	private static final int SHARD_BITS = 6;
+	private final Shard[] shards;
+
+	// Rep invariant:
+	//		shards.length == 1 << SHARD_BITS
+	//		each fingerprint f is only stored in shards[f >>> (64 - SHARD_BITS)]
+	// Abstraction function:
+	//		Represents the set of URLs whose fingerprints are in the shards.
+	// Thread safety argument:
+	//		shards is never modified after construction, and each shard is
+	//		only accessed while holding its own lock.
+
+	/**
+	 * Creates an empty set.
+	 *
+	 * @param expectedSize the number of URLs expected to be added
+	 */
+	public SeenUrls(long expectedSize) {
+		this.shards = new Shard[1 << SHARD_BITS];
+		long shardSize = Math.max(1, expectedSize >> SHARD_BITS);
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new Shard(shardSize);
+		}
+	}
+
+	/**
+	 * Adds a URL to the set.
+	 *
+	 * @param site the URL to add
+	 * @return true if the URL had not been seen before
+	 */
+	public boolean add(String site) {
+		return addFingerprint(Fingerprint.of(site));
+	}
+
+	/**
+	 * Adds a URL to the set by its fingerprint.
+	 *
+	 * @param fingerprint the fingerprint of the URL to add
+	 * @return true if the URL had not been seen before
+	 */
+	public boolean addFingerprint(long fingerprint) {
+		Shard shard = shardOf(fingerprint);
+		synchronized (shard) {
+			if (shard.bloomFilter.mightContain(fingerprint) && shard.fingerprints.contains(fingerprint)) return false;
+			shard.bloomFilter.add(fingerprint);
+			shard.fingerprints.add(fingerprint);
+			return true;
+		}
+	}
+
+	/**
+	 * @param site a URL
+	 * @return true if the URL has been seen before
+	 */
+	public boolean contains(String site) {
+		long fingerprint = Fingerprint.of(site);
+		Shard shard = shardOf(fingerprint);
+		synchronized (shard) {
+			return shard.bloomFilter.mightContain(fingerprint) && shard.fingerprints.contains(fingerprint);
+		}
+	}
+
+	/**
+	 * Removes a URL from the set, so that it counts as new when it is
+	 * discovered again.
+	 *
+	 * @param site the URL to remove
+	 */
+	public void remove(String site) {
+		long fingerprint = Fingerprint.of(site);
+		Shard shard = shardOf(fingerprint);
+		synchronized (shard) {
+			// The Bloom filter keeps the bit pattern, which only costs an
+			// extra lookup in the exact set
+			shard.fingerprints.remove(fingerprint);
+		}
+	}
+
+	/**
+	 * @return the number of URLs in the set
+	 */
+	public long size() {
+		long size = 0;
+		for (Shard shard : shards) {
+			synchronized (shard) {
+				size += shard.fingerprints.size();
+			}
+		}
+		return size;
+	}
+
+	private Shard shardOf(long fingerprint) {
+		return shards[(int) (fingerprint >>> (64 - SHARD_BITS))];
+	}
+
+	/**
+	 * The fingerprints whose top SHARD_BITS bits select this shard.
+	 */
+	private static class Shard {
+		private final BloomFilter bloomFilter;
+		private final LongHashSet fingerprints;
+
+		private Shard(long expectedSize) {
+			this.bloomFilter = new BloomFilter(expectedSize);
+			this.fingerprints = new LongHashSet((int) Math.min(expectedSize, 1 << 12));
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package webcrawler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ServerLog writes the messages of the server to standard error on a
+ * thread of its own, so that handling a command never waits for the
+ * console. Messages wait in a bounded queue, and are dropped while the
+ * queue is full; the number of dropped messages is logged once there is
+ * room again. Standard error is flushed whenever the queue runs empty.
+ */
+class ServerLog {
+	private static final int CAPACITY = 10000;
+	private final BlockingQueue<String> queue;
+	private final AtomicLong dropped;
+	private final boolean enabled;
+
+	// Rep invariant:
+	//		queue != null, dropped != null, dropped >= 0
+	// Abstraction function:
+	//		Represents the messages in queue, which have not been written
+	//		yet, after dropped messages that were lost.
+	// Thread safety argument:
+	//		queue and dropped are threadsafe, and only the writer thread
+	//		writes to standard error.
+
+	/**
+	 * Creates a log and starts its writer thread.
+	 *
+	 * @param enabled false to discard every message
+	 */
+	public ServerLog(boolean enabled) {
+		this.queue = new ArrayBlockingQueue<String>(CAPACITY);
+		this.dropped = new AtomicLong();
+		this.enabled = enabled;
+		if (enabled) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					writeMessages();
+				}
+			}, "server-log");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Queues a message to be written. Never blocks.
+	 *
+	 * @param message the message, without a line terminator
+	 */
+	public void log(String message) {
+		if (enabled && !queue.offer(message)) dropped.incrementAndGet();
+	}
+
+	/**
+	 * The body of the writer thread.
+	 */
+	private void writeMessages() {
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.err), 64 * 1024);
+		try {
+			while (true) {
+				String message = queue.poll();
+				if (message == null) {
+					out.flush();
+					message = queue.take();
+				}
+				long lost = dropped.getAndSet(0);
+				if (lost > 0) out.write("(" + lost + " log messages dropped)" + System.lineSeparator());
+				out.write(message);
+				out.write(System.lineSeparator());
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
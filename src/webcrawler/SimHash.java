@@ -0,0 +1,139 @@
+package webcrawler;
+
+/**
+ * The SimHash class computes 64-bit SimHash fingerprints of the text of
+ * HTML pages. Unlike a hash of the bytes, the fingerprints of two pages
+ * that share most of their text differ in only a few bits, so copies of a
+ * page that only differ in their markup, links, dates or counters can be
+ * found by the Hamming distance between their fingerprints.
+ *
+ * The text is the words outside of tags, comments, scripts and styles,
+ * in lower case. Every run of SHINGLE_SIZE consecutive words is hashed,
+ * and bit i of the fingerprint is set if bit i is set in most of the
+ * distinct hashes. Like the link extractor, the scanner only looks at
+ * markup, which is ASCII in every ASCII-compatible charset, and treats
+ * every other byte as part of a word.
+ */
+final class SimHash {
+	// Number of words in a shingle
+	private static final int SHINGLE_SIZE = 3;
+	// Pages with fewer distinct shingles have too little text to compare
+	private static final int MIN_SHINGLES = 16;
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private SimHash() {
+	}
+
+	/**
+	 * @param body the bytes of an HTML page
+	 * @return the fingerprint of the text of the page, or 0 if the page
+	 * has too little text to be compared with other pages
+	 */
+	public static long of(byte[] body) {
+		LongHashSet shingles = new LongHashSet(body.length / 8);
+		// Bit j of counts[k] is bit k of the number of distinct shingles
+		// with bit j set, so that adding a shingle to all 64 counts only
+		// takes a few operations
+		long[] counts = new long[32];
+		long[] words = new long[SHINGLE_SIZE];
+		int wordCount = 0;
+		int pos = 0;
+		while (pos < body.length) {
+			byte b = body[pos];
+			if (b == '<') {
+				pos = skipMarkup(body, pos);
+				continue;
+			}
+			if (!isWordByte(b)) {
+				pos++;
+				continue;
+			}
+
+			// Hash the word, and the shingle that it ends
+			long word = FNV_OFFSET_BASIS;
+			while (pos < body.length && isWordByte(body[pos])) {
+				word = (word ^ toLowerCase(body[pos++])) * FNV_PRIME;
+			}
+			words[wordCount++ % SHINGLE_SIZE] = word;
+			if (wordCount >= SHINGLE_SIZE) {
+				long shingle = 0;
+				for (int i = 0; i < SHINGLE_SIZE; i++) {
+					shingle = Long.rotateLeft(shingle, 21) ^ words[(wordCount + i) % SHINGLE_SIZE];
+				}
+				shingle = Fingerprint.mix(shingle);
+				if (shingles.add(shingle)) {
+					for (int k = 0; shingle != 0; k++) {
+						long carry = counts[k] & shingle;
+						counts[k] ^= shingle;
+						shingle = carry;
+					}
+				}
+			}
+		}
+		if (shingles.size() < MIN_SHINGLES) return 0;
+
+		long fingerprint = 0;
+		for (int bit = 0; bit < 64; bit++) {
+			int count = 0;
+			for (int k = 0; k < counts.length; k++) {
+				count |= (int) ((counts[k] >>> bit) & 1) << k;
+			}
+			if (2 * count > shingles.size()) fingerprint |= 1L << bit;
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * @param a a fingerprint
+	 * @param b another fingerprint
+	 * @return the number of bits in which the fingerprints differ
+	 */
+	public static int distance(long a, long b) {
+		return Long.bitCount(a ^ b);
+	}
+
+	/**
+	 * Skips a tag, a comment, or a script or style element, which begins
+	 * at pos.
+	 *
+	 * @return the position after it
+	 */
+	private static int skipMarkup(byte[] body, int pos) {
+		if (startsWith(body, pos, "<!--")) return skipPast(body, pos + 4, "-->");
+		if (startsWith(body, pos, "<script")) return skipPast(body, skipPast(body, pos, ">"), "</script");
+		if (startsWith(body, pos, "<style")) return skipPast(body, skipPast(body, pos, ">"), "</style");
+		return skipPast(body, pos, ">");
+	}
+
+	/**
+	 * @return the position after the first occurrence of a lower case
+	 * ASCII string at or after pos, ignoring case, or body.length if it
+	 * does not occur
+	 */
+	private static int skipPast(byte[] body, int pos, String end) {
+		for (; pos < body.length; pos++) {
+			if (startsWith(body, pos, end)) return pos + end.length();
+		}
+		return body.length;
+	}
+
+	/**
+	 * @return true if a lower case ASCII string occurs at pos, ignoring case
+	 */
+	private static boolean startsWith(byte[] body, int pos, String prefix) {
+		if (pos + prefix.length() > body.length) return false;
+		for (int i = 0; i < prefix.length(); i++) {
+			if (toLowerCase(body[pos + i]) != prefix.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private static boolean isWordByte(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b < 0;
+	}
+
+	private static int toLowerCase(byte b) {
+		return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xff;
+	}
+}
@@ -0,0 +1,148 @@
+package webcrawler;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A SiteWriter is the stage that persists the progress of the crawl.
+ * Crawl workers hand newly discovered sites and the outcome of every
+ * fetch to the writer through a bounded queue, and a dedicated thread
+ * writes them to the 'hosts' and 'sites' tables in batches. A batch is
+ * written once it is full or once the flush interval has passed,
+ * whichever comes first. When the queue is full, workers wait for the
+ * writer to catch up. Sites that are already stored are ignored, so
+ * several writers can fill the same database.
+ */
+class SiteWriter {
+	private final BatchWriter<Entry> batches;
+
+	// Rep invariant:
+	//		batches != null
+	// Abstraction function:
+	//		Represents the entries queued in batches, which describe sites
+	//		that have been discovered or fetched but have not been written
+	//		to the database yet.
+	// Thread safety argument:
+	//		Workers and the writer thread only share batches, which is
+	//		threadsafe. CrawlStore and CrawlMetrics are threadsafe.
+
+	/**
+	 * Creates a writer. The writer thread does not run until start() is called.
+	 *
+	 * @param store the store of the database
+	 * @param database the name of the database to write to
+	 * @param metrics the metrics to record the written batches in
+	 * @param config the crawler configuration
+	 */
+	public SiteWriter(final CrawlStore store, final String database, final CrawlMetrics metrics,
+	        CrawlerConfig config) {
+		this.batches = new BatchWriter<Entry>("site-writer", new BatchWriter.Sink<Entry>() {
+			public void write(List<Entry> batch) throws IOException {
+				long start = System.nanoTime();
+				store.write(database, batch);
+				metrics.written(batch.size(), System.nanoTime() - start);
+			}
+		}, config);
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	public void start() {
+		batches.start();
+	}
+
+	/**
+	 * Queues a newly discovered site to be inserted into the 'sites'
+	 * table. Blocks while the queue is full.
+	 *
+	 * @param site the new site
+	 * @throws InterruptedException the calling thread was interrupted
+	 */
+	public void write(String site) throws InterruptedException {
+		batches.put(new Entry(site, Schema.STATUS_DISCOVERED, null));
+	}
+
+	/**
+	 * Queues the outcome of fetching a site to be recorded in the 'sites'
+	 * table. The site must have been passed to write() before. Blocks
+	 * while the queue is full.
+	 *
+	 * @param site the site that was fetched
+	 * @param success true if the site was fetched successfully
+	 * @param version the version of the site to recrawl it from, or null
+	 *            if the site is not to be recrawled
+	 * @throws InterruptedException the calling thread was interrupted
+	 */
+	public void fetched(String site, boolean success, PageVersion version) throws InterruptedException {
+		batches.put(new Entry(site, success ? Schema.STATUS_FETCHED : Schema.STATUS_FAILED, version));
+	}
+
+	/**
+	 * Queues a site to be marked as disallowed by its host's robots.txt.
+	 * Blocks while the queue is full.
+	 *
+	 * @param site the site that was not fetched
+	 * @throws InterruptedException the calling thread was interrupted
+	 */
+	public void disallowed(String site) throws InterruptedException {
+		batches.put(new Entry(site, Schema.STATUS_DISALLOWED, null));
+	}
+
+	/**
+	 * Queues a site to be marked as a near-duplicate of a page that has
+	 * already been crawled, so that it is not recrawled. Blocks while the
+	 * queue is full.
+	 *
+	 * @param site the site that was fetched
+	 * @throws InterruptedException the calling thread was interrupted
+	 */
+	public void duplicate(String site) throws InterruptedException {
+		batches.put(new Entry(site, Schema.STATUS_DUPLICATE, null));
+	}
+
+	/**
+	 * Writes every queued entry to the database, then stops the writer
+	 * thread. Must not be called while workers are still writing.
+	 */
+	public void close() {
+		batches.close();
+	}
+
+	/**
+	 * A site that has been discovered or fetched.
+	 */
+	static class Entry {
+		private final String site;
+		private final int status;
+		private final PageVersion version;
+
+		private Entry(String site, int status, PageVersion version) {
+			this.site = site;
+			this.status = status;
+			this.version = version;
+		}
+
+		/**
+		 * @return the URL of the site
+		 */
+		public String getSite() {
+			return site;
+		}
+
+		/**
+		 * @return the status of the site, one of the STATUS_ constants of Schema
+		 */
+		public int getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return the version of a fetched site to recrawl it from, or null
+		 * if the site is not to be recrawled
+		 */
+		public PageVersion getVersion() {
+			return version;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package webcrawler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * A SpillQueue is a first-in, first-out queue of URLs that is kept on
+ * the disk instead of in the heap. URLs are appended to segment files
+ * as their varint depth, their score as a 4-byte float, and a varint
+ * length followed by their UTF-8 bytes, and the segments
+ * are read back in order through a large buffer, so both directions
+ * are sequential. A segment is deleted once it has been read.
+ *
+ * The segments live in a directory of their own, which is created when
+ * the first URL is added and deleted when the queue becomes empty.
+ * This class is not threadsafe.
+ */
+class SpillQueue {
+	private static final long SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private final Path parent;
+	// Directory of the segments, or null if it has not been created
+	private Path directory;
+	// Segments that are complete and waiting to be read, oldest first
+	private final Queue<Path> segments;
+	private Path writeSegment;
+	private OutputStream out;
+	private long writeSize;
+	private Path readSegment;
+	private InputStream in;
+	private long size;
+	private int segmentCount;
+
+	// Rep invariant:
+	//		parent != null, segments != null, size >= 0
+	//		out != null iff writeSegment != null, in != null iff readSegment != null
+	//		if directory == null then size == 0 and there are no segments
+	// Abstraction function:
+	//		Represents the URLs left in readSegment, followed by those in
+	//		segments and then those in writeSegment.
+
+	/**
+	 * Creates an empty queue.
+	 *
+	 * @param parent the directory in which to create the queue's directory
+	 */
+	public SpillQueue(Path parent) {
+		this.parent = parent;
+		this.directory = null;
+		this.segments = new ArrayDeque<Path>();
+		this.size = 0;
+		this.segmentCount = 0;
+	}
+
+	/**
+	 * Adds a URL to the end of the queue.
+	 *
+	 * @param entry the URL
+	 * @throws IOException unable to write to the disk
+	 */
+	public void add(Frontier.Entry entry) throws IOException {
+		if (out == null) {
+			if (directory == null) {
+				Files.createDirectories(parent);
+				directory = Files.createTempDirectory(parent, "spill");
+			}
+			writeSegment = directory.resolve(String.format("%08d.seg", segmentCount++));
+			out = new BufferedOutputStream(Files.newOutputStream(writeSegment), BUFFER_SIZE);
+			writeSize = 0;
+		}
+		byte[] bytes = entry.getSite().getBytes(StandardCharsets.UTF_8);
+		writeVarint(entry.getDepth());
+		int score = Float.floatToIntBits((float) entry.getScore());
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			out.write(score >>> shift);
+		}
+		writeSize += 4;
+		writeVarint(bytes.length);
+		out.write(bytes);
+		writeSize += bytes.length;
+		size++;
+		if (writeSize >= SEGMENT_SIZE) finishWriteSegment();
+	}
+
+	/**
+	 * Removes the URL at the front of the queue.
+	 *
+	 * @return the URL, or null if the queue is empty
+	 * @throws IOException unable to read from the disk
+	 */
+	public Frontier.Entry poll() throws IOException {
+		if (size == 0) return null;
+		if (in == null) {
+			// Only complete segments are read, so finish the one being written
+			if (segments.isEmpty()) finishWriteSegment();
+			readSegment = segments.poll();
+			in = new BufferedInputStream(Files.newInputStream(readSegment), BUFFER_SIZE);
+		}
+
+		int depth = readVarint();
+		int score = 0;
+		for (int i = 0; i < 4; i++) {
+			score = (score << 8) | readByte();
+		}
+		int length = readVarint();
+		byte[] bytes = in.readNBytes(length);
+		if (bytes.length < length) throw new EOFException("truncated segment " + readSegment);
+		size--;
+
+		// Delete the segment once it has been read completely
+		in.mark(1);
+		if (in.read() < 0) finishReadSegment();
+		else in.reset();
+		if (size == 0) clear();
+		return new Frontier.Entry(new String(bytes, StandardCharsets.UTF_8), depth, Float.intBitsToFloat(score));
+	}
+
+	/**
+	 * @return the number of URLs in the queue
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Removes all URLs and deletes the queue's directory.
+	 *
+	 * @throws IOException unable to delete the segments
+	 */
+	public void clear() throws IOException {
+		if (in != null) finishReadSegment();
+		if (out != null) {
+			out.close();
+			Files.deleteIfExists(writeSegment);
+			out = null;
+			writeSegment = null;
+		}
+		for (Path segment : segments) {
+			Files.deleteIfExists(segment);
+		}
+		segments.clear();
+		if (directory != null) Files.deleteIfExists(directory);
+		directory = null;
+		size = 0;
+	}
+
+	private void writeVarint(int value) throws IOException {
+		for (; ; value >>>= 7) {
+			writeSize++;
+			if (value < 0x80) {
+				out.write(value);
+				return;
+			}
+			out.write((value & 0x7f) | 0x80);
+		}
+	}
+
+	private int readVarint() throws IOException {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7f) << shift;
+			if (b < 0x80) return value;
+		}
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b < 0) throw new EOFException("truncated segment " + readSegment);
+		return b;
+	}
+
+	private void finishWriteSegment() throws IOException {
+		if (out == null) return;
+		out.close();
+		segments.add(writeSegment);
+		out = null;
+		writeSegment = null;
+	}
+
+	private void finishReadSegment() throws IOException {
+		in.close();
+		Files.deleteIfExists(readSegment);
+		in = null;
+		readSegment = null;
+	}
+}
@@ -0,0 +1,228 @@
+package webcrawler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A UrlCanonicalizer rewrites http and https URLs into a canonical form,
+ * so that different spellings of the same URL are only crawled once:
+ * <ul>
+ * <li>the scheme and host are lower case, and the default port is removed</li>
+ * <li>the fragment is removed, and an empty path becomes "/"</li>
+ * <li>"." and ".." path segments are resolved</li>
+ * <li>percent-encoding uses upper case hex digits, unreserved characters
+ * are decoded, and characters that are not allowed are encoded</li>
+ * <li>configured query and path parameters, such as session ids, are removed</li>
+ * </ul>
+ */
+class UrlCanonicalizer {
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private static final String PATH_CHARACTERS = "!$&'()*+,;=:@/";
+	private static final String QUERY_CHARACTERS = PATH_CHARACTERS + "?";
+	// Parameter names to remove, where a trailing '*' matches any suffix
+	private final List<String> strippedParameters;
+
+	// Rep invariant:
+	//		strippedParameters != null, and contains lower case names
+	// Abstraction function:
+	//		Represents the canonicalization that removes the query and path
+	//		parameters whose names match strippedParameters.
+
+	/**
+	 * @param config the crawler configuration
+	 */
+	public UrlCanonicalizer(CrawlerConfig config) {
+		this.strippedParameters = new ArrayList<String>();
+		for (String name : config.urlStrippedParameters()) {
+			strippedParameters.add(name.toLowerCase(Locale.ROOT));
+		}
+	}
+
+	/**
+	 * @param url an absolute URL
+	 * @return the canonical form of the URL, or null if it is not a valid
+	 * http or https URL
+	 */
+	public String canonicalize(String url) {
+		url = url.trim();
+		int fragment = url.indexOf('#');
+		if (fragment >= 0) url = url.substring(0, fragment);
+
+		int schemeEnd = url.indexOf("://");
+		if (schemeEnd <= 0) return null;
+		String scheme = url.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+		int defaultPort;
+		if (scheme.equals("http")) defaultPort = 80;
+		else if (scheme.equals("https")) defaultPort = 443;
+		else return null;
+
+		int authorityStart = schemeEnd + 3;
+		int authorityEnd = authorityStart;
+		while (authorityEnd < url.length() && "/?\\".indexOf(url.charAt(authorityEnd)) < 0) authorityEnd++;
+		String authority = url.substring(authorityStart, authorityEnd);
+
+		// Split the authority into user info, host, and port
+		String userInfo = "";
+		int at = authority.lastIndexOf('@');
+		if (at >= 0) {
+			userInfo = authority.substring(0, at + 1);
+			authority = authority.substring(at + 1);
+		}
+		String host = authority;
+		int port = -1;
+		int colon = authority.lastIndexOf(':');
+		if (colon >= 0 && colon > authority.lastIndexOf(']')) {
+			host = authority.substring(0, colon);
+			String portString = authority.substring(colon + 1);
+			if (!portString.isEmpty()) {
+				try {
+					port = Integer.parseInt(portString);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+				if (port < 0 || port > 65535) return null;
+			}
+		}
+		host = host.toLowerCase(Locale.ROOT);
+		if (host.endsWith(".")) host = host.substring(0, host.length() - 1);
+		if (host.isEmpty()) return null;
+		for (int i = 0; i < host.length(); i++) {
+			char c = host.charAt(i);
+			if (c <= ' ' || c == '%' || c == '<' || c == '>' || c == '"') return null;
+		}
+
+		String path = url.substring(authorityEnd);
+		String query = null;
+		int queryStart = path.indexOf('?');
+		if (queryStart >= 0) {
+			query = path.substring(queryStart + 1);
+			path = path.substring(0, queryStart);
+		}
+		path = path.replace('\\', '/');
+
+		StringBuilder canonical = new StringBuilder(url.length());
+		canonical.append(scheme).append("://").append(userInfo).append(host);
+		if (port >= 0 && port != defaultPort) canonical.append(':').append(port);
+		canonical.append(removeDotSegments(stripPathParameters(normalizeEscapes(path, PATH_CHARACTERS))));
+		if (query != null) {
+			String canonicalQuery = stripQueryParameters(normalizeEscapes(query, QUERY_CHARACTERS));
+			if (!canonicalQuery.isEmpty()) canonical.append('?').append(canonicalQuery);
+		}
+		return canonical.toString();
+	}
+
+	/**
+	 * Normalizes the percent-encoding of a URL component.
+	 *
+	 * @param component the component
+	 * @param allowed characters besides unreserved ones that need no encoding
+	 * @return the normalized component
+	 */
+	private static String normalizeEscapes(String component, String allowed) {
+		StringBuilder normalized = null;
+		for (int i = 0; i < component.length(); i++) {
+			char c = component.charAt(i);
+			if (c == '%' && i + 2 < component.length() && isHex(component.charAt(i + 1))
+			        && isHex(component.charAt(i + 2))) {
+				int value = Character.digit(component.charAt(i + 1), 16) * 16 + Character.digit(component.charAt(i + 2), 16);
+				if (normalized == null) normalized = new StringBuilder(component.substring(0, i));
+				if (isUnreserved((char) value)) normalized.append((char) value);
+				else normalized.append('%').append(HEX[value >> 4]).append(HEX[value & 15]);
+				i += 2;
+			} else if (c < 0x80 && c != '%' && (isUnreserved(c) || allowed.indexOf(c) >= 0)) {
+				if (normalized != null) normalized.append(c);
+			} else {
+				if (normalized == null) normalized = new StringBuilder(component.substring(0, i));
+				int end = Character.isHighSurrogate(c) && i + 1 < component.length() ? i + 2 : i + 1;
+				for (byte b : component.substring(i, end).getBytes(StandardCharsets.UTF_8)) {
+					normalized.append('%').append(HEX[(b >> 4) & 15]).append(HEX[b & 15]);
+				}
+				i = end - 1;
+			}
+		}
+		return normalized == null ? component : normalized.toString();
+	}
+
+	/**
+	 * Resolves "." and ".." segments as described in RFC 3986 section 5.2.4.
+	 */
+	private static String removeDotSegments(String path) {
+		if (path.isEmpty()) return "/";
+		if (path.indexOf('.') < 0) return path;
+
+		List<String> segments = new ArrayList<String>();
+		String[] parts = path.split("/", -1);
+		for (int i = 1; i < parts.length; i++) {
+			String part = parts[i];
+			boolean last = i == parts.length - 1;
+			if (part.equals(".")) {
+				if (last) segments.add("");
+			} else if (part.equals("..")) {
+				if (!segments.isEmpty()) segments.remove(segments.size() - 1);
+				if (last) segments.add("");
+			} else {
+				segments.add(part);
+			}
+		}
+		StringBuilder resolved = new StringBuilder(path.length());
+		for (String segment : segments) {
+			resolved.append('/').append(segment);
+		}
+		return resolved.length() == 0 ? "/" : resolved.toString();
+	}
+
+	/**
+	 * Removes ";name=value" path parameters with stripped names, such as
+	 * ";jsessionid=...".
+	 */
+	private String stripPathParameters(String path) {
+		if (path.indexOf(';') < 0) return path;
+		StringBuilder stripped = new StringBuilder(path.length());
+		String[] segments = path.split("/", -1);
+		for (int i = 0; i < segments.length; i++) {
+			if (i > 0) stripped.append('/');
+			String[] parameters = segments[i].split(";", -1);
+			stripped.append(parameters[0]);
+			for (int j = 1; j < parameters.length; j++) {
+				if (!isStripped(parameters[j].split("=", 2)[0])) stripped.append(';').append(parameters[j]);
+			}
+		}
+		return stripped.toString();
+	}
+
+	/**
+	 * Removes query parameters with stripped names.
+	 */
+	private String stripQueryParameters(String query) {
+		if (strippedParameters.isEmpty() || query.isEmpty()) return query;
+		StringBuilder stripped = new StringBuilder(query.length());
+		for (String parameter : query.split("&")) {
+			if (parameter.isEmpty() || isStripped(parameter.split("=", 2)[0])) continue;
+			if (stripped.length() > 0) stripped.append('&');
+			stripped.append(parameter);
+		}
+		return stripped.toString();
+	}
+
+	private boolean isStripped(String name) {
+		name = name.toLowerCase(Locale.ROOT);
+		for (String stripped : strippedParameters) {
+			if (stripped.endsWith("*") ? name.startsWith(stripped.substring(0, stripped.length() - 1))
+			        : name.equals(stripped)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isHex(char c) {
+		return Character.digit(c, 16) >= 0 && c < 0x80;
+	}
+
+	private static boolean isUnreserved(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.'
+		        || c == '_' || c == '~';
+	}
+}
@@ -0,0 +1,93 @@
+package webcrawler;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A UrlFilter decides which canonical URLs are worth crawling. A URL is
+ * rejected if its scheme is not allowed, if its path ends in an extension
+ * of a file type that is not a web page, if its host is in a denied domain,
+ * or if there is a list of allowed domains and its host is in none of them.
+ * A domain matches the host itself and all of its subdomains.
+ */
+class UrlFilter {
+	private final Set<String> schemes;
+	private final Set<String> deniedExtensions;
+	private final List<String> allowedDomains;
+	private final List<String> deniedDomains;
+
+	// Rep invariant:
+	//		all fields != null, and only contain lower case strings
+	// Abstraction function:
+	//		Represents the set of URLs with a scheme in schemes, an extension
+	//		not in deniedExtensions, and a host that matches no domain in
+	//		deniedDomains and, unless allowedDomains is empty, some domain in
+	//		allowedDomains.
+
+	/**
+	 * @param config the crawler configuration
+	 */
+	public UrlFilter(CrawlerConfig config) {
+		this.schemes = lowerCase(config.filterSchemes());
+		this.deniedExtensions = lowerCase(config.filterDeniedExtensions());
+		this.allowedDomains = config.filterAllowedDomains();
+		this.deniedDomains = config.filterDeniedDomains();
+		allowedDomains.replaceAll(domain -> domain.toLowerCase(Locale.ROOT));
+		deniedDomains.replaceAll(domain -> domain.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * @param url a URL in canonical form
+	 * @return true if the URL should be crawled
+	 */
+	public boolean accepts(String url) {
+		int schemeEnd = url.indexOf("://");
+		if (schemeEnd <= 0 || !schemes.contains(url.substring(0, schemeEnd))) return false;
+
+		int hostStart = schemeEnd + 3;
+		int pathStart = url.indexOf('/', hostStart);
+		if (pathStart < 0) pathStart = url.length();
+		String host = url.substring(hostStart, pathStart);
+		host = host.substring(host.lastIndexOf('@') + 1);
+		int colon = host.lastIndexOf(':');
+		if (colon > host.lastIndexOf(']')) host = host.substring(0, colon);
+
+		for (String domain : deniedDomains) {
+			if (matches(host, domain)) return false;
+		}
+		if (!allowedDomains.isEmpty()) {
+			boolean allowed = false;
+			for (String domain : allowedDomains) {
+				if (matches(host, domain)) {
+					allowed = true;
+					break;
+				}
+			}
+			if (!allowed) return false;
+		}
+
+		int pathEnd = url.indexOf('?', pathStart);
+		if (pathEnd < 0) pathEnd = url.length();
+		int segmentStart = url.lastIndexOf('/', pathEnd - 1) + 1;
+		int dot = url.lastIndexOf('.', pathEnd - 1);
+		if (dot >= segmentStart && dot > pathStart) {
+			String extension = url.substring(dot + 1, pathEnd).toLowerCase(Locale.ROOT);
+			if (deniedExtensions.contains(extension)) return false;
+		}
+		return true;
+	}
+
+	private static boolean matches(String host, String domain) {
+		return host.equals(domain) || (host.endsWith(domain) && host.charAt(host.length() - domain.length() - 1) == '.');
+	}
+
+	private static Set<String> lowerCase(List<String> values) {
+		Set<String> set = new HashSet<String>();
+		for (String value : values) {
+			set.add(value.toLowerCase(Locale.ROOT));
+		}
+		return set;
+	}
+}
@@ -4,58 +4,96 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * The WebCrawler class signifies a connection to the MariaDB app.
+ * The WebCrawler class signifies a client of the crawl databases.
  */
 public class WebCrawler {
-	private static final int MAX_SITE_LENGTH = 1023;
+	/**
+	 * Fills the frontier of a crawl session that is about to start.
+	 */
+	private interface CrawlSetup {
+		/**
+		 * Called while holding the lock on sessionLock, with an empty
+		 * frontier. Attaches the frontier log if the session can start.
+		 *
+		 * @param log the frontier log of the current database
+		 * @param seen the sites that have already been discovered
+		 * @param newSites receives the sites added to the frontier that
+		 *            are not in the 'sites' table yet
+		 * @param revisits receives the versions of the sites added to the
+		 *            frontier that are being recrawled, by URL
+		 * @return an error message, or null if the session can start
+		 */
+		String fill(FrontierLog log, SeenUrls seen, List<String> newSites, Map<String, PageVersion> revisits);
+	}
+
 	private static final String DEFAULT_DATABASE = "webcrawler";
 	private String currentDatabase;
-	// Connection to the database
-	private final Connection connection;
-	// Reference to the WebCrawlerServer so that client
-	// accesses to the database can be properly synchronized 
-	private final WebCrawlerServer databaseLock;
-	// A map from URLs to threads that are currently running
-	private final Map<String, Thread> threads;
-	private boolean createThreads;
+	// Reference to the WebCrawlerServer so that clients of
+	// the same database can share state and stop each other
+	private final WebCrawlerServer server;
+	// The crawl databases, shared with the other clients
+	private final CrawlStore store;
+	private final CrawlerConfig config;
+	// URLs waiting to be crawled by the worker threads
+	private Frontier frontier;
+	// Downloads sites, shared with the other clients
+	private final Fetcher fetcher;
+	// robots.txt rules, shared with the other clients
+	private final RobotsCache robots;
+	// Metrics of the crawls of all clients
+	private final CrawlMetrics metrics;
+	// The cluster that the server is part of, or null if it crawls on its own
+	private final Cluster cluster;
+	// The crawl over the frontier, or null if no crawl has been started
+	private CrawlSession session;
+	// Guards frontier and session
+	private final Object sessionLock;
 
 	// Rep invariant:
 	//		currentDatabase != null
-	//		connection != null
-	//		databaseLock is the server that created this WebCrawler
-	//		threads != null
+	//		server is the server that created this WebCrawler
+	//		store != null, config != null
+	//		frontier != null
+	//		fetcher != null, robots != null, metrics != null, sessionLock != null
 	// Abstraction function:
-	//		Represents a client that interacts with a MariaDB database.
+	//		Represents a client that interacts with a crawl database.
+	// Thread safety argument:
+	//		Clients do not lock the database. The store is threadsafe, and
+	//		keeps concurrent clients from claiming the same seed or storing
+	//		the same site twice.
 
 	/**
-	 * Instantiates a WebCrawler object from a given connection
-	 * to the MariaDB app. Automatically starts by using the
-	 * DEFAULT_DATABASE, and by initializing its tables.
+	 * Instantiates a WebCrawler object that accesses the crawl
+	 * databases through a store. Automatically starts by using
+	 * the DEFAULT_DATABASE.
 	 * 
-	 * @param lock reference to the server that instantiated this object
-	 * @param connection an established connection to the MariaDB app
-	 * @throws SQLException unable to create a connection
+	 * @param server reference to the server that instantiated this object
+	 * @param store the crawl databases
+	 * @param fetcher downloads the sites to crawl
+	 * @param robots the robots.txt rules of the hosts to crawl
+	 * @param metrics the metrics of the crawls of all clients
+	 * @param cluster the cluster that the server is part of, or null if
+	 *            it crawls on its own
+	 * @param config the crawler configuration
 	 */
-	public WebCrawler(WebCrawlerServer databaseLock, Connection connection) throws SQLException {
-		this.databaseLock = databaseLock;
-		this.connection = connection;
-		this.threads = new HashMap<String, Thread>();
-		this.createThreads = true;
+	public WebCrawler(WebCrawlerServer server, CrawlStore store, Fetcher fetcher, RobotsCache robots,
+	        CrawlMetrics metrics, Cluster cluster, CrawlerConfig config) {
+		this.server = server;
+		this.store = store;
+		this.fetcher = fetcher;
+		this.robots = robots;
+		this.metrics = metrics;
+		this.cluster = cluster;
+		this.config = config;
+		this.frontier = new Frontier(config);
+		this.session = null;
+		this.sessionLock = new Object();
 		this.use(DEFAULT_DATABASE);
 	}
 
@@ -67,11 +105,27 @@ public class WebCrawler {
 	}
 
 	/**
-	 * Executes a command related to web crawling and the MariaDB app.
+	 * @param input the client's input
+	 * @return true if the input is a command that only reports on the
+	 * crawl, and so never waits for a crawl, the store or another client
+	 */
+	public static boolean isReport(String input) {
+		switch (input.split(" +", 2)[0].toLowerCase()) {
+		case "help":
+		case "stats":
+		case "threads":
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Executes a command related to web crawling and the crawl databases.
 	 * Use the help command to see a description of all available commands.
-	 * The effect of using this method through multiple instantiations of
-	 * this object simultaneously is undefined. Synchronization must be
-	 * used to ensure no conflict between executed commands.
+	 * Multiple instantiations of this object can execute commands
+	 * simultaneously, but one instantiation must not execute two
+	 * commands at the same time.
 	 * 
 	 * @param input the client's input
 	 * @return a message detailing the effect of the command
@@ -98,14 +152,23 @@ public class WebCrawler {
 		case "init":
 			output = init();
 			break;
+		case "migrate":
+			output = migrate();
+			break;
 		case "pause":
-			output = pause();
+			output = pause(config.crawlPauseTimeout());
+			break;
+		case "recrawl":
+			output = recrawl(argument(arg, 0), argument(arg, 1));
 			break;
 		case "resume":
-			output = resume();
+			output = resume(argument(arg, 0), argument(arg, 1));
 			break;
 		case "start":
-			output = start(arg);
+			output = start(argument(arg, 0), argument(arg, 1));
+			break;
+		case "stats":
+			output = stats();
 			break;
 		case "stop":
 			output = stop();
@@ -124,7 +187,7 @@ public class WebCrawler {
 	}
 
 	/**
-	 * This method executes the SQL "drop database" command.
+	 * Drops a database and everything in it.
 	 * Defaults to dropping the DEFAULUT_DATABASE if none
 	 * is specified. Only executes the command if no threads
 	 * are running.
@@ -134,19 +197,25 @@ public class WebCrawler {
 	 */
 	private String drop(String database) {
 		// Make sure no threads are currently running on the specified database
-		databaseLock.stopDatabase(database);
-
 		if (database == null || database.equals("")) database = DEFAULT_DATABASE;
+		if (!CrawlStore.isValidName(database)) return "ERROR: invalid database name, use letters, digits and underscores";
+		server.stopDatabase(database);
 
-		try (Statement stmt = connection.createStatement()) {
-			synchronized (databaseLock) {
-				stmt.executeUpdate("drop database if exists " + database + ";");
-			}
-			return "dropped database " + database;
-		} catch (SQLException e) {
+		try {
+			store.drop(database);
+			server.database(database).reset(false, config);
+		} catch (IOException e) {
 			e.printStackTrace();
 			return "ERROR: unable to drop database " + database;
 		}
+		try {
+			server.database(database).clearFrontierLog(config);
+			server.database(database).clearPageArchive(config);
+			return "dropped database " + database;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return "ERROR: unable to remove the frontier log or page archive of " + database;
+		}
 	}
 
 	/**
@@ -155,252 +224,368 @@ public class WebCrawler {
 	 */
 	private String help() {
 		return "\n> drop [db]\n\tDrops the specified database.\n\tIf none is specified, drops the '" + DEFAULT_DATABASE + "' database."
-		        + "\n> help\n\tThis text." + "\n> init\n\tInitializes the 'seeds', 'sites', 'jobs', and 'state' tables."
+		        + "\n> help\n\tThis text." + "\n> init\n\tInitializes the 'hosts', 'seeds', 'sites', 'state', and 'extracts' tables."
+		        + "\n> migrate\n\tMigrates the tables of the current database to the newest schema."
 		        + "\n> pause\n\tSame as the stop command, but the state of the crawler is saved."
-		        + "\n> resume\n\tResumes the state saved by the pause command."
-		        + "\n> start [threads]\n\tStarts the web crawler with the given number of threads."
-		        + "\n\tIf no thread number is specified, the crawler is started with one thread."
-		        + "\n> stop\n\tStops all threads started by this client." + "\n> threads\n\tPrints the number of threads currently running."
+		        + "\n> recrawl [threads] [depth]\n\tFetches the sites that are due to be fetched again, skipping the pages that have not changed."
+		        + "\n\tThreads and depth are the same as for the start command, with depth counted from the recrawled sites."
+		        + "\n> resume [threads] [depth]\n\tResumes the state saved by the pause command, or left behind when the server stopped."
+		        + "\n\tThreads and depth are the same as for the start command."
+		        + "\n> start [threads] [depth]\n\tStarts the web crawler from all unvisited seeds, crawling at most the given number of sites at once."
+		        + "\n\tIf no thread number is specified, the crawler is started with one site at a time."
+		        + "\n\tIf a depth is given, only sites at most that many links away from a seed are crawled."
+		        + "\n> stats\n\tPrints the throughput, errors and latencies of all crawls, and the frontier of this client."
+		        + "\n> stop\n\tStops all threads started by this client." + "\n> threads\n\tPrints the number of sites currently being crawled."
 		        + "\n> use [db]\n\tSwitches to database db.\n\tIf none is specified, uses the '" + DEFAULT_DATABASE
 		        + "' database.\n\tIf the database doesn't exist, a new one is created to switch to.\n";
 	}
 
 	/**
-	 * Creates or replaces the 'seeds', 'sites', 'jobs',
-	 * and 'state' tables. Populates the 'seeds' table with a
-	 * set of seed sites, the rest are empty.
+	 * Creates or replaces the 'hosts', 'seeds', 'sites', 'state',
+	 * and 'extracts' tables. Populates the 'seeds' table with a
+	 * set of seed sites, the rest are empty. In a cluster, only
+	 * the seeds of this node's hosts are stored.
 	 * 
 	 * @return a message detailing the effect of this method
 	 */
 	private String init() {
 		// Make sure no threads are currently running on the current database
-		databaseLock.stopDatabase(currentDatabase);
-
-		try (Statement stmt = connection.createStatement()) {
-			synchronized (databaseLock) {
-				// Create or replace the tables
-				stmt.executeUpdate(
-				        "create or replace table seeds(site VARCHAR(" + Integer.toString(MAX_SITE_LENGTH) + "), visited bit default 0);");
-				stmt.executeUpdate("create or replace table sites(site VARCHAR(" + Integer.toString(MAX_SITE_LENGTH) + "));");
-				stmt.executeUpdate("create or replace table state(site VARCHAR(" + Integer.toString(MAX_SITE_LENGTH) + "));");
-
-				// Insert all seed sites into the 'seeds' table
-				try (BufferedReader br = new BufferedReader(new FileReader("seedSites.txt"))) {
-					String line;
-					while ((line = br.readLine()) != null) {
-						stmt.executeUpdate("insert into seeds values('" + line + "', 0);");
-					}
-				} catch (FileNotFoundException e) {
-					e.printStackTrace();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+		server.stopDatabase(currentDatabase);
+
+		// Read all seed sites, in the same canonical form
+		// as the sites that are found while crawling
+		List<String> seeds = new ArrayList<String>();
+		UrlCanonicalizer canonicalizer = new UrlCanonicalizer(config);
+		try (BufferedReader br = new BufferedReader(new FileReader(config.seedsFile()))) {
+			String line;
+			while ((line = br.readLine()) != null) {
+				String site = canonicalizer.canonicalize(line);
+				if (site == null || site.length() > Schema.MAX_SITE_LENGTH) continue;
+				if (cluster != null && cluster.owner(site) != cluster.self()) continue;
+				seeds.add(site);
 			}
-			return "initialized new tables";
-		} catch (SQLException e) {
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		try {
+			store.init(currentDatabase, seeds);
+			server.database(currentDatabase).reset(true, config);
+		} catch (IOException e) {
 			e.printStackTrace();
 			return "ERROR: unable to initialize new tables";
 		}
+		try {
+			server.database(currentDatabase).clearFrontierLog(config);
+			server.database(currentDatabase).clearPageArchive(config);
+			return "initialized new tables";
+		} catch (IOException e) {
+			e.printStackTrace();
+			return "ERROR: unable to clear the frontier log or page archive";
+		}
 	}
 
 	/**
-	 * Stops all of the threads that are currently running.
-	 * Saves the state of all of these threads so that they
-	 * can be resumed later on.
-	 * 
+	 * Migrates the tables of the current database to the newest
+	 * schema version. Stops all threads running on the database first.
+	 *
 	 * @return a message detailing the effect of this method
 	 */
-	private String pause() {
-		// Make sure all threads terminate by not creating new threads
-		createThreads = false;
+	private String migrate() {
+		server.stopDatabase(currentDatabase);
 
-		// Wait for all threads to stop producing new threads
 		try {
-			Thread.sleep(200);
-		} catch (InterruptedException e) {
+			int version = store.version(currentDatabase);
+			if (version == 0) return "ERROR: no tables to migrate, use init to create them";
+			if (version == Schema.VERSION) return "tables already use schema version " + Schema.VERSION;
+
+			long sites = store.migrate(currentDatabase);
+			server.database(currentDatabase).reset(false, config);
+			return "migrated " + sites + " sites to schema version " + Schema.VERSION;
+		} catch (IOException e) {
 			e.printStackTrace();
+			return "ERROR: unable to migrate tables";
 		}
+	}
 
-		synchronized (threads) {
-			if (threads.size() == 0) {
-				createThreads = true;
-				return "ERROR: no threads to pause";
-			}
+	/**
+	 * Stops all of the threads that are currently running.
+	 * The frontier of sites that have not been crawled yet is
+	 * already in the frontier log, so it can be resumed later on.
+	 * Sites that are still being crawled after the timeout are
+	 * cancelled, and crawled again when the crawl is resumed.
+	 *
+	 * @param timeout the number of milliseconds to wait for the
+	 *            sites being crawled, or 0 to cancel them right away
+	 * @return a message detailing the effect of this method
+	 */
+	private String pause(long timeout) {
+		synchronized (sessionLock) {
+			if (!isCrawling()) return "ERROR: no threads to pause";
+
+			// Wait for the sites being crawled to be finished, so that
+			// the links they contain are included in the frontier
+			session.stop(timeout);
+			frontier.clear();
+		}
 
-			// Save the state into the database
-			synchronized (databaseLock) {
-				try (Statement stmt = connection.createStatement()) {
-					for (String site : threads.keySet()) {
-						if (site.length() <= MAX_SITE_LENGTH) {
-							stmt.executeUpdate("insert into state values ('" + site + "');");
-						}
-					}
-				} catch (SQLException e) {
-					e.printStackTrace();
-					return "ERROR: unable to save state to database";
-				}
+		return "paused all threads";
+	}
+
+	/**
+	 * Restarts the crawl in the current database from the frontier
+	 * that was previously paused, or that was left behind when the
+	 * server stopped. If there is no such frontier, or if another
+	 * client is crawling the database, this method does nothing.
+	 *
+	 * @param num number of threads to resume the web crawling with
+	 * @param depth maximum number of links between a seed and a crawled site
+	 * @return a message detailing the effect of this method
+	 */
+	private String resume(String num, String depth) {
+		return crawl(num, depth, "resumed", (log, seen, newSites, revisits) -> {
+			// Add all pending sites in the frontier log to the frontier,
+			// which spills the sites that do not fit in memory to the disk
+			try {
+				log.replay((site, siteDepth) -> frontier.offer(site, siteDepth, Frontier.INITIAL_SCORE));
+			} catch (IOException e) {
+				e.printStackTrace();
+				return "ERROR: unable to retrieve saved state";
 			}
 
-			// Wait for all threads to terminate
-			for (Thread thread : threads.values()) {
-				try {
-					thread.join();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+			// Move the sites saved by older versions of the crawler
+			// from the database to the frontier log
+			try {
+				for (String site : store.removeSavedFrontier(currentDatabase)) {
+					log.enqueue(site, 0);
+					frontier.offer(site, 0, Frontier.INITIAL_SCORE);
 				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				return "ERROR: unable to retrieve saved state";
 			}
-			threads.clear();
-		}
-
-		// Threads are allowed to be created again
-		createThreads = true;
 
-		return "paused all threads";
+			if (frontier.size() == 0) return "ERROR: no state was saved";
+			if (!log.attach(true)) {
+				frontier.clear();
+				return "ERROR: another client is crawling this database";
+			}
+			return null;
+		});
 	}
 
 	/**
-	 * Restarts all threads in the current database that were
-	 * previously paused. If there are no such threads, this
-	 * method does nothing.
-	 * 
+	 * Recrawls the sites of the current database that are due to be
+	 * fetched again. Every site is fetched with a conditional request made
+	 * from the version that it was last fetched in, and only the pages that
+	 * have changed since are searched for links, which are crawled like
+	 * the links of any other crawl. Defaults to one thread and the
+	 * configured maximum depth, like the start command.
+	 *
+	 * @param num number of threads to recrawl with
+	 * @param depth maximum number of links between a recrawled site and a
+	 *            newly crawled site
 	 * @return a message detailing the effect of this method
 	 */
-	private String resume() {
-		List<String> statePages = new ArrayList<String>();
-
-		// Add all saved sites to statePages, then clear the 'state' table
-		synchronized (databaseLock) {
-			try (Statement stmt = connection.createStatement()) {
-				ResultSet state = stmt.executeQuery("select * from state;");
-
-				while (state.next()) {
-					statePages.add(state.getString("site"));
-				}
+	private String recrawl(String num, String depth) {
+		long[] siteCount = new long[1];
+		String result = crawl(num, depth, "started", (log, seen, newSites, revisits) -> {
+			log.attach(false);
 
-				stmt.executeUpdate("create or replace table state(site VARCHAR(255));");
-			} catch (SQLException e) {
+			// Claim the due sites while the frontier has room for them. They
+			// have been seen already, so they are not written to the 'sites' table.
+			try {
+				store.claimDueSites(currentDatabase, System.currentTimeMillis(), (site, version) -> {
+					if (!frontier.offer(site, 0, Frontier.INITIAL_SCORE)) return false;
+					log.enqueue(site, 0);
+					revisits.put(site, version);
+					return true;
+				});
+			} catch (IOException e) {
 				e.printStackTrace();
-				return "ERROR: unable to retrieve saved state";
+				frontier.drain(log::complete);
+				log.detach();
+				return "ERROR: unable to start threads";
 			}
-		}
 
-		spawnThreads(statePages);
+			siteCount[0] = frontier.size();
+			if (siteCount[0] == 0) {
+				log.detach();
+				return "ERROR: no sites are due to be recrawled";
+			}
+			return null;
+		});
 
-		if (statePages.size() == 0) return "ERROR: no state was saved";
-		else if (statePages.size() == 1) return "resumed 1 thread";
-		else return "resumed " + statePages.size() + " threads";
+		if (result.startsWith("ERROR")) return result;
+		return result + " to recrawl " + siteCount[0] + " sites";
 	}
 
 	/**
-	 * Starts the web crawling from a given number of seed pages.
-	 * Defaults to starting with one thread if the input is null.
-	 * 
+	 * Starts the web crawling from all seed pages that have not been
+	 * visited yet. Defaults to starting with one thread if the input
+	 * is null, and to the configured maximum depth if no depth is given.
+	 * In a cluster, the crawl starts even without seeds, and waits for
+	 * the sites that the other nodes forward to it.
+	 *
 	 * @param num number of threads to start the web crawling with
+	 * @param depth maximum number of links between a seed and a crawled site
 	 * @return a message detailing the effect of this method
 	 */
-	private String start(String num) {
-		// Get the number of threads from the input String
-		int threadCount;
-		if (num == null) {
-			threadCount = 1;
-		} else {
+	private String start(String num, String depth) {
+		return crawl(num, depth, "started", (log, seen, newSites, revisits) -> {
+			log.attach(false);
+
+			// While there are still seeds available and the frontier has room for them, claim a seed
+			// and add it to the frontier. Also add the seed to the sites of the database so that it
+			// is not revisited later.
 			try {
-				threadCount = Integer.valueOf(num);
-				if (threadCount < 1) throw new IllegalArgumentException();
-			} catch (NumberFormatException e) {
-				return "ERROR: please input a number";
-			} catch (IllegalArgumentException e) {
-				return "ERROR: please input a number of threads greater than 0";
+				store.claimSeeds(currentDatabase, site -> {
+					if (!frontier.offer(site, 0, Frontier.INITIAL_SCORE)) return false;
+					log.enqueue(site, 0);
+					if (seen.add(site)) newSites.add(site);
+					return true;
+				});
+			} catch (IOException e) {
+				e.printStackTrace();
+				frontier.drain(log::complete);
+				log.detach();
+				return "ERROR: unable to start threads";
+			}
+
+			if (frontier.size() == 0 && cluster == null) {
+				log.detach();
+				return "ERROR: no more seeds to start threads from";
 			}
+			return null;
+		});
+	}
+
+	/**
+	 * Starts a crawl session in the current database, which is shared by
+	 * the start, resume and recrawl commands. Parses the arguments of the
+	 * command, opens the state of the database, and has the command fill
+	 * a new frontier before the session starts.
+	 *
+	 * @param num number of threads to crawl with, or null for one thread
+	 * @param depth maximum number of links between a seed and a crawled
+	 *            site, or null for the configured maximum depth
+	 * @param verb the past tense of the command, for the reply
+	 * @param setup fills the frontier and attaches the frontier log
+	 * @return a message detailing the effect of the command
+	 */
+	private String crawl(String num, String depth, String verb, CrawlSetup setup) {
+		int threadCount;
+		try {
+			threadCount = parseThreadCount(num);
+		} catch (NumberFormatException e) {
+			return "ERROR: please input a number";
+		} catch (IllegalArgumentException e) {
+			return "ERROR: please input a number of threads greater than 0";
+		}
+		int maxDepth;
+		try {
+			maxDepth = parseMaxDepth(depth);
+		} catch (IllegalArgumentException e) {
+			return "ERROR: please input a depth of 0 or more";
 		}
 
-		// Find seeds to add to the seedPages list
-		List<String> seedPages = new ArrayList<String>();
-		synchronized (databaseLock) {
-			try (Statement stmt = connection.createStatement()) {
-				ResultSet availableSeeds = stmt.executeQuery("select * from seeds where visited = 0;");
-
-				// While there are still seeds available and more seeds are still wanted, get a seed,
-				// set it to visited in the database, and add it to the seedPages list. Also add the
-				// seed to the 'sites' table in the database so that it is not revisited later.
-				while (availableSeeds.next() && seedPages.size() < threadCount) {
-					String site = availableSeeds.getString("site");
-					stmt.executeUpdate("update seeds set visited = 1 where site = '" + site + "';");
-					seedPages.add(site);
-					stmt.executeUpdate("insert into sites values ('" + site + "');");
-				}
-			} catch (SQLException e) {
+		synchronized (sessionLock) {
+			if (isCrawling()) return "ERROR: threads are already running";
+
+			frontier = new Frontier(config);
+
+			SeenUrls seen;
+			PageArchive archive;
+			try {
+				if (!hasCurrentSchema()) return "ERROR: tables use an old schema, use migrate to update them";
+				seen = server.database(currentDatabase).seenSites(store, config);
+				archive = pageArchive();
+			} catch (IOException e) {
 				e.printStackTrace();
 				return "ERROR: unable to start threads";
 			}
+
+			FrontierLog log;
+			try {
+				log = server.database(currentDatabase).frontierLog(config);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return "ERROR: unable to open the frontier log";
+			}
+
+			List<String> newSites = new ArrayList<String>();
+			Map<String, PageVersion> revisits = new ConcurrentHashMap<String, PageVersion>();
+			String error = setup.fill(log, seen, newSites, revisits);
+			if (error != null) return error;
+
+			startSession(threadCount, maxDepth, seen, revisits, newSites, log, archive);
 		}
 
-		spawnThreads(seedPages);
+		return verb + " " + threadCount + (threadCount == 1 ? " thread" : " threads");
+	}
+
+	/**
+	 * @return the metrics of all crawls on the server, followed by the
+	 * state of this client's frontier
+	 */
+	private String stats() {
+		StringBuilder stats = new StringBuilder(metrics.report());
+		synchronized (sessionLock) {
+			stats.append("\nfrontier " + frontier.size() + " sites waiting (" + frontier.spilledSize() + " on disk), "
+			        + frontier.hostCount() + " hosts");
+			stats.append("\nin flight " + (isCrawling() ? session.inFlight() : 0));
+			for (Map.Entry<String, Integer> host : frontier.inFlightByHost(10).entrySet()) {
+				stats.append(", " + host.getKey() + " " + host.getValue());
+			}
+		}
+		return stats.toString();
+	}
 
-		if (seedPages.size() == 0) return "ERROR: no more seeds to start threads from";
-		else if (seedPages.size() == 1) return "started 1 thread";
-		else return "started " + Integer.toString(seedPages.size()) + " threads";
+	/**
+	 * Pauses the crawl of this client, if it is crawling, because the
+	 * client has disconnected. The crawl can be resumed by another client
+	 * of the database.
+	 */
+	public void disconnect() {
+		pause(config.crawlPauseTimeout());
 	}
 
 	/**
 	 * Stops all of the threads that are currently running.
 	 * Only the threads that have been started by this client
 	 * are stopped.
-	 * 
+	 *
 	 * @return a message detailing the effect of this method
 	 */
 	public String stop() {
-		// Make sure all threads terminate by not creating new threads
-		createThreads = false;
-
-		// Wait for all threads to stop producing new threads
-		try {
-			Thread.sleep(200);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
+		synchronized (sessionLock) {
+			if (!isCrawling()) return "ERROR: no threads to stop";
 
-		// Wait for all threads to terminate
-		synchronized (threads) {
-			if (threads.size() == 0) {
-				createThreads = true;
-				return "ERROR: no threads to stop";
-			}
-
-			for (Thread thread : threads.values()) {
-				try {
-					thread.join();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-			threads.clear();
+			// The sites being crawled are not resumed, so they are cancelled right away
+			session.stop(0);
+			session.discardPending();
 		}
 
-		// Threads are allowed to be created again
-		createThreads = true;
-
 		return "stopped all threads";
 	}
 
 	/**
 	 * @return a message containing the number of
-	 * threads currently running
+	 * sites currently being crawled
 	 */
 	private String threads() {
-		int runningThreads = 0;
-		synchronized (threads) {
-			// Only count threads that are alive
-			for (Thread thread : threads.values()) {
-				if (thread.isAlive()) runningThreads++;
-			}
+		int inFlight = 0;
+		synchronized (sessionLock) {
+			if (isCrawling()) inFlight = session.inFlight();
 		}
-		if (runningThreads == 1) return "1 thread currently running";
-		else return Integer.toString(runningThreads) + " threads currently running";
+		if (inFlight == 1) return "1 site currently being crawled";
+		else return Integer.toString(inFlight) + " sites currently being crawled";
 	}
 
 	/**
-	 * This method executes the SQL "use" command. If the
+	 * Switches to another database. If the
 	 * database specified doesn't exist, a new database is
 	 * created and used with the specified name. 
 	 * 
@@ -408,103 +593,139 @@ public class WebCrawler {
 	 * @return a message detailing the effect of this method
 	 */
 	private String use(String database) {
-		// Make sure all threads that this client was running are stored
-		pause();
-
 		if (database == null || database.equals("")) database = DEFAULT_DATABASE;
+		if (!CrawlStore.isValidName(database)) return "ERROR: invalid database name, use letters, digits and underscores";
+
+		// Make sure all threads that this client was running are stored
+		pause(0);
 		currentDatabase = database;
 
-		try (Statement stmt = connection.createStatement()) {
-			synchronized (databaseLock) {
-				stmt.executeUpdate("create database if not exists " + database);
-			}
-			stmt.executeUpdate("use " + database);
+		try {
+			store.use(database);
 			return "using database " + database;
-		} catch (SQLException e) {
+		} catch (IOException e) {
 			e.printStackTrace();
 			return "ERROR: unable to use database " + database;
 		}
 	}
 
 	/**
-	 * Given a list of URLs, create one thread per URL
-	 * where each thread finds new URLs on the page and
-	 * finds any existing job postings.
-	 * 
-	 * @param sites list of URLs
+	 * @return true if the tables of the current database use the
+	 * newest schema version, or if there are no tables yet
+	 * @throws IOException unable to read the schema version
 	 */
-	private void spawnThreads(List<String> sites) {
-		for (String site : sites) {
-			if (!createThreads) return;
-
-			Thread tempThread = new Thread(new Runnable() {
-				public void run() {
-					if (createThreads) {
-						// Get all URLs that appear on the specified site
-						Elements links = null;
-						try {
-							Document doc = Jsoup.connect(site).get();
-							links = doc.select("a[href]");
-						} catch (IOException e) {
-							if (createThreads) {
-								synchronized (threads) {
-									threads.remove(site);
-								}
-							}
-							return;
-						} catch (IllegalArgumentException e) {
-							if (createThreads) {
-								synchronized (threads) {
-									threads.remove(site);
-								}
-							}
-							return;
-						}
-
-						// Add all sites that have not been visited before to newSites,
-						// as well as to the 'sites' table in the database
-						List<String> newSites = new ArrayList<String>();
-						if (links != null) {
-							synchronized (databaseLock) {
-								try (Statement stmt = connection.createStatement()) {
-									for (Element link : links) {
-										String newSite = link.attr("abs:href");
-										// Replace any apostrophes to avoid SQL syntax errors
-										newSite = newSite.replaceAll("'", "''");
-										ResultSet siteFromDB = stmt.executeQuery("select * from sites where site = '" + newSite + "';");
-										// If siteFromDB is empty, then newSite doesn't yet exist in the database
-										if (!siteFromDB.next() && newSite.length() <= MAX_SITE_LENGTH) {
-											newSites.add(newSite);
-											stmt.executeUpdate("insert into sites values ('" + newSite + "');");
-										}
-									}
-								} catch (SQLException e) {
-									e.printStackTrace();
-								}
-							}
-						}
-
-						// TODO: Here is where you can collect any data you want from the site
-
-						spawnThreads(newSites);
-
-						// This thread has now completed
-						if (createThreads) {
-							synchronized (threads) {
-								threads.remove(site);
-							}
-						}
-					}
-				}
-			});
+	private boolean hasCurrentSchema() throws IOException {
+		int version = store.version(currentDatabase);
+		return version == 0 || version == Schema.VERSION;
+	}
 
-			if (createThreads) {
-				synchronized (threads) {
-					threads.put(site, tempThread);
-				}
-			}
+	/**
+	 * Parses the number of threads given to the start and resume
+	 * commands. Defaults to one thread if the input is null.
+	 *
+	 * @param num the client's input
+	 * @return the number of threads
+	 * @throws NumberFormatException num is not a number
+	 * @throws IllegalArgumentException num is less than 1
+	 */
+	private static int parseThreadCount(String num) throws IllegalArgumentException {
+		if (num == null) return 1;
+		int threadCount = Integer.valueOf(num.trim());
+		if (threadCount < 1) throw new IllegalArgumentException();
+		return threadCount;
+	}
+
+	/**
+	 * Parses the maximum depth given to the start and resume commands.
+	 * Defaults to the configured maximum depth if the input is null.
+	 *
+	 * @param depth the client's input
+	 * @return the maximum number of links between a seed and a crawled site
+	 * @throws IllegalArgumentException depth is not a number, or is less than 0
+	 */
+	private int parseMaxDepth(String depth) throws IllegalArgumentException {
+		if (depth == null) return config.crawlMaxDepth();
+		int maxDepth = Integer.valueOf(depth.trim());
+		if (maxDepth < 0) throw new IllegalArgumentException();
+		return maxDepth;
+	}
+
+	/**
+	 * @param arg the arguments of a command, separated by spaces, or null
+	 * @param index the position of an argument
+	 * @return the argument at index, or null if there are not enough arguments
+	 */
+	private static String argument(String arg, int index) {
+		if (arg == null) return null;
+		String[] args = arg.trim().split(" +");
+		return index < args.length && !args[index].isEmpty() ? args[index] : null;
+	}
 
-			tempThread.start();
+	/**
+	 * @return the page archive of the current database, or null if pages
+	 * are not archived
+	 * @throws IOException unable to open the archive
+	 */
+	private PageArchive pageArchive() throws IOException {
+		return config.archiveEnabled() ? server.database(currentDatabase).pageArchive(config) : null;
+	}
+
+	/**
+	 * Starts a crawl session over the frontier. Must be called while
+	 * holding the lock on sessionLock.
+	 *
+	 * @param maxInFlight the maximum number of sites being crawled at once
+	 * @param maxDepth the maximum number of links between a seed and a crawled site
+	 * @param seen the sites that have already been discovered
+	 * @param revisits the versions of the sites in the frontier that are being recrawled
+	 * @param newSites sites in the frontier that are not in the 'sites' table yet
+	 * @param log the frontier log, which the session must already be attached to
+	 * @param archive the page archive of the database, or null if pages are not archived
+	 */
+	private void startSession(int maxInFlight, int maxDepth, SeenUrls seen, Map<String, PageVersion> revisits,
+	        List<String> newSites, FrontierLog log, PageArchive archive) {
+		SiteWriter writer = new SiteWriter(store, currentDatabase, metrics, config);
+		NearDuplicateIndex nearDuplicates = config.duplicatesEnabled() ? server.database(currentDatabase).nearDuplicates(config)
+		        : null;
+		ProcessorPipeline pipeline = ProcessorPipeline.create(store, currentDatabase, metrics, config);
+		session = new CrawlSession(frontier, log, seen, nearDuplicates, revisits, writer, archive, pipeline, fetcher,
+		        robots, metrics, config, cluster, currentDatabase, maxInFlight, maxDepth);
+		session.start(newSites);
+	}
+
+	/**
+	 * Adds sites that another node of the cluster has forwarded to the
+	 * crawl of this client, if it is crawling the given database.
+	 *
+	 * @param database the name of the database that the sites belong to
+	 * @param links the forwarded sites
+	 * @return true if the sites were added, false if this client is not
+	 * crawling the database
+	 * @throws InterruptedException the calling thread was interrupted
+	 */
+	public boolean admit(String database, List<Cluster.Link> links) throws InterruptedException {
+		// Holding the lock keeps the session from stopping while the sites are added
+		synchronized (sessionLock) {
+			if (!isCrawling() || !currentDatabase.equals(database)) return false;
+			session.admit(links);
+			return true;
 		}
 	}
+
+	/**
+	 * @return true if this client is crawling
+	 */
+	public boolean isRunning() {
+		synchronized (sessionLock) {
+			return isCrawling();
+		}
+	}
+
+	/**
+	 * @return true if a crawl session is running. Must be called while
+	 * holding the lock on sessionLock.
+	 */
+	private boolean isCrawling() {
+		return session != null && session.isRunning();
+	}
 }
@@ -1,174 +1,506 @@
 package webcrawler;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * This class represents a server that is connected to the MariaDB app.
+ * This class represents a server that is connected to a store of crawl
+ * databases, which is the MariaDB app unless the embedded store is configured.
  * Multiple clients can connect to the server simultaneously and are able
  * to send requests in order to retrieve relevant information from the database.
+ * A client may send several commands without waiting for their replies; the
+ * commands of a client are executed in order, and replied to in that order.
+ * Several servers can crawl together as the nodes of a cluster, where each
+ * server crawls the sites of its own share of the hosts.
  */
 public class WebCrawlerServer {
+	// Threads that execute the help, stats and threads commands of all clients
+	private static final int REPORT_THREADS = 2;
 	// List of all clients currently connected to the database
 	private List<WebCrawler> clients;
+	// State shared by the clients of each database, by database name
+	private final Map<String, CrawlDatabase> databases;
+	// The crawl databases, shared by all clients
+	private final CrawlStore store;
+	// Downloads sites for all clients
+	private final Fetcher fetcher;
+	// robots.txt rules of the hosts being crawled by all clients
+	private final RobotsCache robots;
+	// Counters and latencies of the crawls of all clients
+	private final CrawlMetrics metrics;
+	// The cluster that this server is part of, or null if it crawls on its own
+	private final Cluster cluster;
+	private final CrawlerConfig config;
 
-	// Default port number where the server listens for connections.
-	private static final int PORT = 4949;
-	private ServerSocket serverSocket;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	// Executes the commands of all clients, except for reports
+	private final ExecutorService workers;
+	// Connects clients and executes the commands that only report on the crawl,
+	// so that they are answered while every worker waits
+	private final ExecutorService reporters;
+	// Connections whose interest in reading or writing has changed
+	private final Queue<ClientConnection> interestChanges;
+	private final ServerLog log;
+	private final int maxConnections;
+	// Number of open connections, only accessed by the selector thread
+	private int connectionCount;
 
 	// Rep invariant:
 	//		clients != null
-	//		serverSocket != null
+	//		databases != null
+	//		store != null, fetcher != null, robots != null, metrics != null
+	//		config != null, cluster may be null
+	//		serverChannel != null, selector != null, workers != null, reporters != null
+	//		interestChanges != null, log != null
+	//		0 <= connectionCount <= maxConnections
 	// Abstraction function:
-	//		Represents a server that interacts with a local MariaDB database.
+	//		Represents a server that interacts with a store of crawl databases.
 	//		A client can connect to the server to interact with the database.
 	// Thread safety argument:
 	//		The database is the main structure that is shared between threads.
-	//		All client accesses are synchronized to this, therefore the
-	//		accesses to the database from this class do not cause problems,
-	//		which makes WebCrawlerServer threadsafe.
+	//		Clients access it through the threadsafe store, and rely on the
+	//		store to keep them apart instead of a server-wide lock.
+	//		clients and databases are only accessed while holding their own
+	//		locks, and Cluster is threadsafe, which makes WebCrawlerServer
+	//		threadsafe. The channels and selection keys are only used by
+	//		the selector thread, which workers wake up through the
+	//		threadsafe interestChanges queue.
 
 	/**
-	 * Make a RestaurantDBServer that listens for connections on port.
-	 * Initialize the restaurant database.
+	 * Make a WebCrawlerServer that listens for connections on the
+	 * configured port.
 	 * 
-	 * @param port
-	 *            port number, requires 0 <= port <= 65535
+	 * @param config
+	 *            the configuration of every client's web crawler
 	 */
-	public WebCrawlerServer() throws IOException {
-		serverSocket = new ServerSocket(PORT);
+	public WebCrawlerServer(CrawlerConfig config) throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(config.serverPort()), 1024);
+		selector = Selector.open();
+		workers = Executors.newFixedThreadPool(config.serverThreads());
+		reporters = Executors.newFixedThreadPool(REPORT_THREADS);
+		interestChanges = new ConcurrentLinkedQueue<ClientConnection>();
+		log = new ServerLog(config.serverLogRequests());
+		maxConnections = config.serverMaxConnections();
+		connectionCount = 0;
 		clients = new ArrayList<WebCrawler>();
+		databases = new HashMap<String, CrawlDatabase>();
+		store = CrawlStore.open(config);
+		fetcher = new Fetcher(config);
+		robots = new RobotsCache(fetcher, config);
+		metrics = new CrawlMetrics();
+		this.config = config;
+		cluster = config.clusterNodes().isEmpty() ? null : new Cluster(config, this::receive, metrics);
 	}
 
 	/**
-	 * Run the server, listening for connections and handling them.
+	 * Run the server, listening for connections and handling them. A
+	 * single thread accepts connections and reads and writes all of them
+	 * without blocking, and commands are executed by a fixed pool of
+	 * worker threads, so idle clients cost neither a thread nor a
+	 * database connection. Commands that only report on the crawl run on
+	 * a small pool of their own, so they are still answered while every
+	 * worker waits for a slow command such as pause or init.
 	 * 
 	 * @throws IOException
 	 *             if the main server socket is broken
 	 */
 	public void serve() throws IOException {
-		WebCrawlerServer databaseLock = this;
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 		while (true) {
-			// block until a client connects
-			final Socket socket = serverSocket.accept();
-			// create a new thread to handle that client
-			Thread handler = new Thread(new Runnable() {
-				public void run() {
-					try {
-						WebCrawler webCrawler = null;
-						try (Connection connection = DriverManager
-						        .getConnection("jdbc:mariadb://localhost:3306/?user=root")) {
-							webCrawler = new WebCrawler(databaseLock, connection);
-							synchronized (clients) {
-								clients.add(webCrawler);
-							}
-							handle(socket, webCrawler);
-						} catch (SQLException e) {
-							e.printStackTrace();
-						} finally {
-							socket.close();
-							synchronized (clients) {
-								clients.remove(webCrawler);
-							}
-						}
-					} catch (IOException ioe) {
-						// this exception wouldn't terminate serve(),
-						// since we're now on a different thread, but
-						// we still need to handle it
-						ioe.printStackTrace();
-					}
+			selector.select();
+
+			// Connections whose interest changed while the selector was blocked
+			ClientConnection changed;
+			while ((changed = interestChanges.poll()) != null) {
+				changed.updateInterest();
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (!key.isValid()) continue;
+				if (key.isAcceptable()) {
+					accept();
+					continue;
+				}
+				ClientConnection connection = (ClientConnection) key.attachment();
+				try {
+					if (key.isReadable()) connection.read();
+					if (key.isValid() && key.isWritable()) connection.write();
+				} catch (IOException e) {
+					connection.close();
 				}
-			});
-			// start the thread
-			handler.start();
+			}
 		}
 	}
 
 	/**
-	 * Handle one client connection. Returns when client disconnects.
-	 * 
-	 * @param socket
-	 *            socket where client is connected
-	 * @throws IOException
-	 *             if connection encounters an error
+	 * Accepts a connection, or turns it away if there are too many.
+	 * Called by the selector thread.
 	 */
-	private void handle(Socket socket, WebCrawler webCrawler) throws IOException {
-		System.err.println("client connected");
-
-		// get the socket's input stream, and wrap converters around it
-		// that convert it from a byte stream to a character stream,
-		// and that buffer it so that we can read a line at a time
-		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) return;
+		if (connectionCount >= maxConnections) {
+			log.log("client refused, " + connectionCount + " clients connected");
+			channel.write(ByteBuffer.wrap("ERROR: too many connections\n".getBytes(StandardCharsets.UTF_8)));
+			channel.close();
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		connectionCount++;
+		ClientConnection connection = new ClientConnection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		connection.start();
+		log.log("client connected");
+	}
 
-		// similarly, wrap character=>bytestream converter around the
-		// socket output stream, and wrap a PrintWriter around that so
-		// that we have more convenient ways to write Java primitive
-		// types to it.
-		PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+	/**
+	 * Creates a client that shares the server's store,
+	 * fetcher and metrics with the other clients.
+	 *
+	 * @return the new client
+	 */
+	public WebCrawler connect() {
+		WebCrawler webCrawler = new WebCrawler(this, store, fetcher, robots, metrics, cluster, config);
+		synchronized (clients) {
+			clients.add(webCrawler);
+		}
+		return webCrawler;
+	}
 
-		try {
-			// each request is a single line containing a number
-			for (String line = in.readLine(); line != null; line = in.readLine()) {
-				System.err.println("request: " + line);
-				try {
-					String output = webCrawler.execute(line);
-
-					// Output to server and client
-					System.err.println("reply: " + output);
-					out.println(output);
-				} catch (IllegalArgumentException e) {
-					// complain about ill-formatted request
-					String response = "ERROR: unsupported command";
-					System.err.println("reply: " + response);
-					out.println(response);
-				}
-				// important! our PrintWriter is auto-flushing, but if it were not:
-				// out.flush();
-			}
-		} finally {
-			System.err.println("client disconnected");
-			out.close();
-			in.close();
+	/**
+	 * Pauses the crawl of a client that has disconnected, so that it can
+	 * be resumed by another client, and removes the client.
+	 *
+	 * @param webCrawler the client
+	 */
+	public void disconnect(WebCrawler webCrawler) {
+		// Outside the lock, since pausing waits for the sites being crawled
+		webCrawler.disconnect();
+		synchronized (clients) {
+			clients.remove(webCrawler);
 		}
 	}
 
+	/**
+	 * @return the metrics of the crawls of all clients
+	 */
+	public CrawlMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the port where the server listens for clients
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
 	/**
 	 * Stop all threads that are running on a given database.
 	 * 
 	 * @param database the database to halt
 	 */
 	public void stopDatabase(String database) {
+		// Stop the clients outside the lock, so that clients can connect
+		// and disconnect while the crawls are being stopped
+		List<WebCrawler> crawling = new ArrayList<WebCrawler>();
 		synchronized (clients) {
 			for (WebCrawler client : clients) {
 				if (client.getCurrentDatabase().equals(database)) {
-					client.stop();
+					crawling.add(client);
 				}
 			}
 		}
+		for (WebCrawler client : crawling) {
+			client.stop();
+		}
+	}
+
+	/**
+	 * Adds sites that another node of the cluster has forwarded to the
+	 * crawl of a client of their database. If no client is crawling the
+	 * database, the sites are added to its frontier log, so that they are
+	 * crawled once the crawl is resumed.
+	 *
+	 * @param database the name of the database
+	 * @param links the forwarded sites
+	 */
+	private void receive(String database, List<Cluster.Link> links) {
+		if (!CrawlStore.isValidName(database)) {
+			System.err.println("ignoring sites forwarded for invalid database name " + database);
+			return;
+		}
+		List<WebCrawler> crawlers;
+		synchronized (clients) {
+			crawlers = new ArrayList<WebCrawler>(clients);
+		}
+		try {
+			for (WebCrawler client : crawlers) {
+				if (client.admit(database, links)) return;
+			}
+			FrontierLog log = database(database).frontierLog(config);
+			for (Cluster.Link link : links) {
+				log.enqueue(link.getSite(), link.getDepth());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	/**
-	 * Start a server running on a specified port. If no port is
-	 * specified, port 4949 will be used.
+	 * Returns the state shared by all clients of a database,
+	 * creating it if no client has used the database before.
+	 *
+	 * @param name the name of the database
+	 * @return the shared state of the database
+	 */
+	public CrawlDatabase database(String name) {
+		synchronized (databases) {
+			CrawlDatabase database = databases.get(name);
+			if (database == null) {
+				database = new CrawlDatabase(name);
+				databases.put(name, database);
+			}
+			return database;
+		}
+	}
+
+	/**
+	 * Start a server running on the port set in crawler.properties.
+	 * If no port is set, port 4949 will be used.
 	 * 
-	 * @param args the port that the server will run on
+	 * @param args the properties file to use instead of crawler.properties, if any
 	 */
 	public static void main(String[] args) {
 		try {
-			WebCrawlerServer server = new WebCrawlerServer();
+			CrawlerConfig config = args.length > 0 ? CrawlerConfig.load(args[0]) : CrawlerConfig.load();
+			WebCrawlerServer server = new WebCrawlerServer(config);
 			server.serve();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * A connection of a client, with the commands it has sent that have
+	 * not been executed yet and the replies that have not been sent yet.
+	 * At most one worker or reporter executes the commands of a connection
+	 * at a time.
+	 */
+	private class ClientConnection {
+		// Commands that a client may send before it has to wait for replies
+		private static final int MAX_PIPELINED = 256;
+		private static final int MAX_LINE_LENGTH = 64 * 1024;
+		private final SocketChannel channel;
+		private SelectionKey key;
+		// Bytes received after the last complete command
+		private ByteBuffer input;
+		private final Queue<String> commands;
+		private final Queue<ByteBuffer> replies;
+		// The client, or null until the first worker has connected it
+		private WebCrawler webCrawler;
+		// True while a worker executes the commands of this connection
+		private boolean running;
+		private boolean closed;
+
+		// Thread safety argument:
+		//		channel, key and input are only used by the selector thread.
+		//		webCrawler is only used by the worker or reporter that is
+		//		running, or by the worker that disconnects it once closed.
+		//		commands, replies, running and closed are only accessed
+		//		while holding this object's lock.
+
+		private ClientConnection(SocketChannel channel) {
+			this.channel = channel;
+			this.input = ByteBuffer.allocate(1024);
+			this.commands = new ArrayDeque<String>();
+			this.replies = new ArrayDeque<ByteBuffer>();
+			this.running = false;
+			this.closed = false;
+		}
+
+		/**
+		 * Connects the client on a reporter, since that uses the store but
+		 * never waits for a crawl, so that new clients can ask for reports
+		 * while every worker is busy.
+		 */
+		private synchronized void start() {
+			running = true;
+			reporters.execute(this::executeNext);
+		}
+
+		/**
+		 * Reads the commands that have arrived. Called by the selector thread.
+		 */
+		private void read() throws IOException {
+			if (channel.read(input) < 0) {
+				close();
+				return;
+			}
+			input.flip();
+			int lineStart = 0;
+			for (int i = input.position(); i < input.limit(); i++) {
+				if (input.get(i) != '\n') continue;
+				int lineEnd = i > lineStart && input.get(i - 1) == '\r' ? i - 1 : i;
+				String line = new String(input.array(), lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+				lineStart = i + 1;
+				synchronized (this) {
+					commands.add(line);
+					if (!running) {
+						running = true;
+						executeLater();
+					}
+				}
+			}
+			input.position(lineStart);
+			input.compact();
+			if (!input.hasRemaining()) {
+				if (input.capacity() >= MAX_LINE_LENGTH) throw new IOException("command too long");
+				ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+				input.flip();
+				larger.put(input);
+				input = larger;
+			}
+			updateInterest();
+		}
+
+		/**
+		 * Sends the replies that are waiting. Called by the selector thread.
+		 */
+		private void write() throws IOException {
+			synchronized (this) {
+				while (!replies.isEmpty()) {
+					channel.write(replies.peek());
+					if (replies.peek().hasRemaining()) break;
+					replies.poll();
+				}
+			}
+			updateInterest();
+		}
+
+		/**
+		 * Reads while the client has room for more commands, and writes
+		 * while replies are waiting. Called by the selector thread.
+		 */
+		private void updateInterest() {
+			if (!key.isValid()) return;
+			int ops = 0;
+			synchronized (this) {
+				if (commands.size() < MAX_PIPELINED) ops |= SelectionKey.OP_READ;
+				if (!replies.isEmpty()) ops |= SelectionKey.OP_WRITE;
+			}
+			key.interestOps(ops);
+		}
+
+		/**
+		 * Closes the channel. Commands that have been received are still
+		 * executed, and then the client is disconnected. Called by the
+		 * selector thread.
+		 */
+		private void close() {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			connectionCount--;
+			synchronized (this) {
+				closed = true;
+				replies.clear();
+				if (running) return;
+			}
+			// Disconnecting pauses the client's crawl, which must not hold up the selector thread
+			workers.execute(this::disconnectClient);
+		}
+
+		/**
+		 * Executes the next command of this connection on a worker or a
+		 * reporter, and then hands the rest of the commands to another
+		 * thread, so that clients with many commands do not keep others
+		 * waiting.
+		 */
+		private void executeNext() {
+			if (webCrawler == null) webCrawler = connect();
+			String line;
+			synchronized (this) {
+				line = commands.poll();
+			}
+			if (line != null) reply(execute(line));
+
+			synchronized (this) {
+				if (!commands.isEmpty()) {
+					executeLater();
+					return;
+				}
+				running = false;
+				if (!closed) return;
+			}
+			// A reporter must not wait for the crawl to pause
+			workers.execute(this::disconnectClient);
+		}
+
+		/**
+		 * Hands the next command to a worker, or to a reporter if it only
+		 * reports on the crawl. Must be called while holding this object's lock.
+		 */
+		private void executeLater() {
+			(WebCrawler.isReport(commands.peek()) ? reporters : workers).execute(this::executeNext);
+		}
+
+		private String execute(String line) {
+			log.log("request: " + line);
+			String output;
+			try {
+				output = webCrawler.execute(line);
+			} catch (IllegalArgumentException e) {
+				// complain about ill-formatted request
+				output = "ERROR: unsupported command";
+			}
+			log.log("reply: " + output);
+			return output;
+		}
+
+		/**
+		 * Queues a reply, and has the selector thread send it.
+		 */
+		private void reply(String output) {
+			synchronized (this) {
+				if (closed) return;
+				replies.add(ByteBuffer.wrap((output + "\n").getBytes(StandardCharsets.UTF_8)));
+			}
+			interestChanges.add(this);
+			selector.wakeup();
+		}
+
+		private void disconnectClient() {
+			if (webCrawler != null) disconnect(webCrawler);
+			log.log("client disconnected");
+		}
+	}
 }